@@ -26,32 +26,52 @@ public class MessageEvent extends Tag {
 		 * i h="..." n="..."
 		 * identify hostname="..." nick="..."
 		 */
-		IDENTIFY ("i"),
+		IDENTIFY ("i", "h", "n", "i", "fr", "en"),
 		/**
 		 * j c="..."
 		 * join channel="..."
 		 */
-		JOIN ("j"),
+		JOIN ("j", "c"),
 		/**
 		 * l c="..."
 		 * leave channel="..."
 		 */
-		LEAVE ("l"),
+		LEAVE ("l", "c"),
 		/**
 		 * m c="..." data
 		 * message channel="..." data
 		 */
-		MESSAGE("m"),
+		MESSAGE("m", "c"),
 		/**
 		 * f t="n|e|r"
 		 * fileshare type="new|edit|remove"
 		 */
-		FILE_SHARE ("f");
+		FILE_SHARE ("f", "t", "u", "p", "s");
+		
+		/**
+		 * Looks up single character types by their byte, in either case.
+		 */
+		private static final Type[] BY_BYTE = new Type[128];
+		
+		static {
+			for (final Type t : values()) {
+				if (t.match.length() == 1) {
+					final char c = t.match.charAt(0);
+					BY_BYTE[Character.toLowerCase(c)] = t;
+					BY_BYTE[Character.toUpperCase(c)] = t;
+				}
+			}
+		}
 		
 		String match;
+		/**
+		 * The attribute keys written as numbers in the binary encoding. New keys may only be appended.
+		 */
+		final String[] dictionary;
 		
-		Type(final String m) {
+		Type(final String m, final String... dictionary) {
 			this.match = m;
+			this.dictionary = dictionary;
 		}
 		
 		@Override
@@ -68,6 +88,15 @@ public class MessageEvent extends Tag {
 			return null;
 		}
 		
+		/**
+		 * Finds the type with a single character name without creating a string.
+		 * @param type The encoded name.
+		 * @return the matching type, or <code>null</code> if there's none.
+		 */
+		public static Type from(final byte type) {
+			return type >= 0 ? BY_BYTE[type] : null;
+		}
+		
 	}
 	
 	/**
@@ -78,6 +107,13 @@ public class MessageEvent extends Tag {
 		super(raw);
 	}
 	
+	/**
+	 * Initializes a new MessageEvent from encoded bytes, which are copied.
+	 */
+	private MessageEvent(final byte[] data, final int offset, final int length) {
+		super(data, offset, length);
+	}
+	
 	/**
 	 * @return the type of this MessageEvent.
 	 */
@@ -112,6 +148,74 @@ public class MessageEvent extends Tag {
 		return event;
 	}
 	
+	/**
+	 * Parses decrypted bytes to a MessageEvent, without decoding any attributes until they're asked for.</br>
+	 * Will return 'null' if this function didn't parse the bytes correctly.
+	 * @param data - the bytes to parse, which may be reused once this returns.
+	 * @param offset - the offset of the message within the bytes.
+	 * @param length - the length of the message.
+	 * @return a MessageEvent if the bytes parsed correctly, otherwise 'null'.
+	 */
+	public static MessageEvent parse(final byte[] data, final int offset, final int length) {
+		// reject unknown types before anything is copied
+		if (length < 3 || data[offset] != '<') {
+			return null;
+		}
+		final byte name = data[offset + 1];
+		final byte next = data[offset + 2];
+		final boolean single = next == ' ' || next == '>';
+		final Type known = single ? Type.from(name) : null;
+		if (single && known == null) {
+			return null;
+		}
+		final MessageEvent event = new MessageEvent(data, offset, length).parse();
+		if (event != null) {
+			final Type t = known != null ? known : Type.from(event.getName());
+			if (t != null) {
+				event.type = t;
+			} else {
+				return null;
+			}
+		}
+		return event;
+	}
+	
+	/**
+	 * Parses decrypted bytes in the binary encoding to a MessageEvent.</br>
+	 * Will return 'null' if this function didn't parse the bytes correctly.
+	 * @param data - the bytes to parse, which may be reused once this returns.
+	 * @param offset - the offset of the message within the bytes.
+	 * @param length - the length of the message.
+	 * @return a MessageEvent if the bytes parsed correctly, otherwise 'null'.
+	 * @see Tag#toBinary(byte, String[])
+	 */
+	public static MessageEvent parseBinary(final byte[] data, final int offset, final int length) {
+		if (length < 2) {
+			return null;
+		}
+		final Type t = Type.from(data[offset]);
+		if (t == null) {
+			return null;
+		}
+		final MessageEvent event = new MessageEvent(data, offset, length);
+		event.type = t;
+		event.name = t.match;
+		return event.parseBinary(1, t.dictionary) != null ? event : null;
+	}
+	
+	/**
+	 * Writes a message in the binary encoding.
+	 * @param tag - the message to write.
+	 * @return the binary encoding of the message, or 'null' if it isn't a known type of MessageEvent.
+	 */
+	public static byte[] toBinary(final Tag tag) {
+		final Type t = tag instanceof MessageEvent ? ((MessageEvent) tag).type : Type.from(tag.getName());
+		if (t == null || t.match.length() != 1) {
+			return null;
+		}
+		return tag.toBinary((byte) t.match.charAt(0), t.dictionary);
+	}
+	
 	/**
 	 * {@inheritDoc Tag#parseBasic()}
 	 */
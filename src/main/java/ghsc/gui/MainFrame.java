@@ -23,6 +23,7 @@ import ghsc.gui.components.users.UserContainer;
 import ghsc.gui.fileshare.FileShare;
 import ghsc.gui.tray.TrayManager;
 import ghsc.util.Tag;
+import ghsc.util.TagWriter;
 import ghsc.util.TimeStamp;
 
 import javax.swing.*;
@@ -89,7 +90,7 @@ public class MainFrame extends JFrame {
                                 break;
                         }
                     }
-					this.getUsers().send(MessageEvent.construct(MessageEvent.Type.MESSAGE, User.ATT_CHANNEL, currChat, trimmedText), currChat);
+					this.getUsers().send(new TagWriter(MessageEvent.Type.MESSAGE).attribute(User.ATT_CHANNEL, currChat).post(trimmedText).toTag(), currChat);
                     chan.addElement(new ChannelElement(chan.getElements(), TimeStamp.newInstance(), null, trimmedText), true);
                 } else {
                     // TODO: not a Channel, handle PMs?
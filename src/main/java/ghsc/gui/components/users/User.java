@@ -2,6 +2,7 @@ package ghsc.gui.components.users;
 
 import ghsc.common.Debug;
 import ghsc.common.Images;
+import ghsc.event.EventListener;
 import ghsc.event.message.MessageEvent;
 import ghsc.event.message.MessageEvent.Type;
 import ghsc.gui.Application;
@@ -9,11 +10,16 @@ import ghsc.gui.components.chat.Chat;
 import ghsc.gui.components.chat.channels.Channel;
 import ghsc.gui.components.chat.channels.ChannelElement;
 import ghsc.gui.fileshare.FileShare;
-import ghsc.gui.fileshare.internal.RemotePackage;
 import ghsc.impl.ComplexIdentifiable;
 import ghsc.impl.Identifiable;
+import ghsc.net.sockets.channel.ChannelEngine;
+import ghsc.net.sockets.input.Encoding;
+import ghsc.net.sockets.input.Framing;
+import ghsc.net.sockets.input.MessageConnection;
 import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.PreparedMessage;
 import ghsc.util.Tag;
+import ghsc.util.TagWriter;
 import ghsc.util.TimeStamp;
 
 import java.awt.*;
@@ -25,11 +31,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.UUID;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 /**
  * Describes a connected user.
  */
@@ -60,11 +69,13 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
     public static final String ATT_NICK = "n";
     public static final String ATT_ID = "i";
     public static final String ATT_CHANNEL = "c";
+    public static final String ATT_FRAMING = "fr";
+    public static final String ATT_ENCODING = "en";
 	
 	private final UserContainer container;
 	
 	private final Socket socket;
-	private final MessageThread messageThread;
+	private final MessageConnection connection;
 	
 	private String hostname;
 	private String nick;
@@ -81,30 +92,32 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
 	 * @param socket The socket to populate this object.
 	 */
 	public User(final UserContainer container, final Socket socket) {
+		this(container, socket, null);
+	}
+	
+	/**
+	 * Initializes a new User by providing a Socket which will be used to dynamically populate the contents of this object.
+	 * @param container The container which this User object exists.
+	 * @param socket The socket to populate this object.
+	 * @param engine The engine to register the socket's channel with, or <code>null</code> to read the socket with a dedicated thread.
+	 */
+	public User(final UserContainer container, final Socket socket, @Nullable final ChannelEngine engine) {
 		this.container = container;
 		this.channels = new ArrayList<>();
 		this.socket = socket;
-		this.messageThread = new MessageThread(new MessageThread.IOWrapper() {
-			public InputStream getInputStream() throws IOException {
-				return User.this.socket.getInputStream();
-			}
-			public OutputStream getOutputStream() throws IOException {
-				return User.this.socket.getOutputStream();
-			}
-		}, msg -> {
+		final EventListener<MessageEvent> callback = msg -> {
             if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
                 System.out.println("User: " + msg);
             }
-            label:
             switch (msg.getType()) {
                 case IDENTIFY:
+                    this.negotiate(msg);
                     final InetSocketAddress remoteAddress = this.getRemoteSocketAddress();
                     if (!container.removeUserPending(remoteAddress)) {
                         break;
                     }
 
                     if (container.addUser(remoteAddress, this)) {
-                        container.removeMulticaster(remoteAddress);
                         this.sendIntro();
                     } else {
                         System.err.println("Unable to add " + remoteAddress.getAddress() + "@" + remoteAddress.getPort() + " to the users Hashmap.");
@@ -124,6 +137,10 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
                     this.setIgnored(container.isIgnored(this));
                     container.getMainFrame().getChatContainer().refreshUser(this);
                     container.refresh();
+                    final FileShare share = Application.getInstance().getFileShare();
+                    if (share != null) {
+                        share.sync(this);
+                    }
                     break;
                 case JOIN:
                     final String jchannels = msg.getAttribute(ATT_CHANNEL);
@@ -172,11 +189,13 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
                         }
                         switch (type) {
                             case FileShare.TYPE_NEW:
-                                final RemotePackage rp = RemotePackage.parse(this, msg.getPost());
-                                if (rp == null) {
-                                    break label;
-                                }
-                                fs.addPackages(rp);
+                                fs.receivePackage(this, msg.getPostBytes());
+                                break;
+                            case FileShare.TYPE_SYNC:
+                                fs.receiveSync(this, msg);
+                                break;
+                            case FileShare.TYPE_NOT_MODIFIED:
+                                fs.receiveNotModified(this, msg);
                                 break;
                             case FileShare.TYPE_EDIT:
 
@@ -193,23 +212,59 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
                 default:
                     break; // other cases (not normal)
             }
-        }, () -> {
+        };
+		final Runnable endOfStream = () -> {
             System.out.println("We have lost connection with " + this.getPreferredName());
             container.removeUser(this.getRemoteSocketAddress());
-        });
+        };
+		final SocketChannel channel = socket.getChannel();
+		if (engine != null && channel != null) {
+			this.connection = engine.open(channel, callback, endOfStream);
+		} else {
+			this.connection = new MessageThread(new MessageThread.IOWrapper() {
+				public InputStream getInputStream() throws IOException {
+					return User.this.socket.getInputStream();
+				}
+				public OutputStream getOutputStream() throws IOException {
+					return User.this.socket.getOutputStream();
+				}
+			}, callback, endOfStream);
+		}
 	}
 	
 	public void start() {
 		// this is protected from multiple starts...
-		this.messageThread.start();
+		this.connection.start();
 	}
 	
 	public void sendIntro() {
 		final Application application = Application.getInstance();
-		this.send(MessageEvent.construct(Type.IDENTIFY, ATT_HOSTNAME, application.getHostname(), ATT_NICK, application.getPreferredName(), ATT_ID, application.getID()));
+		final TagWriter writer = new TagWriter(Type.IDENTIFY)
+				.attribute(ATT_HOSTNAME, application.getHostname())
+				.attribute(ATT_NICK, application.getPreferredName())
+				.attribute(ATT_ID, application.getID())
+				.attribute(ATT_FRAMING, Framing.SUPPORTED)
+				.attribute(ATT_ENCODING, Encoding.SUPPORTED);
+		this.send(new PreparedMessage(writer));
 		final String channels = this.container.getMainFrame().getChatContainer().printChannels();
 		if (channels != null && !channels.isEmpty()) {
-			this.send(MessageEvent.construct(Type.JOIN, ATT_CHANNEL, channels));
+			this.send(new PreparedMessage(writer.begin(Type.JOIN).attribute(ATT_CHANNEL, channels)));
+		}
+	}
+	
+	/**
+	 * Picks the best message format out of the formats advertised by the remote user.<br>
+	 * Identify messages without any advertisement (such as nick changes) don't change the format.
+	 * @param identify The identify message received from the remote user.
+	 */
+	private void negotiate(final MessageEvent identify) {
+		final String framing = identify.getAttribute(ATT_FRAMING);
+		if (framing != null) {
+			this.connection.setFraming(Framing.negotiate(framing));
+		}
+		final String encoding = identify.getAttribute(ATT_ENCODING);
+		if (encoding != null) {
+			this.connection.setEncoding(Encoding.negotiate(encoding));
 		}
 	}
 	
@@ -369,19 +424,23 @@ public class User implements ComplexIdentifiable, Transferable, Comparable<User>
 	 * @param tag The data to send.
 	 */
 	public void send(final Tag tag) {
-		this.messageThread.send(tag);
+		this.connection.send(tag);
 	}
 	
 	/**
-	 * Disconnects the user by closing the socket.</br>
+	 * Sends a message shared with other users, which is only encrypted again if this user's connection needs a different frame.
+	 * @param message The message to send.
+	 */
+	public void send(final PreparedMessage message) {
+		this.connection.send(message);
+	}
+	
+	/**
+	 * Disconnects the user by closing the connection.</br>
 	 * The user will automatically be notified of the disconnect and should take appropriate actions.
 	 */
 	public void disconnect() {
-		if (this.socket != null) {
-			try {
-				this.socket.close();
-			} catch (final IOException ignored) {}
-		}
+		this.connection.close();
 	}
 	
 	@Override
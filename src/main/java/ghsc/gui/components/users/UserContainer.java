@@ -6,12 +6,15 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 import javax.swing.DefaultListCellRenderer;
@@ -22,11 +25,16 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 
 import ghsc.common.Colors;
+import ghsc.common.Debug;
 import ghsc.common.Fonts;
+import ghsc.event.EventProvider;
+import ghsc.event.IEventProvider;
+import ghsc.gui.Application;
 import ghsc.gui.MainFrame;
 import ghsc.gui.components.chat.Chat;
 import ghsc.gui.components.chat.channels.Channel;
 import ghsc.gui.components.users.User.Status;
+import ghsc.net.sockets.input.PreparedMessage;
 import ghsc.util.Tag;
 
 /**
@@ -43,10 +51,14 @@ public class UserContainer extends JList<User> {
 
 	private final HashMap<InetSocketAddress, User> users;
 	private final HashMap<InetSocketAddress, User> usersPending;
-	private final ArrayList<InetSocketAddress> knownMulticasters;
 	private final ArrayList<UUID> friends;
 	private final ArrayList<UUID> ignored;
 	
+	private final EventProvider<User> removedEventProvider = new EventProvider<>();
+	
+	private final AtomicLong broadcastEncryptions = new AtomicLong();
+	private final AtomicLong broadcastEncryptionsSaved = new AtomicLong();
+	
 	/**
 	 * Private helper constructor.
 	 */
@@ -57,7 +69,6 @@ public class UserContainer extends JList<User> {
         this.model = model;
         this.users = new HashMap<>();
         this.usersPending = new HashMap<>();
-        this.knownMulticasters = new ArrayList<>();
         if (allFriends != null) {
             this.friends = new ArrayList<>(allFriends.length);
             for (final String friendItem : allFriends) {
@@ -192,6 +203,23 @@ public class UserContainer extends JList<User> {
 		}
 	}
 	
+	/**
+	 * Gets a User contained in this UserContainer that connected from the given IP address, from whatever port.<br>
+	 * Used for the other connections of a user, such as file transfers, which come from another port than the user's connection.
+	 * @param address the IP address of the user's computer.
+	 * @return a User with the given address, or <code>null</code> if there's none.
+	 */
+	public User getUser(final InetAddress address) {
+		synchronized (this.users) {
+			for (final Map.Entry<InetSocketAddress, User> entry : this.users.entrySet()) {
+				if (address.equals(entry.getKey().getAddress())) {
+					return entry.getValue();
+				}
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Creates a User object from the given Socket.
 	 * Automatically refreshes the user list.
@@ -217,17 +245,26 @@ public class UserContainer extends JList<User> {
 	 * @return Whether the user existed and removed, or didn't exist in the container.
 	 */
 	public boolean removeUser(final InetSocketAddress remoteAddress) {
+		final User user;
 		synchronized (this.users) {
-			final User user = this.users.remove(remoteAddress);
+			user = this.users.remove(remoteAddress);
 			if (user == null) {
 				return false;
 			}
 			user.disconnect();
 			this.refresh();
 		}
+		this.removedEventProvider.fireEvent(user);
 		return true;
 	}
 	
+	/**
+	 * Notifies the listeners whenever a user was removed, from the thread that removed the user.
+	 */
+	public IEventProvider<User> getRemovedEventProvider() {
+		return this.removedEventProvider;
+	}
+	
 	/**
 	 * Finds a user with the given ID (UUID).
 	 * @param id The user id.
@@ -268,18 +305,43 @@ public class UserContainer extends JList<User> {
 	}
 	
 	/**
-	 * Sends the given data to all users that qualify using the given Filter.
+	 * Sends the given data to all users that qualify using the given Filter.<br>
+	 * The users are copied under the lock and sent to outside of it, so a user disconnecting doesn't wait on the others.
 	 * @param tag The data to send to the users.
 	 * @param filter The filter to use to qualify users.
 	 */
 	public void send(final Tag tag, final Predicate<User> filter) {
+		final User[] users;
 		synchronized (this.users) {
-			for (final User u : this.users.values()) {
-				if (filter.test(u)) {
-                    u.send(tag);
-                }
+			users = this.users.values().toArray(new User[0]);
+		}
+		// Serialized once, and only encrypted once for every distinct cipher
+		final PreparedMessage message = new PreparedMessage(tag);
+		for (final User u : users) {
+			if (filter.test(u)) {
+				u.send(message);
 			}
 		}
+		final int saved = message.getSavedCount();
+		this.broadcastEncryptions.addAndGet(message.getEncryptionCount());
+		this.broadcastEncryptionsSaved.addAndGet(saved);
+		if (Debug.MAJOR.compareTo(Application.DEBUG) <= 0) {
+			System.out.println("Broadcast to " + message.getRequestCount() + " users: " + message.getEncryptionCount() + " encryptions, " + saved + " saved.");
+		}
+	}
+	
+	/**
+	 * @return how many times broadcast messages were encrypted.
+	 */
+	public long getBroadcastEncryptions() {
+		return this.broadcastEncryptions.get();
+	}
+	
+	/**
+	 * @return how many encryptions were avoided by broadcasting each message's frame to every user that shares a cipher.
+	 */
+	public long getBroadcastEncryptionsSaved() {
+		return this.broadcastEncryptionsSaved.get();
 	}
 	
 	/*
@@ -352,47 +414,6 @@ public class UserContainer extends JList<User> {
 		}
 	}
 	
-	/*
-	 * Pending user region
-	 */
-	
-	/**
-	 * Checks if the given ip is contained in the pending list.
-	 * @param address The ip address to check if pending.
-	 * @return whether the pending list contains the given ip.
-	 */
-	public boolean isMulticaster(final InetSocketAddress address) {
-		synchronized (this.users) {
-			return this.knownMulticasters.contains(address);
-		}
-	}
-	
-	/**
-	 * Notifies this UserContainer that a connection with the given IP address is taking place.
-	 * @param address The IP address of the user that's in the process of being connected too.
-	 * @return <tt>true</tt> if the ip wasn't already pending and was added, otherwise <tt>false</tt>.
-	 */
-	public boolean addMulticaster(final InetSocketAddress address) {
-		synchronized (this.users) {
-            return !this.containsUserSync(address) && !this.isMulticaster(address) && this.knownMulticasters.add(address);
-        }
-	}
-	
-	/**
-	 * Removes the given ip from the pending list.</br>
-	 * @param address The IP address to remove.
-	 * @return whether the list contained the given ip and was removed successfully.
-	 */
-	public boolean removeMulticaster(final InetSocketAddress address) {
-		synchronized (this.users) {
-			return this.knownMulticasters.remove(address);
-		}
-	}
-	
-	/*
-	 * End of pending user code
-	 */
-	
 	/**
 	 * @return a collection of all users in this UserContainer.
 	 */
@@ -0,0 +1,114 @@
+package ghsc.gui.fileshare;
+
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.net.encryption.StreamCipher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Writes a range of a file received as raw bytes to its position in the target, and verifies every chunk it completes. (Downloader)<br>
+ * The bytes are decrypted first if the host encrypted them.<br>
+ * Used from the work thread of a single connection.
+ */
+class ChunkVerifier {
+
+	/**
+	 * Is told about every chunk that matches its hash, once it's written.
+	 */
+	interface Listener {
+
+		/**
+		 * @param chunk The verified chunk.
+		 * @throws IOException If the chunk couldn't be recorded, which fails the write.
+		 */
+		void verified(int chunk) throws IOException;
+
+	}
+
+	private final ChunkHashes hashes;
+	private final FileChannel output;
+	private final StreamCipher cipher;
+	private final Listener listener;
+	private final MessageDigest digest = ChunkHashes.newDigest();
+	private int chunk;
+	private int chunkFilled;
+	private boolean mismatched;
+
+	/**
+	 * Initializes a new ChunkVerifier.
+	 * @param hashes The hashes to verify the chunks with.
+	 * @param output The target, written at the positions of the chunks.
+	 * @param chunk The first chunk of the range.
+	 * @param cipher Decrypts the bytes, or <code>null</code> if they aren't encrypted.
+	 * @param listener Is told about the verified chunks.
+	 */
+	ChunkVerifier(final ChunkHashes hashes, final FileChannel output, final int chunk, final StreamCipher cipher, final Listener listener) {
+		this.hashes = hashes;
+		this.output = output;
+		this.chunk = chunk;
+		this.cipher = cipher;
+		this.listener = listener;
+	}
+
+	/**
+	 * Writes the next piece of the range.
+	 * @param data The received bytes, may be decrypted in place.
+	 * @return the number of bytes written.
+	 * @throws IOException If writing failed, or a chunk doesn't match its hash (see {@link #isMismatched()}).
+	 */
+	int write(ByteBuffer data) throws IOException {
+		if (this.cipher != null) {
+			if (data.hasArray()) {
+				final int offset = data.arrayOffset() + data.position();
+				this.cipher.update(data.array(), offset, data.remaining(), data.array(), offset);
+			} else {
+				final ByteBuffer plain = ByteBuffer.allocate(data.remaining());
+				this.cipher.update(data, plain);
+				plain.flip();
+				data = plain;
+			}
+		}
+		int total = 0;
+		while (data.hasRemaining()) {
+			final int chunkLength = this.hashes.getChunkLength(this.chunk);
+			final ByteBuffer piece = data.duplicate();
+			piece.limit(piece.position() + Math.min(piece.remaining(), chunkLength - this.chunkFilled));
+			data.position(piece.limit());
+			this.digest.update(piece.duplicate());
+			long position = ChunkHashes.getChunkOffset(this.chunk) + this.chunkFilled;
+			while (piece.hasRemaining()) {
+				final int written = this.output.write(piece, position);
+				position += written;
+				this.chunkFilled += written;
+				total += written;
+			}
+			if (this.chunkFilled == chunkLength) {
+				if (!this.hashes.matches(this.chunk, this.digest.digest())) {
+					this.mismatched = true;
+					throw new IOException("Chunk " + this.chunk + " doesn't match its hash.");
+				}
+				this.chunkFilled = 0;
+				this.listener.verified(this.chunk++);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return the chunk being received.
+	 */
+	int getChunk() {
+		return this.chunk;
+	}
+
+	/**
+	 * @return whether a chunk didn't match its hash.
+	 */
+	boolean isMismatched() {
+		return this.mismatched;
+	}
+
+}
@@ -0,0 +1,232 @@
+package ghsc.gui.fileshare;
+
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.LocalFileNode;
+import ghsc.gui.fileshare.internal.LocalFileNodeChildren;
+import ghsc.gui.fileshare.internal.LocalPackage;
+import ghsc.util.Tag;
+import ghsc.util.TagStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers where files with known contents are on this computer, by their content id (see {@link ChunkHashes#getContentId()}).<br>
+ * Files of local packages are added once they were hashed, and downloaded files once they were verified,</br>
+ * so a download can reuse a file that's already here instead of transferring it again.<br>
+ * An entry is only trusted while the file still has the length and modification time it had when it was added.<br>
+ * <br>
+ * Thread safe.
+ */
+public class ContentIndex {
+
+	private static final String TAGNAME = "c";
+	private static final String ATT_ID = "i";
+	private static final String ATT_FILE = "f";
+	private static final String ATT_LENGTH = "s";
+	private static final String ATT_MODIFIED = "m";
+
+	private final HashMap<String, Entry> entries = new HashMap<>();
+	/**
+	 * Whether reused files are hard linked instead of copied, see {@link #reuse(File, File)}.
+	 */
+	private volatile boolean linkFiles;
+
+	/**
+	 * Adds a file with known contents, replacing any other file with the same contents.
+	 * @param hashes The hashes of the file.
+	 * @param file The file.
+	 * @param modified The modification time of the file when it was hashed.
+	 * @param downloaded Whether the file was downloaded, only those are saved with the settings.
+	 */
+	public synchronized void add(final ChunkHashes hashes, final File file, final long modified, final boolean downloaded) {
+		this.entries.put(hashes.getContentId(), new Entry(file, hashes.getLength(), modified, downloaded));
+	}
+
+	/**
+	 * Adds every file of a local package whose hashes are known.
+	 * @param lp The package, usually right after {@link LocalPackage#hashFiles()}.
+	 */
+	public void addPackage(final LocalPackage lp) {
+		final LocalFileNode[] roots = lp.getRoots();
+		if (roots == null) {
+			return;
+		}
+		final ArrayDeque<LocalFileNode> pending = new ArrayDeque<>(Arrays.asList(roots));
+		final HashMap<String, Entry> found = new HashMap<>();
+		while (!pending.isEmpty()) {
+			final LocalFileNode node = pending.pop();
+			if (node.isDirectory()) {
+				final LocalFileNodeChildren children = node.getChildren();
+				if (children != null) {
+					pending.addAll(children);
+				}
+				continue;
+			}
+			final ChunkHashes hashes = node.getKnownChunkHashes();
+			if (hashes != null && node.getFile() != null) {
+				found.put(hashes.getContentId(), new Entry(node.getFile(), hashes.getLength(), node.getHashedModified(), false));
+			}
+		}
+		synchronized (this) {
+			this.entries.putAll(found);
+		}
+	}
+
+	/**
+	 * Finds a file with the given contents, forgetting files that changed since they were added.
+	 * @param id The content id of the contents, see {@link ChunkHashes#getContentId()}.
+	 * @return the file, or <code>null</code> if there's none.
+	 */
+	public synchronized File find(final String id) {
+		final Entry entry = this.entries.get(id);
+		if (entry == null) {
+			return null;
+		}
+		if (!entry.file.isFile() || entry.file.length() != entry.length || entry.file.lastModified() != entry.modified) {
+			this.entries.remove(id);
+			return null;
+		}
+		return entry.file;
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public boolean isLinkFiles() {
+		return this.linkFiles;
+	}
+
+	/**
+	 * Sets whether reused files are hard linked instead of copied.<br>
+	 * A hard link shares its contents with the local file, so editing either one changes both,</br>
+	 * which is why it has to be turned on by the user.
+	 */
+	public void setLinkFiles(final boolean linkFiles) {
+		this.linkFiles = linkFiles;
+	}
+
+	/**
+	 * Puts a file with the announced contents in the place of a download, if there's one here.<br>
+	 * The journal of an earlier attempt is deleted, and the target is added as a downloaded file.
+	 * @param contentId The content id the file was announced with, or <code>null</code> if the host didn't hash it yet.
+	 * @param target Where the download is saved, an existing file is replaced.
+	 * @return whether the download is done that way.
+	 */
+	public boolean reuse(final String contentId, final File target) {
+		final File local = contentId != null ? this.find(contentId) : null;
+		if (local == null || !this.reuse(local, target)) {
+			return false;
+		}
+		DownloadJournal.delete(target);
+		synchronized (this) {
+			this.entries.put(contentId, new Entry(target, target.length(), target.lastModified(), true));
+		}
+		return true;
+	}
+
+	/**
+	 * Puts a local file with the right contents in the place of a download.<br>
+	 * The file is copied, unless hard links were turned on (see {@link #setLinkFiles(boolean)}) and the file system allows one.
+	 * @param local The file that's already here.
+	 * @param target Where the download is saved, an existing file is replaced.
+	 * @return whether the target has the contents of the local file now.
+	 */
+	public boolean reuse(final File local, final File target) {
+		try {
+			if (Files.isSameFile(local.toPath(), target.toPath())) {
+				return true; // downloaded again to the same place
+			}
+		} catch (final IOException ignored) {
+			// the target doesn't exist yet
+		}
+		try {
+			final File parent = target.getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			Files.deleteIfExists(target.toPath());
+			if (this.linkFiles) {
+				try {
+					Files.createLink(target.toPath(), local.toPath());
+					return true;
+				} catch (final IOException | UnsupportedOperationException e) {
+					// another file system, or no hard links on it
+				}
+			}
+			Files.copy(local.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			return true;
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Converts the downloaded files of this index to meta data to be saved.<br>
+	 * The files of local packages are saved with their packages, and added again once those are loaded.
+	 * @return the meta data for {@link #parseSaveMeta(String)}.
+	 */
+	public synchronized String toSaveMeta() {
+		final StringBuilder build = new StringBuilder();
+		for (final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+			final Entry e = entry.getValue();
+			if (e.downloaded) {
+				build.append(Tag.construct(TAGNAME, ATT_ID, entry.getKey(), ATT_FILE, e.file.getPath(), ATT_LENGTH, e.length, ATT_MODIFIED, e.modified).getEncodedString());
+			}
+		}
+		return build.toString();
+	}
+
+	/**
+	 * Adds the downloaded files saved by {@link #toSaveMeta()}.
+	 */
+	public synchronized void parseSaveMeta(final String meta) {
+		final TagStream stream = new TagStream(meta);
+		Tag tag;
+		while ((tag = stream.next()) != null) {
+			if (!TAGNAME.equals(tag.getName())) {
+				continue;
+			}
+			final String id = tag.getAttribute(ATT_ID);
+			final String file = tag.getAttribute(ATT_FILE);
+			final String length = tag.getAttribute(ATT_LENGTH);
+			final String modified = tag.getAttribute(ATT_MODIFIED);
+			if (id == null || file == null || length == null || modified == null) {
+				continue;
+			}
+			try {
+				this.entries.put(id, new Entry(new File(file), Long.parseLong(length), Long.parseLong(modified), true));
+			} catch (final NumberFormatException ignored) {
+				// skip a damaged entry
+			}
+		}
+	}
+
+	/**
+	 * A file and what it looked like when its contents were hashed.
+	 */
+	private static class Entry {
+
+		private final File file;
+		private final long length;
+		private final long modified;
+		private final boolean downloaded;
+
+		private Entry(final File file, final long length, final long modified, final boolean downloaded) {
+			this.file = file;
+			this.length = length;
+			this.modified = modified;
+			this.downloaded = downloaded;
+		}
+
+	}
+
+}
@@ -0,0 +1,155 @@
+package ghsc.gui.fileshare;
+
+import ghsc.gui.Application;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.FileNode;
+import ghsc.util.Tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.Base64;
+
+/**
+ * Records which chunks of a partially downloaded file were verified, and the hashes they were verified with.<br>
+ * It's kept next to the file while it's downloaded, so an interrupted download can resume.<br>
+ * <br>
+ * Not thread safe.
+ */
+class DownloadJournal {
+
+	/**
+	 * Appended to the name of a file that's being downloaded to name its journal.
+	 */
+	static final String EXTENSION = ".ghscpart";
+
+	private static final String TAGNAME = "j";
+	private static final String ATT_CHUNKS = "c";
+
+	private final String path;
+	private final ChunkHashes hashes;
+	private final BitSet verified;
+
+	/**
+	 * Initializes a new DownloadJournal without any verified chunks.
+	 * @param path The remote path of the file.
+	 * @param hashes The hashes the chunks are verified with.
+	 */
+	DownloadJournal(final String path, final ChunkHashes hashes) {
+		this(path, hashes, new BitSet());
+	}
+
+	private DownloadJournal(final String path, final ChunkHashes hashes, final BitSet verified) {
+		this.path = path;
+		this.hashes = hashes;
+		this.verified = verified;
+	}
+
+	ChunkHashes getHashes() {
+		return this.hashes;
+	}
+
+	boolean isVerified(final int chunk) {
+		return this.verified.get(chunk);
+	}
+
+	void setVerified(final int chunk) {
+		this.verified.set(chunk);
+	}
+
+	/**
+	 * Marks a range of chunks as verified.
+	 * @param from The first chunk.
+	 * @param to The chunk after the last one.
+	 */
+	void setVerified(final int from, final int to) {
+		this.verified.set(from, to);
+	}
+
+	/**
+	 * Forgets all verified chunks.
+	 */
+	void clear() {
+		this.verified.clear();
+	}
+
+	/**
+	 * @return the verified chunks, which mustn't be modified.
+	 */
+	BitSet getVerified() {
+		return this.verified;
+	}
+
+	int getVerifiedCount() {
+		return this.verified.cardinality();
+	}
+
+	/**
+	 * @return the first chunk that isn't verified, which is the chunk count if all of them are.
+	 */
+	int getFirstMissing() {
+		return this.verified.nextClearBit(0);
+	}
+
+	boolean isComplete() {
+		return this.getFirstMissing() >= this.hashes.getChunkCount();
+	}
+
+	/**
+	 * Saves the journal next to the target.
+	 * @param target The file that's being downloaded.
+	 * @throws IOException If the journal couldn't be written.
+	 */
+	void write(final File target) throws IOException {
+		final Tag tag = Tag.construct(TAGNAME, FileShare.ATT_PATH, this.path, FileShare.ATT_FILE_LENGTH, this.hashes.getLength(),
+				ATT_CHUNKS, Base64.getEncoder().encodeToString(this.verified.toByteArray()), FileNode.ATT_HASHES, this.hashes.encode());
+		Files.write(getFile(target).toPath(), tag.getEncodedString().getBytes(Application.CHARSET));
+	}
+
+	/**
+	 * Reads the journal of an earlier attempt to download a file.
+	 * @param target The file that's being downloaded.
+	 * @param path The remote path of the file.
+	 * @return the journal, or <code>null</code> if there's none that fits the target.
+	 */
+	static DownloadJournal read(final File target, final String path) {
+		final File file = getFile(target);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			final Tag tag = Tag.parse(new String(Files.readAllBytes(file.toPath()), Application.CHARSET));
+			if (tag == null || !TAGNAME.equals(tag.getName()) || !path.equals(tag.getAttribute(FileShare.ATT_PATH))) {
+				return null;
+			}
+			final ChunkHashes hashes = ChunkHashes.decode(Long.parseLong(tag.getAttribute(FileShare.ATT_FILE_LENGTH)), tag.getAttribute(FileNode.ATT_HASHES));
+			if (hashes == null) {
+				return null;
+			}
+			final BitSet verified = BitSet.valueOf(Base64.getDecoder().decode(tag.getAttribute(ATT_CHUNKS)));
+			final int end = verified.length();
+			if (end > hashes.getChunkCount() || target.length() < Math.min(hashes.getLength(), ChunkHashes.getChunkOffset(end))) {
+				return null;
+			}
+			return new DownloadJournal(path, hashes, verified);
+		} catch (final IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the journal of a file that was downloaded completely.
+	 */
+	static void delete(final File target) {
+		final File file = getFile(target);
+		if (file.exists() && !file.delete()) {
+			System.out.println("Couldn't delete download journal: " + file);
+		}
+	}
+
+	static File getFile(final File target) {
+		return new File(target.getPath() + EXTENSION);
+	}
+
+}
@@ -0,0 +1,423 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.Application;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemotePackage;
+import ghsc.net.encryption.StreamCipher;
+import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.util.TagWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads files of a remote package from its host. (Downloader)<br>
+ * Files are requested one at a time over a file transfer connection,</br>
+ * the reply to each request declares the range that's sent and is followed by it as raw bytes.<br>
+ * Every chunk is verified against the hashes sent by the host as soon as it's complete,</br>
+ * and the verified chunks are recorded in a journal next to the file,</br>
+ * so a download that was interrupted resumes after the last verified chunk.<br>
+ * A file the host didn't hash yet is requested again every {@link FileShare#RETRY_DELAY} milliseconds until it did.<br>
+ * <br>
+ * The listener is notified from the work thread, whenever bytes were written and when a file is done.
+ */
+public class FileDownload {
+
+	private final RemotePackage rPackage;
+	private final EventListener<FileDownload> listener;
+	private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+	private TransferConnection connection;
+
+	private Entry current;
+	private FileChannel output;
+	private ChunkHashes hashes;
+	private DownloadJournal journal;
+	private ChunkVerifier verifier;
+	private volatile long received;
+	private volatile long length;
+	private volatile boolean failed;
+	/**
+	 * How many of the queued files are done, and how many of those failed.
+	 */
+	private volatile int finished;
+	private volatile int failures;
+
+	/**
+	 * Initializes a new FileDownload.
+	 * @param rPackage The package to download files from.
+	 * @param listener Receives this download when the progress changes, may be <code>null</code>.
+	 */
+	public FileDownload(final RemotePackage rPackage, final EventListener<FileDownload> listener) {
+		this.rPackage = rPackage;
+		this.listener = listener;
+	}
+
+	public RemotePackage getPackage() {
+		return this.rPackage;
+	}
+
+	/**
+	 * Connects to the host of the package and asks for access to it.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 * @return whether the connection was made.
+	 */
+	public synchronized boolean open(final String password) {
+		if (this.connection != null) {
+			return true;
+		}
+		final Socket s = this.connect(this.rPackage);
+		if (s == null) {
+			return false;
+		}
+		try {
+			this.connection = new TransferConnection(s, this::received, this::close);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		this.connection.open(this.rPackage, password);
+		return true;
+	}
+
+	/**
+	 * Creates a file transfer socket with the host of a package.
+	 * @return the connected socket, or <code>null</code> if the host couldn't be reached.
+	 */
+	protected Socket connect(final RemotePackage rPackage) {
+		final FileShare fs = Application.getInstance().getFileShare();
+		return fs != null ? fs.connect(rPackage.getHost()) : null;
+	}
+
+	/**
+	 * Queues a file to be downloaded once the files queued before it are done.<br>
+	 * If a journal shows that the target was partially downloaded before, the download resumes,</br>
+	 * and if a file with the announced contents is already here, it's copied instead, see {@link ContentIndex}.
+	 * @param file The remote file to download.
+	 * @param target Where to save the file, an existing file is overwritten.
+	 */
+	public synchronized void download(final RemoteFileNode file, final File target) {
+		if (file == null || file.isDirectory() || target == null) {
+			return;
+		}
+		this.queue.add(new Entry(file.getPath(), file.getContentId(), file.getSize(), target));
+		if (this.current == null) {
+			this.requestNext();
+		}
+	}
+
+	/**
+	 * @return the remote path of the file being downloaded, or <code>null</code> if there's none.
+	 */
+	public synchronized String getCurrentPath() {
+		return this.current != null ? this.current.path : null;
+	}
+
+	/**
+	 * @return the number of bytes of the current file written so far, including the ones of an earlier attempt.
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+
+	/**
+	 * @return the length of the current file, as declared by the host.
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return how many queued files are done, including the ones that failed.
+	 */
+	public int getFinishedCount() {
+		return this.finished;
+	}
+
+	/**
+	 * @return how many queued files failed to download.
+	 */
+	public int getFailedCount() {
+		return this.failures;
+	}
+
+	/**
+	 * @return whether the connection was closed, by {@link #close()} or by the host, or never opened.
+	 */
+	public synchronized boolean isClosed() {
+		return this.connection == null;
+	}
+
+	/**
+	 * @return whether the last file failed to download, or access to the package was denied.
+	 */
+	public boolean isFailed() {
+		return this.failed;
+	}
+
+	/**
+	 * Requests the next queued file that isn't already here.
+	 */
+	private void requestNext() {
+		do {
+			this.current = this.queue.poll();
+			if (this.current == null || this.connection == null) {
+				return;
+			}
+		} while (this.reuseLocal(this.current));
+		this.request(this.current);
+	}
+
+	/**
+	 * Requests a file, starting after the verified chunks of an earlier attempt.
+	 */
+	private void request(final Entry entry) {
+		final TagWriter request = new TagWriter(MessageEvent.Type.FILE_SHARE)
+				.attribute(FileShare.ATT_TYPE, FileShare.TYPE_REQUEST)
+				.attribute(FileShare.ATT_PATH, entry.path);
+		final DownloadJournal earlier = DownloadJournal.read(entry.target, entry.path);
+		final int chunks = earlier != null ? earlier.getFirstMissing() : 0;
+		if (chunks > 0) {
+			request.attribute(FileShare.ATT_OFFSET, ChunkHashes.getChunkOffset(chunks))
+					.attribute(FileShare.ATT_VERIFIED, Base64.getEncoder().encodeToString(earlier.getHashes().digest(chunks)));
+		}
+		this.connection.getMessageThread().send(new PreparedMessage(request));
+	}
+
+	/**
+	 * Requests the current file again after {@link FileShare#RETRY_DELAY}, once the host hashed it.
+	 */
+	private void requestLater() {
+		final Entry entry = this.current;
+		FileShare.DOWNLOADS.schedule(() -> {
+			synchronized (this) {
+				if (this.current == entry && this.connection != null) {
+					this.request(entry);
+				}
+			}
+		}, FileShare.RETRY_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Copies a local file with the announced contents of a queued file to its target.
+	 * @return whether the queued file is done that way.
+	 */
+	private boolean reuseLocal(final Entry entry) {
+		final ContentIndex index = this.getContentIndex();
+		if (index == null || !index.reuse(entry.contentId, entry.target)) {
+			return false;
+		}
+		this.received = this.length = entry.length;
+		this.failed = false;
+		this.finished++;
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the files on this computer, or <code>null</code> if there's none.
+	 */
+	protected ContentIndex getContentIndex() {
+		final FileShare fs = Application.getInstance().getFileShare();
+		return fs != null ? fs.getContentIndex() : null;
+	}
+
+	/**
+	 * Handles the replies of the host, called from the work thread.
+	 */
+	private synchronized void received(final MessageEvent msg) {
+		if (msg.getType() != MessageEvent.Type.FILE_SHARE) {
+			return;
+		}
+		final String type = msg.getAttribute(FileShare.ATT_TYPE);
+		if (type == null) {
+			return;
+		}
+		switch (type) {
+			case FileShare.TYPE_UUID:
+			case FileShare.TYPE_PASSWORD:
+				if (!TransferConnection.isAccepted(msg)) {
+					this.failed = true; // no such package or no access
+					this.close();
+				}
+				break;
+			case FileShare.TYPE_REQUEST:
+				final String path = msg.getAttribute(FileShare.ATT_PATH);
+				if (this.current == null || !this.current.path.equals(path)) {
+					return;
+				}
+				final String status = msg.getAttribute(FileShare.ATT_STATUS);
+				if ("nr".equals(status)) {
+					this.requestLater(); // the host is still hashing the file
+					return;
+				}
+				if (!"b".equals(status)) {
+					this.finish(false); // not found or not readable
+					return;
+				}
+				try {
+					final ChunkHashes chunkHashes = this.connection.getHashes(msg);
+					if (chunkHashes == null) {
+						throw new IOException("Missing chunk hashes: " + path);
+					}
+					this.begin(chunkHashes, Long.parseLong(msg.getAttribute(FileShare.ATT_OFFSET)), Long.parseLong(msg.getAttribute(FileShare.ATT_LENGTH)), msg.getAttribute(FileShare.ATT_IV));
+				} catch (final IOException | RuntimeException e) {
+					e.printStackTrace();
+					this.failed = true;
+					this.close(); // the raw bytes can't be skipped
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Opens the target of the current file at the start of the range and has the raw bytes following the reply written to it.
+	 */
+	private void begin(final ChunkHashes chunkHashes, final long offset, final long rangeLength, final String iv) throws IOException {
+		if (offset % ChunkHashes.CHUNK_SIZE != 0 || offset + rangeLength != chunkHashes.getLength()) {
+			throw new IOException("Unexpected range: " + offset + "+" + rangeLength);
+		}
+		final MessageThread messageThread = this.connection.getMessageThread();
+		final int chunk = (int) (offset / ChunkHashes.CHUNK_SIZE);
+		this.hashes = chunkHashes;
+		this.received = offset;
+		this.length = chunkHashes.getLength();
+		final File parent = this.current.target.getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		this.output = FileChannel.open(this.current.target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		// anything after the verified chunks is written again
+		this.output.truncate(offset);
+		this.journal = new DownloadJournal(this.current.path, chunkHashes);
+		this.journal.setVerified(0, chunk);
+		this.journal.write(this.current.target);
+		final StreamCipher cipher = iv != null ? messageThread.getEncryption().createStream(Base64.getDecoder().decode(iv)) : null;
+		this.verifier = new ChunkVerifier(chunkHashes, this.output, chunk, cipher, this::verified);
+		if (rangeLength == 0) {
+			this.finish(true);
+		} else {
+			messageThread.receiveBulk(rangeLength, this::write);
+		}
+	}
+
+	/**
+	 * Writes a piece of the current file and verifies the chunks it completes, called from the work thread.
+	 * @throws IOException If a chunk doesn't match its hash, which drops the connection and keeps the verified chunks.
+	 */
+	private synchronized void write(final ByteBuffer data, final boolean last) throws IOException {
+		if (this.output == null) {
+			throw new IOException("Download closed.");
+		}
+		this.received += this.verifier.write(data);
+		if (last) {
+			this.finish(true);
+		} else if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+	}
+
+	/**
+	 * Records a verified chunk in the journal, called from the work thread.
+	 */
+	private void verified(final int chunk) throws IOException {
+		this.journal.setVerified(chunk);
+		if (chunk + 1 < this.hashes.getChunkCount()) {
+			// the chunk has to be on the disk before the journal says so
+			this.output.force(false);
+			this.journal.write(this.current.target);
+		}
+	}
+
+	/**
+	 * Closes the target of the current file, notifies the listener and requests the next file.<br>
+	 * The journal of a completed file is deleted.
+	 */
+	private void finish(final boolean success) {
+		this.failed = !success;
+		this.finished++;
+		if (this.output != null) {
+			try {
+				this.output.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+				this.failed = true;
+			}
+			this.output = null;
+		}
+		if (this.failed) {
+			this.failures++;
+		} else if (this.current != null) {
+			DownloadJournal.delete(this.current.target);
+			final ContentIndex index = this.getContentIndex();
+			if (index != null && this.hashes != null) {
+				index.add(this.hashes, this.current.target, this.current.target.lastModified(), true);
+			}
+		}
+		this.hashes = null;
+		this.journal = null;
+		this.verifier = null;
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+		this.requestNext();
+	}
+
+	/**
+	 * Closes the connection to the host and drops the queued files.<br>
+	 * A partially written file is kept with its journal, so downloading it again resumes it.
+	 */
+	public synchronized void close() {
+		if (this.output != null) {
+			try {
+				this.output.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+			this.output = null;
+			this.failed = true;
+		}
+		if (this.connection != null) {
+			final TransferConnection tc = this.connection;
+			this.connection = null;
+			tc.close();
+		}
+		this.queue.clear();
+		this.current = null;
+	}
+
+	/**
+	 * A file waiting to be downloaded.
+	 */
+	private static class Entry {
+
+		private final String path;
+		/**
+		 * The content id the file was announced with, or <code>null</code> if the host didn't hash it yet.
+		 */
+		private final String contentId;
+		private final long length;
+		private final File target;
+
+		private Entry(final String path, final String contentId, final long length, final File target) {
+			this.path = path;
+			this.contentId = contentId;
+			this.length = length;
+			this.target = target;
+		}
+
+	}
+
+}
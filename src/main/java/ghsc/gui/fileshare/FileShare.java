@@ -9,25 +9,36 @@ import ghsc.gui.components.users.User;
 import ghsc.gui.components.users.UserContainer;
 import ghsc.gui.fileshare.components.PackagePanel;
 import ghsc.gui.fileshare.components.PackagePanelList;
+import ghsc.gui.fileshare.internal.ChunkHashes;
 import ghsc.gui.fileshare.internal.FilePackage;
 import ghsc.gui.fileshare.internal.FilePackage.Visibility.Type;
 import ghsc.gui.fileshare.internal.LocalFileNode;
 import ghsc.gui.fileshare.internal.LocalPackage;
+import ghsc.gui.fileshare.internal.RemotePackage;
 import ghsc.net.encryption.AES;
 import ghsc.net.sockets.filetransfer.FileTransferListener;
+import ghsc.net.sockets.input.Encoding;
+import ghsc.net.sockets.input.Framing;
 import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.OutboundQueue;
+import ghsc.net.sockets.input.SocketIO;
 import ghsc.gui.components.util.SnapAdapter;
 import ghsc.util.Tag;
+import ghsc.util.TagWriter;
 import ghsc.util.Utilities;
 
 import javax.swing.*;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
@@ -41,15 +52,45 @@ public class FileShare {
     public static final String TYPE_EDIT = "e";
     public static final String TYPE_UPDATE = "u";
     public static final String TYPE_REMOVE = "r";
+    public static final String TYPE_SYNC = "sy";
+    public static final String TYPE_NOT_MODIFIED = "nm";
     public static final String TYPE_ENCRYPTION = "e";
     public static final String TYPE_UUID = "u";
     public static final String TYPE_PASSWORD = "p";
     public static final String TYPE_REQUEST = "r";
+    public static final String TYPE_LIST = "l";
     public static final String ATT_UUID = "u";
     public static final String ATT_PATH = "p";
     public static final String ATT_STATUS = "s";
+    public static final String ATT_OFFSET = "o";
+    public static final String ATT_TOTAL = "tc";
+    public static final String ATT_LENGTH = "ln";
+    public static final String ATT_IV = "iv";
+    public static final String ATT_FILE_LENGTH = "fl";
+    public static final String ATT_VERIFIED = "vh";
 
-	public static final int TRANSFER_BUFFER_SIZE = 8192;
+	/**
+	 * Packages with more files and directories than this are announced without them, see {@link LocalPackage#toRemoteSummaryMeta()}.
+	 */
+	public static final int ANNOUNCE_TREE_LIMIT = 2000;
+	/**
+	 * The most children sent in one page of a directory listing.
+	 */
+	public static final int LIST_PAGE_SIZE = 500;
+	/**
+	 * How long a downloader waits before requesting a file again that the host is still hashing, in milliseconds.
+	 */
+	public static final long RETRY_DELAY = 2000;
+	
+	/**
+	 * Connects, and requests again, for the downloads without holding up the event dispatch thread or the work threads of their connections.
+	 */
+	public static final ScheduledExecutorService DOWNLOADS = Executors.newScheduledThreadPool(4, r -> {
+		final Thread thread = new Thread(r);
+		thread.setName("FileShare|Download");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	private FileShareFrame frame;
 	
@@ -63,11 +104,53 @@ public class FileShare {
 	 */
 	final Map<String, FilePackage> packages;
 	
+	/**
+	 * Local files by their contents, see {@link #getContentIndex()}.
+	 */
+	private final ContentIndex contents = new ContentIndex();
+	
+	/**
+	 * Hashes the files requested before the hashing of their package got to them.
+	 */
+	private final ExecutorService requestHasher = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setName("FileShare|RequestHasher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Set<LocalFileNode> hashing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	
+	/**
+	 * Hashes the files of local packages, one package at a time, see {@link #hashFiles(LocalPackage...)}.
+	 */
+	private final ExecutorService packageHasher = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setName("FileShare|Hasher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	/**
+	 * Map<uuid,package> of the latest package queued for hashing with each uuid.
+	 */
+	private final Map<String, LocalPackage> queuedHashes = new ConcurrentHashMap<>();
+	
+	/**
+	 * Reads the packages announced by other users and answers their syncs, in the order they were received,</br>
+	 * so neither holds up the thread that receives the messages of all users.
+	 */
+	private final ExecutorService announcements = Executors.newSingleThreadExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setName("FileShare|Announcements");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	/**
 	 * Initializes a new File transfer handling object.
 	 */
 	public FileShare() {
-		this.packages = Collections.synchronizedMap(new HashMap<>());
+		this((FileShareFrame) null);
 		final Application application = Application.getInstance();
 		try {
 			SwingUtilities.invokeAndWait(() -> this.frame = new FileShareFrame(application.getMainFrame(), this));
@@ -94,9 +177,24 @@ public class FileShare {
                 fs.submit(localPackagesNode);
             }
 
+            if (this.contents.isLinkFiles()) {
+                fs.submit(new Node(Tag.construct("linkfiles"), Boolean.toString(true)));
+            }
+            final String contents = this.contents.toSaveMeta();
+            if (!contents.isEmpty()) {
+                fs.submit(new Node(Tag.construct("contents"), contents));
+            }
+
             return fs;
         });
 		final long start = System.currentTimeMillis();
+		final Node linkFilesNode = Settings.getSettings().search("/fileshare/linkfiles");
+		// reused files are copied unless the user turned hard links on
+		this.contents.setLinkFiles(linkFilesNode != null && Boolean.parseBoolean(linkFilesNode.getData()));
+		final Node contentsNode = Settings.getSettings().search("/fileshare/contents");
+		if (contentsNode != null && contentsNode.getData() != null) {
+			this.contents.parseSaveMeta(contentsNode.getData());
+		}
 		final Node localPackagesNode = Settings.getSettings().search("/fileshare/localpackages");
 		if (localPackagesNode != null) {
 			final Node[] localPackageNodes = localPackagesNode.searchAll("/lp");
@@ -124,6 +222,15 @@ public class FileShare {
 		}
 	}
 	
+	/**
+	 * Initializes a FileShare that serves the packages put into {@link #packages}, without loading the saved packages.
+	 * @param frame The frame showing the packages, or <code>null</code> if they aren't shown.
+	 */
+	FileShare(final FileShareFrame frame) {
+		this.packages = Collections.synchronizedMap(new HashMap<>());
+		this.frame = frame;
+	}
+	
 	/**
 	 * @return the file share frame.
 	 */
@@ -145,7 +252,13 @@ public class FileShare {
 				continue;
 			}
 			final String uuid = fp.getUUID().toString();
-			if (fp == this.packages.get(uuid)) {
+			final FilePackage existing = this.packages.get(uuid);
+			if (fp == existing) {
+				success = false;
+				continue;
+			}
+			if (fp instanceof RemotePackage && ((RemotePackage) fp).isSameVersion(existing)) {
+				((RemotePackage) existing).setHost(((RemotePackage) fp).getHost()); // keep the files already listed of an unchanged package
 				success = false;
 				continue;
 			}
@@ -153,14 +266,219 @@ public class FileShare {
 			if (list == null) {
                 list = this.frame.getPackagePanels();
             }
+			if (existing != null) {
+				list.removePanelsSilently(existing);
+			}
 			list.addPanelsSilently(new PackagePanel(this.frame, fp));
 		}
 		if (list != null) {
 			list.refresh();
 		}
+		final LocalPackage[] announce = Arrays.stream(fps).filter(fp -> fp instanceof LocalPackage && fp.isActive()).toArray(LocalPackage[]::new);
+		if (announce.length > 0) {
+			this.announce(announce);
+		}
+		final LocalPackage[] added = Arrays.stream(fps).filter(fp -> fp instanceof LocalPackage).toArray(LocalPackage[]::new);
+		if (added.length > 0) {
+			this.hashFiles(added);
+		}
 		return success;
 	}
 	
+	/**
+	 * Hashes a single requested file in the background, unless it's already queued.<br>
+	 * The file is added to the content index once it's hashed.
+	 * @param lFile The file to hash.
+	 */
+	private void hashLater(final LocalFileNode lFile) {
+		if (!this.hashing.add(lFile)) {
+			return;
+		}
+		this.requestHasher.execute(() -> {
+			try {
+				final ChunkHashes hashes = lFile.getChunkHashes();
+				if (hashes != null) {
+					this.contents.add(hashes, lFile.getFile(), lFile.getHashedModified(), false);
+				}
+			} catch (final IOException e) {
+				e.printStackTrace();
+			} finally {
+				this.hashing.remove(lFile);
+			}
+		});
+	}
+	
+	/**
+	 * Hashes the files of local packages in the background, announcing each package again once its files were hashed,</br>
+	 * so downloads can verify its files and find the same files shared by other users.<br>
+	 * A package that was queued again, or replaced by another one with its uuid, before its turn came is skipped.<br>
+	 * The hashed files are added to the content index, so downloads of the same contents reuse them.
+	 * @param lps The packages to hash.
+	 */
+	private void hashFiles(final LocalPackage... lps) {
+		for (final LocalPackage lp : lps) {
+			final String uuid = lp.getUUID().toString();
+			this.queuedHashes.put(uuid, lp);
+			this.packageHasher.execute(() -> {
+				if (!this.queuedHashes.remove(uuid, lp) || lp != this.packages.get(uuid)) {
+					return; // a newer walk is queued, or the package isn't shared anymore
+				}
+				final boolean hashed = lp.hashFiles();
+				this.contents.addPackage(lp);
+				if (hashed && lp == this.packages.get(uuid) && lp.isActive()) {
+					this.announce(lp);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return the files on this computer by their contents, shared or downloaded.
+	 */
+	public ContentIndex getContentIndex() {
+		return this.contents;
+	}
+	
+	/**
+	 * Finds the remote packages of other users that offer a file with the given contents.<br>
+	 * Only one package of each user is returned, and password protected packages are left out.
+	 * @param content The chunk hashes of the file.
+	 * @return the remote path of the file by the package it's found in.
+	 */
+	public Map<RemotePackage, String> findSources(final ChunkHashes content) {
+		final ArrayList<RemotePackage> rps = new ArrayList<>();
+		synchronized (this.packages) {
+			for (final FilePackage p : this.packages.values()) {
+				if (p instanceof RemotePackage && !p.isPasswordProtected() && ((RemotePackage) p).getHost() != null) {
+					rps.add((RemotePackage) p);
+				}
+			}
+		}
+		final LinkedHashMap<RemotePackage, String> sources = new LinkedHashMap<>();
+		final HashSet<Object> hosts = new HashSet<>();
+		for (final RemotePackage rp : rps) {
+			final User host = rp.getHost();
+			final Object id = host.getID() != null ? host.getID() : host;
+			if (hosts.contains(id)) {
+				continue;
+			}
+			final String path = rp.findContent(content.getContentId());
+			if (path != null) {
+				hosts.add(id);
+				sources.put(rp, path);
+			}
+		}
+		return sources;
+	}
+	
+	/**
+	 * Tells all users about local packages.<br>
+	 * Large packages are announced with only their total size and counts, and their files are listed when a user browses them.
+	 * @param lps The packages to announce.
+	 */
+	public void announce(final LocalPackage... lps) {
+		final UserContainer users = Application.getInstance().getMainFrame().getUsers();
+		for (final LocalPackage lp : lps) {
+			users.send(toAnnouncement(lp), User.ALL);
+		}
+	}
+	
+	private static Tag toAnnouncement(final LocalPackage lp) {
+		final byte[] meta = lp.getRemoteMeta();
+		return new TagWriter(MessageEvent.Type.FILE_SHARE).attribute(ATT_TYPE, TYPE_NEW).post(meta, 0, meta.length).toTag();
+	}
+	
+	/**
+	 * Reads a package announced by a user in the background, and adds it on the event dispatch thread.
+	 * @param user The host of the package.
+	 * @param meta The meta data of the package, see {@link LocalPackage#getRemoteMeta()}.
+	 */
+	public void receivePackage(final User user, final byte[] meta) {
+		this.announcements.execute(() -> {
+			final RemotePackage rp = RemotePackage.parse(user, meta);
+			if (rp != null) {
+				SwingUtilities.invokeLater(() -> this.addPackages(rp));
+			}
+		});
+	}
+	
+	/**
+	 * Tells a newly connected user which versions of its packages are already known, so it only sends the ones that changed.
+	 * @param user The user that connected.
+	 */
+	public void sync(final User user) {
+		final StringBuilder known = new StringBuilder();
+		synchronized (this.packages) {
+			for (final FilePackage p : this.packages.values()) {
+				if (p instanceof RemotePackage && ((RemotePackage) p).isHostedBy(user) && ((RemotePackage) p).getVersion() != 0) {
+					if (known.length() > 0) {
+						known.append(',');
+					}
+					known.append(p.getUUID()).append('|').append(((RemotePackage) p).getVersion());
+				}
+			}
+		}
+		user.send(new TagWriter(MessageEvent.Type.FILE_SHARE).attribute(ATT_TYPE, TYPE_SYNC).post(known).toTag());
+	}
+	
+	/**
+	 * Answers {@link #sync(User)} of a user with every active local package,</br>
+	 * either announced again or as not modified if the user already knows its current version.<br>
+	 * Answered in the background, since announcing a package may have to build its meta data first.
+	 * @param user The user that sent the known versions.
+	 * @param msg The sync message.
+	 */
+	public void receiveSync(final User user, final MessageEvent msg) {
+		this.announcements.execute(() -> this.answerSync(user, msg));
+	}
+	
+	private void answerSync(final User user, final MessageEvent msg) {
+		final HashMap<String, String> known = new HashMap<>();
+		final String post = msg.getPost();
+		if (post != null && !post.isEmpty()) {
+			for (final String entry : post.split(",")) {
+				final int index = entry.indexOf('|');
+				if (index > 0) {
+					known.put(entry.substring(0, index), entry.substring(index + 1));
+				}
+			}
+		}
+		final ArrayList<LocalPackage> lps = new ArrayList<>();
+		synchronized (this.packages) {
+			for (final FilePackage p : this.packages.values()) {
+				if (p instanceof LocalPackage && p.isActive()) {
+					lps.add((LocalPackage) p);
+				}
+			}
+		}
+		for (final LocalPackage lp : lps) {
+			final String uuid = lp.getUUID().toString();
+			final long version = lp.getVersion();
+			if (Long.toString(version).equals(known.get(uuid))) {
+				user.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, TYPE_NOT_MODIFIED, ATT_UUID, uuid, FilePackage.ATT_VERSION, version));
+			} else {
+				user.send(toAnnouncement(lp));
+			}
+		}
+	}
+	
+	/**
+	 * Keeps a package that its host reported as not modified, moving it to the host's current connection.
+	 * @param user The host of the package.
+	 * @param msg The not modified message.
+	 */
+	public void receiveNotModified(final User user, final MessageEvent msg) {
+		final String uuid = msg.getAttribute(ATT_UUID);
+		final String version = msg.getAttribute(FilePackage.ATT_VERSION);
+		final FilePackage p = uuid != null ? this.packages.get(uuid) : null;
+		if (p instanceof RemotePackage && version != null) {
+			final RemotePackage rp = (RemotePackage) p;
+			if (rp.isHostedBy(user) && version.equals(Long.toString(rp.getVersion()))) {
+				rp.setHost(user);
+			}
+		}
+	}
+	
 	public boolean removePackages(final FilePackage... fps) {
 		if (fps == null) {
             return false;
@@ -226,14 +544,21 @@ public class FileShare {
 	 * @return a newly created socket connected to the user, if null an error has occurred.
 	 */
 	public Socket connect(final User user, final int timeout) {
-		final Socket socket = new Socket();
+		SocketChannel channel = null;
 		try {
 			final InetSocketAddress remoteAddress = user.getRemoteSocketAddress();
-			socket.connect(new InetSocketAddress(remoteAddress.getAddress(), FileTransferListener.PORT), timeout);
+			// opened as a channel, so what's sent over it can go straight from the disk to the socket, see SocketIO
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(remoteAddress.getAddress(), FileTransferListener.PORT), timeout);
 		} catch (final IOException e) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (final IOException ignored) {}
+			}
 			return null;
 		}
-		return socket;
+		return channel.socket();
 	}
 	
 	/**
@@ -244,11 +569,8 @@ public class FileShare {
 		if (s == null) {
 			return;
 		}
-		final Application application = Application.getInstance();
 		// Check to make sure that's an actual user we have connected to
-		// TODO currently broken because the remote socket address isn't the user socket address
-		final InetSocketAddress remoteAddress = (InetSocketAddress) s.getRemoteSocketAddress();
-		if (!application.getMainFrame().getUsers().containsUser(remoteAddress)) {
+		if (this.findUser(s.getInetAddress()) == null) {
 			try {
 				s.close();
 			} catch (final IOException e) {
@@ -256,12 +578,32 @@ public class FileShare {
 			}
 			return;
 		}
-		final SocketWorker sw = new SocketWorker(s);
+		final SocketWorker sw;
+		try {
+			sw = new SocketWorker(s);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			try {
+				s.close();
+			} catch (final IOException ignored) {}
+			return;
+		}
 		synchronized (this.socketWorkers) {
 			this.socketWorkers.add(sw);
 		}
 	}
 	
+	/**
+	 * Finds the connected user on the computer a file transfer connection came from.<br>
+	 * The connection comes from another port than the user's own connection, so only the IP address is compared.
+	 * @param address The IP address the connection came from.
+	 * @return the user, or <code>null</code> if no user is connected from that address.
+	 */
+	protected User findUser(final InetAddress address) {
+		final Application application = Application.getInstance();
+		return address != null ? application.getMainFrame().getUsers().getUser(address) : null;
+	}
+	
 	/**
 	 * Closes all SocketWorkers that qualify the given filter.
 	 * @param predicate The predicate to qualify SocketWorkers.
@@ -359,16 +701,9 @@ public class FileShare {
 		 * that includes if the user closed his program and a download had to start another time.
 		 */
 		
-		private SocketWorker(final Socket socket) {
+		private SocketWorker(final Socket socket) throws IOException {
 			this.socket = socket;
-			this.messageThread = new MessageThread(new MessageThread.IOWrapper() {
-				public InputStream getInputStream() throws IOException {
-					return socket.getInputStream();
-				}
-				public OutputStream getOutputStream() throws IOException {
-					return socket.getOutputStream();
-				}
-			}, new EventListener<MessageEvent>() {
+			this.messageThread = new MessageThread(new SocketIO(socket), new EventListener<MessageEvent>() {
 				public void eventReceived(final MessageEvent msg) {
 					if (msg.getType() != MessageEvent.Type.FILE_SHARE) {
 						return;
@@ -379,25 +714,28 @@ public class FileShare {
 					}
                     switch (type) {
                         case TYPE_ENCRYPTION:
-                            final byte[] post = msg.getPost().getBytes(Application.CHARSET);
-                            if (post.length == 16) {
-                                SocketWorker.this.messageThread.setEncryption(new AES(post));
+                            // the key of this connection, Base64 encoded, which the contents of files are encrypted with
+                            byte[] key;
+                            try {
+                                key = Base64.getDecoder().decode(msg.getPost());
+                            } catch (final IllegalArgumentException e) {
+                                key = null;
+                            }
+                            final boolean valid = key != null && key.length == TransferConnection.KEY_LENGTH;
+                            if (valid) {
+                                SocketWorker.this.messageThread.setEncryption(new AES(key));
                             }
-                            SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, Utilities.resolveToString(post.length == 16)));
+                            SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, Utilities.resolveToString(valid)));
                             break;
                         case TYPE_UUID:
+                            SocketWorker.this.negotiate(msg);
                             SocketWorker.this.uuid = msg.getAttribute(ATT_UUID);
                             final FilePackage tempPackage = FileShare.this.packages.get(SocketWorker.this.uuid);
                             final boolean lpValid = tempPackage instanceof LocalPackage;
                             if (lpValid) {
                                 SocketWorker.this.lPackage = (LocalPackage) tempPackage;
-                                final Application application = Application.getInstance();
-                                final UserContainer users = application.getMainFrame().getUsers();
-
                                 // Check to make sure that's an actual user we have connected to
-                                // TODO currently broken because the remote socket address isn't the user socket address
-                                final InetSocketAddress remoteAddress = (InetSocketAddress) socket.getRemoteSocketAddress();
-                                final User user = users.getUser(remoteAddress);
+                                final User user = FileShare.this.findUser(socket.getInetAddress());
                                 if (user != null) {
                                     final Type vType = SocketWorker.this.lPackage.getVisibility().getType();
                                     if (vType == Type.CHANNEL || vType == Type.USER) {
@@ -459,37 +797,13 @@ public class FileShare {
                             break;
                         default:
                             if (SocketWorker.this.authenticated) {
-                                if (type.equals(TYPE_REQUEST)) {
+                                if (type.equals(TYPE_LIST)) {
                                     if (SocketWorker.this.lPackage != null) {
-                                        final String path = msg.getAttribute(ATT_PATH);
-                                        final LocalFileNode lFile = SocketWorker.this.lPackage.getFile(path);
-                                        if (lFile != null) {
-                                            // found file
-                                            InputStream is = null;
-                                            try {
-                                                is = lFile.openInputStream();
-                                                final byte[] buf = new byte[TRANSFER_BUFFER_SIZE];
-                                                int read;
-                                                while (SocketWorker.this.running && (read = is.read(buf)) >= 0) {
-                                                    SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, ATT_PATH, path, ATT_STATUS, Utilities.resolveToBoolean(true), new String(buf, 0, read, Application.CHARSET)));
-                                                }
-                                            } catch (final IOException e) {
-                                                e.printStackTrace();
-                                                SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, ATT_PATH, path, ATT_STATUS, "ex"));
-                                            } finally {
-                                                if (is != null) {
-                                                    try {
-                                                        is.close();
-                                                    } catch (final IOException e) {
-                                                        e.printStackTrace();
-                                                    }
-                                                }
-                                                SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, ATT_PATH, path, ATT_STATUS, SocketWorker.this.running ? "d" : "c")); // done or cancelled
-                                            }
-                                        } else {
-                                            // file not found
-                                            SocketWorker.this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, ATT_TYPE, type, ATT_PATH, path, ATT_STATUS, "er"));
-                                        }
+                                        SocketWorker.this.list(msg);
+                                    }
+                                } else if (type.equals(TYPE_REQUEST)) {
+                                    if (SocketWorker.this.lPackage != null) {
+                                        SocketWorker.this.transfer(msg);
                                     }
                                 }
                             } else {
@@ -501,10 +815,45 @@ public class FileShare {
 			}, () -> {
                 // when the socket disconnects
                 // TODO
-            });
+            }, OutboundQueue.DEFAULT_LIMIT, OutboundQueue.Policy.BLOCK); // replies wait for the downloader instead of piling up
 			this.messageThread.start();
 		}
 		
+		/**
+		 * Replies with one page of the children of a directory, see {@link PackageServer#list(MessageEvent)}.
+		 */
+		private void list(final MessageEvent request) {
+			new PackageServer(this.lPackage, this.messageThread, FileShare.this::hashLater).list(request);
+		}
+		
+		/**
+		 * Sends a range of a file of the package to the downloader, see {@link PackageServer#transfer(MessageEvent)}.
+		 */
+		private void transfer(final MessageEvent request) {
+			try {
+				new PackageServer(this.lPackage, this.messageThread, FileShare.this::hashLater).transfer(request);
+			} catch (final IOException e) {
+				// the downloader can't tell where the range ended, so the connection can't be used anymore
+				System.out.println("File transfer interrupted: " + request.getAttribute(ATT_PATH));
+				this.close();
+			}
+		}
+		
+		/**
+		 * Switches the replies to the framing and encoding the downloader advertised, if any.
+		 * @param request The request from the downloader.
+		 */
+		private void negotiate(final MessageEvent request) {
+			final String framing = request.getAttribute(User.ATT_FRAMING);
+			if (framing != null) {
+				this.messageThread.setFraming(Framing.negotiate(framing));
+			}
+			final String encoding = request.getAttribute(User.ATT_ENCODING);
+			if (encoding != null) {
+				this.messageThread.setEncoding(Encoding.negotiate(encoding));
+			}
+		}
+		
 		public boolean isRunning() {
 			return this.running;
 		}
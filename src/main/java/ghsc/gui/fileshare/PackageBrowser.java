@@ -0,0 +1,179 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.Application;
+import ghsc.gui.fileshare.internal.FilePackage;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemotePackage;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.util.TagWriter;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashSet;
+
+/**
+ * Lists the files of a remote package that was announced without them. (Downloader)<br>
+ * Directories are requested from the host over a file transfer connection when they're expanded,</br>
+ * one page of {@link FileShare#LIST_PAGE_SIZE} children at a time, and the received children are kept by the package.<br>
+ * <br>
+ * Must be used from the event dispatch thread, the listener is notified on it too.
+ */
+public class PackageBrowser {
+
+	private final RemotePackage rPackage;
+	private final EventListener<RemoteFileNode> listener;
+	/**
+	 * Paths of the directories with a page on its way, the roots are the empty path.
+	 */
+	private final HashSet<String> pending = new HashSet<>();
+	private TransferConnection connection;
+	private boolean opening;
+	private boolean closed;
+
+	/**
+	 * Initializes a new PackageBrowser.
+	 * @param rPackage The package to browse.
+	 * @param listener Receives the directory that new children were added to, or <code>null</code> for new roots.
+	 */
+	public PackageBrowser(final RemotePackage rPackage, final EventListener<RemoteFileNode> listener) {
+		this.rPackage = rPackage;
+		this.listener = listener;
+	}
+
+	public RemotePackage getPackage() {
+		return this.rPackage;
+	}
+
+	/**
+	 * Connects to the host of the package in the background, asks for access to it and then requests its roots.<br>
+	 * Nothing is requested until the connection was made, which is never if it couldn't be.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 */
+	public void open(final String password) {
+		if (this.connection != null || this.opening || this.closed) {
+			return;
+		}
+		final FileShare fs = Application.getInstance().getFileShare();
+		if (fs == null) {
+			return;
+		}
+		this.opening = true;
+		FileShare.DOWNLOADS.execute(() -> {
+			final Socket s = fs.connect(this.rPackage.getHost());
+			if (s == null) {
+				SwingUtilities.invokeLater(() -> this.opening = false);
+				return;
+			}
+			final TransferConnection connection;
+			try {
+				connection = new TransferConnection(s, this::received, () -> SwingUtilities.invokeLater(this::close));
+			} catch (final IOException e) {
+				e.printStackTrace();
+				SwingUtilities.invokeLater(() -> this.opening = false);
+				return;
+			}
+			connection.open(this.rPackage, password);
+			SwingUtilities.invokeLater(() -> {
+				this.opening = false;
+				if (this.closed || connection.isClosed()) {
+					connection.close(); // closed, or refused, while connecting
+					return;
+				}
+				this.connection = connection;
+				this.expandRoots();
+			});
+		});
+	}
+
+	/**
+	 * Requests the roots of the package, unless they're all known or already requested.
+	 */
+	public void expandRoots() {
+		if (!this.rPackage.isListed()) {
+			this.request("", this.rPackage.getListedCount());
+		}
+	}
+
+	/**
+	 * Requests the children of a directory, unless they're all known or already requested.
+	 * @param directory The directory that's being expanded.
+	 */
+	public void expand(final RemoteFileNode directory) {
+		if (directory != null && directory.isDirectory() && !directory.isListed()) {
+			this.request(directory.getPath(), directory.getListedCount());
+		}
+	}
+
+	private void request(final String path, final int offset) {
+		if (this.connection == null || !this.pending.add(path)) {
+			return;
+		}
+		final TagWriter writer = new TagWriter(MessageEvent.Type.FILE_SHARE).attribute(FileShare.ATT_TYPE, FileShare.TYPE_LIST);
+		if (!path.isEmpty()) {
+			writer.attribute(FileShare.ATT_PATH, path);
+		}
+		this.connection.getMessageThread().send(new PreparedMessage(writer.attribute(FileShare.ATT_OFFSET, offset)));
+	}
+
+	/**
+	 * Handles the replies of the host, called from the work thread.
+	 */
+	private void received(final MessageEvent msg) {
+		if (msg.getType() != MessageEvent.Type.FILE_SHARE) {
+			return;
+		}
+		final String type = msg.getAttribute(FileShare.ATT_TYPE);
+		if (type == null) {
+			return;
+		}
+		switch (type) {
+			case FileShare.TYPE_UUID:
+			case FileShare.TYPE_PASSWORD:
+				if (!TransferConnection.isAccepted(msg)) {
+					SwingUtilities.invokeLater(this::close); // no such package or no access
+				}
+				break;
+			case FileShare.TYPE_LIST:
+				final String pathAttribute = msg.getAttribute(FileShare.ATT_PATH);
+				final String path = pathAttribute != null ? pathAttribute : "";
+				final String offset = msg.getAttribute(FileShare.ATT_OFFSET);
+				final String total = msg.getAttribute(FileShare.ATT_TOTAL);
+				final String version = msg.getAttribute(FilePackage.ATT_VERSION);
+				final byte[] listing = msg.getPostBytes();
+				SwingUtilities.invokeLater(() -> {
+					this.pending.remove(path);
+					if (offset == null || total == null || version == null) {
+						return; // the directory doesn't exist (anymore)
+					}
+					if (!this.rPackage.receiveListing(pathAttribute, Integer.parseInt(offset), Integer.parseInt(total), Long.parseLong(version), listing)) {
+						return;
+					}
+					if (path.isEmpty()) {
+						this.listener.eventReceived(null);
+						this.expandRoots();
+					} else {
+						final RemoteFileNode directory = this.rPackage.findDirectory(path);
+						this.listener.eventReceived(directory);
+						this.expand(directory);
+					}
+				});
+				break;
+		}
+	}
+
+	/**
+	 * Closes the connection to the host for good, the received children are kept.
+	 */
+	public void close() {
+		this.closed = true;
+		if (this.connection != null) {
+			this.connection.close();
+			this.connection = null;
+		}
+		this.pending.clear();
+	}
+
+}
@@ -0,0 +1,180 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemotePackage;
+
+import java.io.File;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Downloads files of a remote package, with the engine that suits each file. (Downloader)<br>
+ * Files of at least {@link #SEGMENTED_LENGTH} bytes are downloaded over several connections by a {@link SegmentedDownload} each,</br>
+ * the smaller ones one after another over a single connection by a {@link FileDownload}.<br>
+ * Both resume a file that was partially downloaded before, and reuse a local file with the same contents.<br>
+ * <br>
+ * Files are added from any thread but the event dispatch thread, since adding one connects to the host.<br>
+ * The listener is notified from the work threads of the connections.
+ */
+public class PackageDownload {
+
+	/**
+	 * The least length of a file to be downloaded over several connections, two full segments.
+	 */
+	public static final long SEGMENTED_LENGTH = 2L * SegmentedDownload.SEGMENT_CHUNKS * ChunkHashes.CHUNK_SIZE;
+
+	private final RemotePackage rPackage;
+	private final String password;
+	private final EventListener<PackageDownload> listener;
+	// the engines notify the listener while they hold their own locks, so the progress is read without holding this download's lock
+	private final CopyOnWriteArrayList<SegmentedDownload> segmented = new CopyOnWriteArrayList<>();
+	private volatile FileDownload files;
+	private volatile int fileCount;
+	/**
+	 * How many files were queued on {@link #files}, and how many couldn't be started at all.
+	 */
+	private volatile int queued;
+	private volatile int unstarted;
+	private volatile boolean closed;
+
+	/**
+	 * Initializes a new PackageDownload.
+	 * @param rPackage The package to download files from.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 * @param listener Receives this download when the progress changes, may be <code>null</code>.
+	 */
+	public PackageDownload(final RemotePackage rPackage, final String password, final EventListener<PackageDownload> listener) {
+		this.rPackage = rPackage;
+		this.password = password;
+		this.listener = listener;
+	}
+
+	public RemotePackage getPackage() {
+		return this.rPackage;
+	}
+
+	/**
+	 * Starts downloading a file, or queues it behind the other small files.
+	 * @param file The remote file to download.
+	 * @param target Where to save the file, an existing file is overwritten unless it's a partial download of the same file.
+	 * @return whether the download could be started.
+	 */
+	public synchronized boolean add(final RemoteFileNode file, final File target) {
+		if (this.closed || file == null || file.isDirectory()) {
+			return false;
+		}
+		this.fileCount++;
+		if (file.getSize() < SEGMENTED_LENGTH) {
+			if (this.files == null) {
+				this.files = this.createFileDownload(download -> this.notifyListener());
+				if (!this.files.open(this.password)) {
+					this.unstarted++;
+					this.notifyListener();
+					return false;
+				}
+			}
+			this.queued++;
+			this.files.download(file, target);
+			return true;
+		}
+		final SegmentedDownload download = this.createSegmentedDownload(file, target, d -> this.notifyListener());
+		this.segmented.add(download);
+		if (!download.start(this.password)) {
+			this.segmented.remove(download);
+			this.unstarted++;
+			this.notifyListener();
+			return false;
+		}
+		if (this.closed) {
+			download.close(); // closed while it was connecting
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the download of the small files.
+	 * @param listener Receives the download when its progress changes.
+	 */
+	protected FileDownload createFileDownload(final EventListener<FileDownload> listener) {
+		return new FileDownload(this.rPackage, listener);
+	}
+
+	/**
+	 * Creates the download of a large file.
+	 * @param listener Receives the download when its progress changes.
+	 */
+	protected SegmentedDownload createSegmentedDownload(final RemoteFileNode file, final File target, final EventListener<SegmentedDownload> listener) {
+		return new SegmentedDownload(this.rPackage, file, target, listener);
+	}
+
+	private void notifyListener() {
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+	}
+
+	/**
+	 * @return the number of files added.
+	 */
+	public int getFileCount() {
+		return this.fileCount;
+	}
+
+	/**
+	 * @return the number of added files that are done, including the ones that failed.
+	 */
+	public int getFinishedCount() {
+		final FileDownload files = this.files;
+		int finished = this.unstarted;
+		for (final SegmentedDownload download : this.segmented) {
+			if (download.isFinished() || download.isFailed()) {
+				finished++;
+			}
+		}
+		if (files != null) {
+			// the files still queued when the connection was closed won't be downloaded anymore
+			finished += files.isClosed() ? this.queued : Math.min(this.queued, files.getFinishedCount());
+		}
+		return finished;
+	}
+
+	/**
+	 * @return the number of added files that failed to download.
+	 */
+	public int getFailedCount() {
+		final FileDownload files = this.files;
+		int failed = this.unstarted;
+		for (final SegmentedDownload download : this.segmented) {
+			if (download.isFailed()) {
+				failed++;
+			}
+		}
+		if (files != null) {
+			failed += files.isClosed() ? this.queued - files.getFinishedCount() + files.getFailedCount() : files.getFailedCount();
+		}
+		return failed;
+	}
+
+	/**
+	 * @return whether every added file is done.
+	 */
+	public boolean isDone() {
+		return this.getFinishedCount() >= this.getFileCount();
+	}
+
+	/**
+	 * Closes all connections, partially downloaded files are kept so adding them again resumes them.
+	 */
+	public void close() {
+		this.closed = true;
+		for (final SegmentedDownload download : this.segmented) {
+			download.close();
+		}
+		final FileDownload files = this.files;
+		if (files != null) {
+			files.close();
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.FileNode;
+import ghsc.gui.fileshare.internal.FileNodeChildren;
+import ghsc.gui.fileshare.internal.FilePackage;
+import ghsc.gui.fileshare.internal.LocalFileNode;
+import ghsc.gui.fileshare.internal.LocalPackage;
+import ghsc.net.encryption.AES;
+import ghsc.net.encryption.StreamCipher;
+import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.util.TagWriter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.HashSet;
+
+/**
+ * Answers the listing and file requests of a downloader for one local package. (Host)<br>
+ * Used by the socket worker of a file transfer connection once the downloader was given access to the package.
+ */
+class PackageServer {
+
+	private final LocalPackage lPackage;
+	private final MessageThread messageThread;
+	private final EventListener<LocalFileNode> hashRequested;
+	/**
+	 * Content ids of the files whose chunk hashes were sent to the downloader already.
+	 */
+	private final HashSet<String> hashesSent = new HashSet<>();
+
+	/**
+	 * Initializes a new PackageServer.
+	 * @param lPackage The package the downloader was given access to.
+	 * @param messageThread The connection to the downloader.
+	 * @param hashRequested Receives a requested file that has to be hashed before it can be sent, from the work thread.
+	 */
+	PackageServer(final LocalPackage lPackage, final MessageThread messageThread, final EventListener<LocalFileNode> hashRequested) {
+		this.lPackage = lPackage;
+		this.messageThread = messageThread;
+		this.hashRequested = hashRequested;
+	}
+
+	/**
+	 * Replies with one page of the children of a directory.
+	 * @param request The request from the downloader, with the path of the directory and the index of the first child.
+	 */
+	void list(final MessageEvent request) {
+		final String path = request.getAttribute(FileShare.ATT_PATH);
+		final LocalFileNode[] children = this.lPackage.list(path);
+		final TagWriter reply = new TagWriter(MessageEvent.Type.FILE_SHARE).attribute(FileShare.ATT_TYPE, FileShare.TYPE_LIST).attribute(FileShare.ATT_PATH, path);
+		if (children == null) {
+			this.messageThread.send(new PreparedMessage(reply.attribute(FileShare.ATT_STATUS, "er")));
+			return;
+		}
+		int offset;
+		try {
+			final String offsetString = request.getAttribute(FileShare.ATT_OFFSET);
+			offset = offsetString != null ? Integer.parseInt(offsetString) : 0;
+		} catch (final NumberFormatException e) {
+			offset = 0;
+		}
+		offset = Math.max(0, Math.min(offset, children.length));
+		final StringBuilder build = new StringBuilder();
+		for (int i = offset; i < children.length && i < offset + FileShare.LIST_PAGE_SIZE; i++) {
+			build.append(children[i].toRemoteListingMeta());
+		}
+		build.append("</").append(FileNodeChildren.TAGNAME).append(">");
+		reply.attribute(FileShare.ATT_OFFSET, offset).attribute(FileShare.ATT_TOTAL, children.length).attribute(FilePackage.ATT_VERSION, this.lPackage.getVersion()).post(build);
+		this.messageThread.send(new PreparedMessage(reply));
+	}
+
+	/**
+	 * Sends a range of a file of the package to the downloader.<br>
+	 * The reply declares the range, the length of the file and its content id,</br>
+	 * and is followed by the range as raw bytes, which are encrypted with a counter mode cipher if this connection was given its own key.<br>
+	 * The hashes of the chunks are only sent with the first reply about a file, the downloader keeps them for the later ones.<br>
+	 * A resumed download sends the hash of the hashes of the chunks it already has,</br>
+	 * if they don't match the file anymore the whole file is sent instead.<br>
+	 * A file that wasn't hashed for its current contents yet is hashed in the background,</br>
+	 * and the downloader is told to request it again later.
+	 * @param request The request from the downloader, with the path of the file and optionally the range.
+	 * @throws IOException If sending the range was interrupted, the downloader can't tell where it ended then,</br>
+	 * so the connection can't be used anymore.
+	 */
+	void transfer(final MessageEvent request) throws IOException {
+		final String path = request.getAttribute(FileShare.ATT_PATH);
+		final LocalFileNode lFile = path != null ? this.lPackage.getFile(path) : null;
+		if (lFile == null || lFile.isDirectory() || lFile.getFile() == null) {
+			// file not found
+			this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, FileShare.TYPE_REQUEST, FileShare.ATT_PATH, path, FileShare.ATT_STATUS, "er"));
+			return;
+		}
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(lFile.getFile().toPath(), StandardOpenOption.READ);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, FileShare.TYPE_REQUEST, FileShare.ATT_PATH, path, FileShare.ATT_STATUS, "ex"));
+			return;
+		}
+		final ChunkHashes hashes = lFile.getCurrentChunkHashes();
+		if (hashes == null) {
+			// hashing a large file takes minutes, so the downloader asks again instead of this connection waiting for it
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+			this.hashRequested.eventReceived(lFile);
+			this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, FileShare.TYPE_REQUEST, FileShare.ATT_PATH, path, FileShare.ATT_STATUS, "nr"));
+			return;
+		}
+		final long fileLength = hashes.getLength();
+		long offset;
+		long length;
+		try {
+			final String offsetString = request.getAttribute(FileShare.ATT_OFFSET);
+			final String lengthString = request.getAttribute(FileShare.ATT_LENGTH);
+			offset = offsetString != null ? Long.parseLong(offsetString) : 0;
+			length = lengthString != null ? Long.parseLong(lengthString) : Long.MAX_VALUE;
+		} catch (final NumberFormatException e) {
+			offset = 0;
+			length = Long.MAX_VALUE;
+		}
+		final String verified = request.getAttribute(FileShare.ATT_VERIFIED);
+		if (offset < 0 || offset > fileLength || length < 0
+				|| (verified != null && (offset % ChunkHashes.CHUNK_SIZE != 0 || !verified.equals(Base64.getEncoder().encodeToString(hashes.digest((int) (offset / ChunkHashes.CHUNK_SIZE))))))) {
+			// an invalid range, or the file changed since the downloader received its start
+			offset = 0;
+			length = Long.MAX_VALUE;
+		}
+		length = Math.min(length, fileLength - offset);
+		try {
+			final TagWriter header = new TagWriter(MessageEvent.Type.FILE_SHARE).attribute(FileShare.ATT_TYPE, FileShare.TYPE_REQUEST).attribute(FileShare.ATT_PATH, path)
+					.attribute(FileShare.ATT_STATUS, "b").attribute(FileShare.ATT_OFFSET, offset).attribute(FileShare.ATT_LENGTH, length) // bulk data follows
+					.attribute(FileShare.ATT_FILE_LENGTH, fileLength).attribute(FileNode.ATT_CONTENT, hashes.getContentId());
+			if (this.hashesSent.add(hashes.getContentId())) {
+				header.attribute(FileNode.ATT_HASHES, hashes.encode());
+			}
+			final AES encryption = this.messageThread.getEncryption();
+			StreamCipher cipher = null;
+			if (!AES.DEFAULT.equals(encryption)) {
+				cipher = encryption.createStream();
+				header.attribute(FileShare.ATT_IV, Base64.getEncoder().encodeToString(cipher.getIV()));
+			}
+			this.messageThread.transfer(new PreparedMessage(header), channel, offset, length, cipher);
+		} finally {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,858 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.Application;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemotePackage;
+import ghsc.net.encryption.StreamCipher;
+import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.util.TagWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a single large file over several file transfer connections at once. (Downloader)<br>
+ * The file is split into segments of {@link #SEGMENT_CHUNKS} chunks, which the connections request one after another,</br>
+ * and every connection writes what it receives straight to its position in the preallocated target.<br>
+ * It starts with one connection and adds another whenever the throughput of the last measurement grew,</br>
+ * until a new connection doesn't pay off anymore, which is then closed after its segment.<br>
+ * Once the host confirmed the chunk hashes, other users sharing a file with the same hashes are added as sources,</br>
+ * so chunks are pulled from all of them at once.<br>
+ * Slow connections only request single chunks, much slower ones are closed,</br>
+ * and the chunks of a closed connection go back to the others.<br>
+ * Chunks are verified and journaled the same way as by {@link FileDownload}, so the download can be resumed,</br>
+ * and a segment of a file the host didn't hash yet is requested again until it did.<br>
+ * If the announced contents are already on this computer, the local file is copied instead, see {@link ContentIndex}.<br>
+ * <br>
+ * The listener is notified from the work threads of the connections.
+ */
+public class SegmentedDownload {
+
+	/**
+	 * The number of chunks requested at once by a connection.
+	 */
+	public static final int SEGMENT_CHUNKS = 4;
+	/**
+	 * The most connections used for one file.
+	 */
+	public static final int MAX_CONNECTIONS = 8;
+	/**
+	 * How long throughput is measured before deciding about the number of connections, in nanoseconds.
+	 */
+	private static final long MEASURE_INTERVAL = 1000000000L;
+	/**
+	 * How much the throughput has to grow for another connection to be worth it.
+	 */
+	private static final double MIN_GAIN = 1.1;
+	/**
+	 * A connection slower than this part of the fastest one only requests one chunk at a time.
+	 */
+	private static final double SLOW_FRACTION = 0.5;
+	/**
+	 * A connection slower than this part of the fastest one is closed, and its source is only used if no other is left.
+	 */
+	private static final double CLOSE_FRACTION = 0.25;
+	/**
+	 * How often in a row a source can drop a connection before it sent anything, until it's given up.
+	 */
+	private static final int MAX_FAILURES = 3;
+	/**
+	 * Least time between two writes of the journal, in nanoseconds.
+	 */
+	private static final long JOURNAL_INTERVAL = 1000000000L;
+
+	private final Source host;
+	/**
+	 * The content id the file was announced with, or <code>null</code> if the host didn't hash it yet.
+	 */
+	private final String announced;
+	private final String path;
+	private final long length;
+	private final File target;
+	private final EventListener<SegmentedDownload> listener;
+	private final ArrayList<Source> sources = new ArrayList<>();
+	private final ArrayList<Connection> connections = new ArrayList<>();
+	/**
+	 * Chunks that are verified or requested by a connection.
+	 */
+	private final BitSet claimed = new BitSet();
+
+	private FileChannel output;
+	private DownloadJournal journal;
+	/**
+	 * Whether the hashes of the journal were confirmed by the host.
+	 */
+	private boolean confirmed;
+	private long journalWritten;
+
+	private long windowStart;
+	private long windowBytes;
+	private double lastThroughput;
+	private int lastConnections;
+	private boolean growing = true;
+
+	private volatile long received;
+	private volatile boolean finished;
+	private volatile boolean failed;
+
+	/**
+	 * Initializes a new SegmentedDownload.
+	 * @param rPackage The package to download the file from.
+	 * @param file The remote file to download.
+	 * @param target Where to save the file, an existing file is overwritten.
+	 * @param listener Receives this download when the progress changes, may be <code>null</code>.
+	 */
+	public SegmentedDownload(final RemotePackage rPackage, final RemoteFileNode file, final File target, final EventListener<SegmentedDownload> listener) {
+		this.host = new Source(rPackage, file.getPath());
+		this.sources.add(this.host);
+		this.announced = file.getContentId();
+		this.path = file.getPath();
+		this.length = file.getSize();
+		this.target = target;
+		this.listener = listener;
+	}
+
+	/**
+	 * Preallocates the target and opens the first connection to the host of the package.<br>
+	 * If a journal shows that the target was partially downloaded before, only the missing chunks are requested,</br>
+	 * and if a file with the announced contents is already here, it's reused without connecting at all.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 * @return whether the download could be started.
+	 */
+	public boolean start(final String password) {
+		synchronized (this) {
+			if (this.output != null || this.finished) {
+				return true;
+			}
+			this.host.password = password;
+			if (this.reuseLocal()) {
+				return true;
+			}
+			if (!this.preallocate()) {
+				return false;
+			}
+			if (this.length == 0 || (this.journal != null && this.journal.isComplete())) {
+				this.complete();
+				return true;
+			}
+			this.windowStart = System.nanoTime();
+		}
+		return this.addConnection(this.host);
+	}
+
+	/**
+	 * Copies a local file with the announced contents to the target.
+	 * @return whether the download is finished that way.
+	 */
+	private boolean reuseLocal() {
+		final ContentIndex index = this.getContentIndex();
+		if (index == null || !index.reuse(this.announced, this.target)) {
+			return false;
+		}
+		this.received = this.length;
+		this.finished = true;
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the files on this computer, or <code>null</code> if there's none.
+	 */
+	protected ContentIndex getContentIndex() {
+		final FileShare fs = Application.getInstance().getFileShare();
+		return fs != null ? fs.getContentIndex() : null;
+	}
+
+	/**
+	 * Opens the target and reserves its length, keeping the verified chunks of an earlier attempt.
+	 * @return whether the target could be opened.
+	 */
+	private boolean preallocate() {
+		try {
+			final File parent = this.target.getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			final DownloadJournal earlier = DownloadJournal.read(this.target, this.path);
+			this.output = FileChannel.open(this.target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			if (earlier != null && earlier.getHashes().getLength() == this.length) {
+				this.journal = earlier;
+				this.claimed.or(earlier.getVerified());
+				this.received = this.getVerifiedBytes();
+			} else {
+				this.output.truncate(0);
+			}
+			if (this.output.size() > this.length) {
+				this.output.truncate(this.length);
+			} else if (this.output.size() < this.length) {
+				// writing the last byte reserves the length, the segments fill in the rest in any order
+				this.output.write(ByteBuffer.allocate(1), this.length - 1);
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+			this.fail();
+			return false;
+		}
+		return true;
+	}
+
+	public String getPath() {
+		return this.path;
+	}
+
+	public File getTarget() {
+		return this.target;
+	}
+
+	/**
+	 * @return the number of bytes verified so far, including the ones of an earlier attempt.
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public synchronized int getConnectionCount() {
+		return this.connections.size();
+	}
+
+	/**
+	 * @return the number of users the file is downloaded from, or can still be downloaded from.
+	 */
+	public synchronized int getSourceCount() {
+		int count = 0;
+		for (final Source source : this.sources) {
+			if (!source.unavailable) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	public boolean isFailed() {
+		return this.failed;
+	}
+
+	/**
+	 * Opens another connection to a source, which requests a segment once it's been given access.
+	 * @return whether the connection was made.
+	 */
+	private boolean addConnection(final Source source) {
+		// connecting can take a while, so the other connections aren't held up meanwhile
+		final Socket s = this.connect(source.rPackage);
+		synchronized (this) {
+			Connection connection = null;
+			if (s != null && !this.finished && !this.failed) {
+				try {
+					connection = new Connection(source, s);
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+			if (s == null) {
+				if (source.connections == 0) {
+					source.unavailable = true;
+				}
+				if (this.connections.isEmpty()) {
+					this.continueOrFail();
+				}
+				return false;
+			}
+			if (connection == null) {
+				try {
+					s.close();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+				return false;
+			}
+			this.connections.add(connection);
+			source.connections++;
+			connection.open();
+			return true;
+		}
+	}
+
+	/**
+	 * Creates a file transfer socket with the host of a package.
+	 * @return the connected socket, or <code>null</code> if the host couldn't be reached.
+	 */
+	protected Socket connect(final RemotePackage rPackage) {
+		final FileShare fs = Application.getInstance().getFileShare();
+		return fs != null ? fs.connect(rPackage.getHost()) : null;
+	}
+
+	/**
+	 * Finds the packages of other users that share a file with the given hashes.
+	 * @return the remote path of the file by the package it's found in.
+	 */
+	protected Map<RemotePackage, String> findSources(final ChunkHashes hashes) {
+		final FileShare fs = Application.getInstance().getFileShare();
+		return fs != null ? fs.findSources(hashes) : Collections.emptyMap();
+	}
+
+	/**
+	 * Adds the other users sharing the confirmed file as sources, and opens a connection to each of them,</br>
+	 * without blocking the calling work thread.
+	 * @param hashes The confirmed hashes of the file.
+	 */
+	private void addSourcesLater(final ChunkHashes hashes) {
+		FileShare.DOWNLOADS.execute(() -> {
+			final Map<RemotePackage, String> found = this.findSources(hashes);
+			final ArrayList<Source> added = new ArrayList<>();
+			synchronized (this) {
+				for (final Map.Entry<RemotePackage, String> entry : found.entrySet()) {
+					if (this.isSource(entry.getKey())) {
+						continue;
+					}
+					final Source source = new Source(entry.getKey(), entry.getValue());
+					this.sources.add(source);
+					if (this.connections.size() + added.size() < MAX_CONNECTIONS) {
+						added.add(source);
+					}
+				}
+			}
+			for (final Source source : added) {
+				synchronized (this) {
+					if (this.finished || this.failed || this.claimed.nextClearBit(0) >= this.getChunkCount()) {
+						return;
+					}
+				}
+				this.addConnection(source);
+			}
+		});
+	}
+
+	/**
+	 * @return whether a package, or another package of the same user, is already a source.
+	 */
+	private boolean isSource(final RemotePackage rPackage) {
+		for (final Source source : this.sources) {
+			if (source.rPackage == rPackage || (rPackage.getHost() != null && source.rPackage.isHostedBy(rPackage.getHost()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Picks the source for another connection, preferring sources that aren't slow and have the fewest connections.
+	 * @return the source, or <code>null</code> if none is left.
+	 */
+	private Source pickSource() {
+		Source best = null;
+		for (final Source source : this.sources) {
+			if (source.unavailable) {
+				continue;
+			}
+			if (best == null || (best.slow && !source.slow) || (best.slow == source.slow && source.connections < best.connections)) {
+				best = source;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Opens another connection without blocking the calling work thread.
+	 */
+	private void addConnectionLater(final Source source) {
+		FileShare.DOWNLOADS.execute(() -> {
+			synchronized (this) {
+				if (this.finished || this.failed || this.claimed.nextClearBit(0) >= this.getChunkCount()) {
+					return;
+				}
+			}
+			this.addConnection(source);
+		});
+	}
+
+	/**
+	 * Continues with another source after the last connection was closed, or fails if no source is left.
+	 */
+	private void continueOrFail() {
+		final Source source = this.pickSource();
+		if (source != null) {
+			this.addConnectionLater(source);
+		} else {
+			this.fail();
+		}
+	}
+
+	/**
+	 * Claims the next missing chunks for a connection.
+	 * @param chunks The most chunks to claim.
+	 * @return the first and the end chunk of the segment, or <code>null</code> if all chunks are claimed.
+	 */
+	private int[] nextSegment(final int chunks) {
+		final int chunkCount = this.getChunkCount();
+		final int first = this.claimed.nextClearBit(0);
+		if (first >= chunkCount) {
+			return null;
+		}
+		int end = first + 1;
+		while (end < chunkCount && end - first < chunks && !this.claimed.get(end)) {
+			end++;
+		}
+		this.claimed.set(first, end);
+		return new int[] { first, end };
+	}
+
+	private int getChunkCount() {
+		return ChunkHashes.getChunkCount(this.length);
+	}
+
+	private long getVerifiedBytes() {
+		long verified = 0;
+		final ChunkHashes hashes = this.journal.getHashes();
+		for (int chunk = this.journal.getVerified().nextSetBit(0); chunk >= 0; chunk = this.journal.getVerified().nextSetBit(chunk + 1)) {
+			verified += hashes.getChunkLength(chunk);
+		}
+		return verified;
+	}
+
+	/**
+	 * Checks the hashes of a reply against the ones the chunks are verified with.<br>
+	 * The first confirmation comes from the host, after which the other sources are looked up.
+	 * @return whether the file of the source is the same.
+	 */
+	private synchronized boolean confirm(final ChunkHashes hashes) {
+		if (this.journal == null) {
+			this.journal = new DownloadJournal(this.path, hashes);
+		} else if (!this.journal.getHashes().getContentId().equals(hashes.getContentId())) {
+			if (this.confirmed) {
+				return false; // the file changed while it was downloaded, or another user's file isn't the same
+			}
+			// the file changed since the earlier attempt, so its chunks have to be requested again
+			this.claimed.andNot(this.journal.getVerified());
+			this.journal = new DownloadJournal(this.path, hashes);
+			this.received = 0;
+		}
+		if (!this.confirmed) {
+			this.confirmed = true;
+			this.addSourcesLater(hashes);
+		}
+		return true;
+	}
+
+	/**
+	 * Records a verified chunk, writes the journal now and then and adapts the number of connections.
+	 */
+	private synchronized void verified(final int chunk) throws IOException {
+		this.journal.setVerified(chunk);
+		final int chunkLength = this.journal.getHashes().getChunkLength(chunk);
+		this.received += chunkLength;
+		this.windowBytes += chunkLength;
+		final long now = System.nanoTime();
+		if (this.journal.isComplete()) {
+			this.complete();
+			return;
+		}
+		if (now - this.journalWritten >= JOURNAL_INTERVAL) {
+			// the chunks have to be on the disk before the journal says so
+			this.output.force(false);
+			this.journal.write(this.target);
+			this.journalWritten = now;
+		}
+		if (now - this.windowStart >= MEASURE_INTERVAL) {
+			this.adapt(now, this.windowBytes * 1e9 / (now - this.windowStart));
+			this.windowStart = now;
+			this.windowBytes = 0;
+		}
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+	}
+
+	/**
+	 * Adds a connection while every added connection made the download faster,</br>
+	 * and retires the newest connection of a source with several once one didn't.<br>
+	 * Rebalances the connections that were open for the whole measurement by their own throughput,</br>
+	 * so the chunks of slow sources go to the faster ones.
+	 * @param now The end of the measurement.
+	 * @param throughput The bytes per second of the last measurement.
+	 */
+	private void adapt(final long now, final double throughput) {
+		final int count = this.connections.size();
+		double fastest = 0;
+		for (final Connection connection : this.connections) {
+			fastest = Math.max(fastest, connection.measure(now, this.windowStart));
+		}
+		boolean rebalanced = false;
+		for (final Connection connection : new ArrayList<>(this.connections)) {
+			final double own = connection.throughput;
+			if (own < 0 || count == 1) {
+				continue;
+			}
+			connection.slow = own < fastest * SLOW_FRACTION;
+			if (own < fastest * CLOSE_FRACTION) {
+				// its chunks go back to the faster connections right away, instead of holding up the end of the file
+				connection.source.slow = true;
+				connection.close();
+				rebalanced = true;
+			} else if (!connection.slow) {
+				connection.source.slow = false;
+			}
+		}
+		final boolean remaining = this.claimed.nextClearBit(0) < this.getChunkCount();
+		if (rebalanced) {
+			this.growing = true; // the faster sources may take more connections now
+		} else if (count > this.lastConnections && this.lastConnections > 0 && throughput < this.lastThroughput * MIN_GAIN) {
+			this.growing = false;
+			for (int i = count - 1; i >= 0; i--) {
+				final Connection newest = this.connections.get(i);
+				if (newest.source.connections > 1) {
+					newest.retire();
+					break;
+				}
+			}
+		}
+		if (this.growing && this.connections.size() < MAX_CONNECTIONS && remaining) {
+			final Source source = this.pickSource();
+			if (source != null && !source.slow) {
+				this.addConnectionLater(source);
+			}
+		}
+		this.lastThroughput = throughput;
+		this.lastConnections = this.connections.size();
+	}
+
+	/**
+	 * Gives the unverified chunks of a closed connection back, so another connection can request them.
+	 */
+	private synchronized void closed(final Connection connection) {
+		if (!this.connections.remove(connection)) {
+			return;
+		}
+		final Source source = connection.source;
+		source.connections--;
+		for (int chunk = connection.chunk; chunk < connection.end; chunk++) {
+			if (this.journal == null || !this.journal.isVerified(chunk)) {
+				this.claimed.clear(chunk);
+			}
+		}
+		if (connection.started) {
+			source.failures = 0;
+		} else if (!connection.done && ++source.failures >= MAX_FAILURES) {
+			source.unavailable = true;
+		}
+		if (this.finished || this.failed) {
+			return;
+		}
+		if (this.connections.isEmpty()) {
+			this.continueOrFail();
+		}
+	}
+
+	/**
+	 * Closes the target and deletes the journal once every chunk was verified, and adds the target to the content index.
+	 */
+	private void complete() {
+		this.finished = true;
+		this.closeAll();
+		try {
+			this.output.close();
+		} catch (final IOException e) {
+			e.printStackTrace();
+			this.failed = true;
+		}
+		DownloadJournal.delete(this.target);
+		final ContentIndex index = this.getContentIndex();
+		if (!this.failed && this.journal != null && index != null) {
+			index.add(this.journal.getHashes(), this.target, this.target.lastModified(), true);
+		}
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+	}
+
+	private void fail() {
+		this.failed = true;
+		this.close();
+		if (this.listener != null) {
+			this.listener.eventReceived(this);
+		}
+	}
+
+	private void closeAll() {
+		for (final Connection connection : new ArrayList<>(this.connections)) {
+			connection.close();
+		}
+		this.connections.clear();
+	}
+
+	/**
+	 * Closes all connections and the target, the verified chunks are kept in the journal so the download can be resumed.
+	 */
+	public synchronized void close() {
+		this.closeAll();
+		if (this.output != null && this.output.isOpen()) {
+			try {
+				this.output.force(false);
+				if (this.journal != null) {
+					this.journal.write(this.target);
+				}
+				this.output.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A package sharing the file, and how the connections to its host fared.
+	 */
+	private static class Source {
+
+		private final RemotePackage rPackage;
+		private final String path;
+		private String password;
+		private int connections;
+		private int failures;
+		/**
+		 * Whether the host denied access, doesn't have the same file anymore, or couldn't be reached.
+		 */
+		private boolean unavailable;
+		/**
+		 * Whether a connection to the host was too slow, until another one is measured fast again.
+		 */
+		private boolean slow;
+
+		private Source(final RemotePackage rPackage, final String path) {
+			this.rPackage = rPackage;
+			this.path = path;
+		}
+
+	}
+
+	/**
+	 * One file transfer connection, which requests segments until there are none left.
+	 */
+	private class Connection {
+
+		private final Source source;
+		private final TransferConnection connection;
+		private ChunkVerifier verifier;
+		/**
+		 * The first chunk of the requested segment, and the chunk after it.
+		 */
+		private int chunk;
+		private int end;
+		/**
+		 * Whether the host started sending a segment, which means this connection was given access.
+		 */
+		private boolean started;
+		/**
+		 * Whether this connection closed itself because it had nothing left to request.
+		 */
+		private boolean done;
+		private volatile boolean retired;
+		private final long opened = System.nanoTime();
+		/**
+		 * Bytes written since the last measurement, only incremented by the work thread.
+		 */
+		private volatile long bytes;
+		/**
+		 * The bytes per second of the last measurement, or <tt>-1</tt> if this connection wasn't open for all of it.
+		 */
+		private double throughput = -1;
+		private boolean slow;
+
+		private Connection(final Source source, final Socket s) throws IOException {
+			this.source = source;
+			this.slow = source.slow;
+			this.connection = new TransferConnection(s, this::received, () -> SegmentedDownload.this.closed(this));
+		}
+
+		private void open() {
+			this.connection.open(this.source.rPackage, this.source.password);
+			if (this.source.password == null) {
+				this.request();
+			}
+		}
+
+		/**
+		 * Measures the throughput of this connection, if it was open for the whole measurement.
+		 * @return the bytes per second, or <tt>-1</tt>.
+		 */
+		private double measure(final long now, final long windowStart) {
+			final long bytes = this.bytes;
+			this.bytes = 0;
+			this.throughput = this.opened <= windowStart ? bytes * 1e9 / (now - windowStart) : -1;
+			return this.throughput;
+		}
+
+		/**
+		 * Requests the next segment, a single chunk if this connection is slow, or closes this connection if there's none or it's retired.
+		 */
+		private void request() {
+			final int[] segment;
+			synchronized (SegmentedDownload.this) {
+				segment = this.retired ? null : SegmentedDownload.this.nextSegment(this.slow ? 1 : SEGMENT_CHUNKS);
+				this.chunk = segment != null ? segment[0] : 0;
+				this.end = segment != null ? segment[1] : 0;
+				this.done = segment == null;
+			}
+			if (segment == null) {
+				this.close();
+				return;
+			}
+			this.send();
+		}
+
+		/**
+		 * Sends the request for the claimed segment.
+		 */
+		private void send() {
+			final long offset = ChunkHashes.getChunkOffset(this.chunk);
+			final long rangeEnd = Math.min(SegmentedDownload.this.length, ChunkHashes.getChunkOffset(this.end));
+			this.connection.getMessageThread().send(new PreparedMessage(new TagWriter(MessageEvent.Type.FILE_SHARE)
+					.attribute(FileShare.ATT_TYPE, FileShare.TYPE_REQUEST)
+					.attribute(FileShare.ATT_PATH, this.source.path)
+					.attribute(FileShare.ATT_OFFSET, offset)
+					.attribute(FileShare.ATT_LENGTH, rangeEnd - offset)));
+		}
+
+		/**
+		 * Requests the claimed segment again after {@link FileShare#RETRY_DELAY}, it stays claimed meanwhile.
+		 */
+		private void sendLater() {
+			FileShare.DOWNLOADS.schedule(() -> {
+				if (!this.connection.isClosed()) {
+					this.send();
+				}
+			}, FileShare.RETRY_DELAY, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Handles the replies of the host, called from the work thread.
+		 */
+		private void received(final MessageEvent msg) {
+			if (msg.getType() != MessageEvent.Type.FILE_SHARE) {
+				return;
+			}
+			final String type = msg.getAttribute(FileShare.ATT_TYPE);
+			if (type == null) {
+				return;
+			}
+			switch (type) {
+				case FileShare.TYPE_UUID:
+				case FileShare.TYPE_PASSWORD:
+					if (!TransferConnection.isAccepted(msg)) {
+						this.giveUp(); // no such package or no access
+					} else if (type.equals(FileShare.TYPE_PASSWORD)) {
+						this.request();
+					}
+					break;
+				case FileShare.TYPE_REQUEST:
+					if (!this.source.path.equals(msg.getAttribute(FileShare.ATT_PATH))) {
+						return;
+					}
+					if ("nr".equals(msg.getAttribute(FileShare.ATT_STATUS))) {
+						this.sendLater(); // the host is still hashing the file
+						return;
+					}
+					try {
+						if (!"b".equals(msg.getAttribute(FileShare.ATT_STATUS))) {
+							throw new IOException("File not available: " + this.source.path);
+						}
+						this.begin(msg);
+					} catch (final IOException | RuntimeException e) {
+						e.printStackTrace();
+						this.giveUp(); // the file isn't available or changed
+					}
+					break;
+			}
+		}
+
+		/**
+		 * Checks that the reply is for the requested segment, and has the raw bytes following it written to the target.
+		 */
+		private void begin(final MessageEvent msg) throws IOException {
+			final long fileLength = Long.parseLong(msg.getAttribute(FileShare.ATT_FILE_LENGTH));
+			final ChunkHashes hashes = this.connection.getHashes(msg);
+			final long offset = Long.parseLong(msg.getAttribute(FileShare.ATT_OFFSET));
+			final long rangeLength = Long.parseLong(msg.getAttribute(FileShare.ATT_LENGTH));
+			if (hashes == null || fileLength != SegmentedDownload.this.length || !SegmentedDownload.this.confirm(hashes)) {
+				throw new IOException("The file changed: " + this.source.path);
+			}
+			if (offset != ChunkHashes.getChunkOffset(this.chunk) || offset + rangeLength != Math.min(fileLength, ChunkHashes.getChunkOffset(this.end))) {
+				throw new IOException("Unexpected range: " + offset + "+" + rangeLength);
+			}
+			final MessageThread messageThread = this.connection.getMessageThread();
+			final String iv = msg.getAttribute(FileShare.ATT_IV);
+			final StreamCipher cipher = iv != null ? messageThread.getEncryption().createStream(Base64.getDecoder().decode(iv)) : null;
+			this.verifier = new ChunkVerifier(hashes, SegmentedDownload.this.output, this.chunk, cipher, SegmentedDownload.this::verified);
+			this.started = true;
+			messageThread.receiveBulk(rangeLength, this::write);
+		}
+
+		/**
+		 * Writes a piece of the segment to its position in the target and verifies the chunks it completes, called from the work thread.
+		 * @throws IOException If a chunk doesn't match its hash, which closes this connection.
+		 */
+		private void write(final ByteBuffer data, final boolean last) throws IOException {
+			try {
+				this.bytes += this.verifier.write(data);
+			} catch (final IOException e) {
+				if (this.verifier.isMismatched()) {
+					synchronized (SegmentedDownload.this) {
+						this.source.unavailable = true;
+					}
+				}
+				throw e;
+			}
+			if (last && !SegmentedDownload.this.finished) {
+				this.request();
+			}
+		}
+
+		/**
+		 * Closes this connection once its segment is done.
+		 */
+		private void retire() {
+			this.retired = true;
+		}
+
+		/**
+		 * Stops using the source of this connection and closes it, the other sources carry on.
+		 */
+		private void giveUp() {
+			synchronized (SegmentedDownload.this) {
+				this.source.unavailable = true;
+			}
+			this.close();
+		}
+
+		private void close() {
+			this.connection.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.components.users.User;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.FileNode;
+import ghsc.gui.fileshare.internal.RemotePackage;
+import ghsc.net.encryption.AES;
+import ghsc.net.sockets.input.Encoding;
+import ghsc.net.sockets.input.Framing;
+import ghsc.net.sockets.input.MessageThread;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.net.sockets.input.SocketIO;
+import ghsc.util.TagWriter;
+import ghsc.util.Utilities;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Base64;
+import java.util.HashMap;
+
+/**
+ * A file transfer connection to the host of a remote package. (Downloader)<br>
+ * Asks the host for access to the package when it's opened, the host replies to the uuid</br>
+ * and to the password with whether they were accepted, see {@link #isAccepted(MessageEvent)}.<br>
+ * Before that a random key is sent, which encrypts everything after it, including the contents of files.
+ */
+class TransferConnection {
+
+	/**
+	 * The length of the key of a connection, in bytes.
+	 */
+	static final int KEY_LENGTH = 16;
+
+	private final Socket socket;
+	private final MessageThread messageThread;
+	/**
+	 * The chunk hashes received over this connection by content id.
+	 */
+	private final HashMap<String, ChunkHashes> hashes = new HashMap<>();
+
+	/**
+	 * Initializes a new TransferConnection, nothing is received until it's opened.
+	 * @param socket The connected file transfer socket, which is closed if this fails.
+	 * @param callback Receives the replies of the host, called from the work thread.
+	 * @param endOfStream Called once the connection was closed.
+	 * @throws IOException If the streams of the socket couldn't be opened.
+	 */
+	TransferConnection(final Socket socket, final EventListener<MessageEvent> callback, final Runnable endOfStream) throws IOException {
+		this.socket = socket;
+		try {
+			this.messageThread = new MessageThread(new SocketIO(socket), callback, endOfStream);
+		} catch (final IOException e) {
+			try {
+				socket.close();
+			} catch (final IOException ignored) {}
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts the work thread and asks for access to a package.
+	 * @param rPackage The package to access.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 */
+	void open(final RemotePackage rPackage, final String password) {
+		this.messageThread.start();
+		final byte[] key = AES.getRandomBytes(KEY_LENGTH);
+		// the key itself is only sent with the default encryption, the host's reply is already encrypted with it
+		this.messageThread.send(new PreparedMessage(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, FileShare.TYPE_ENCRYPTION, Base64.getEncoder().encodeToString(key))), new AES(key));
+		final TagWriter writer = new TagWriter(MessageEvent.Type.FILE_SHARE)
+				.attribute(FileShare.ATT_TYPE, FileShare.TYPE_UUID)
+				.attribute(FileShare.ATT_UUID, rPackage.getUUID())
+				.attribute(User.ATT_FRAMING, Framing.SUPPORTED)
+				.attribute(User.ATT_ENCODING, Encoding.SUPPORTED);
+		this.messageThread.send(new PreparedMessage(writer));
+		if (password != null) {
+			this.messageThread.send(new PreparedMessage(writer.begin(MessageEvent.Type.FILE_SHARE).attribute(FileShare.ATT_TYPE, FileShare.TYPE_PASSWORD).post(password)));
+		}
+	}
+
+	MessageThread getMessageThread() {
+		return this.messageThread;
+	}
+
+	boolean isClosed() {
+		return this.socket.isClosed();
+	}
+
+	void close() {
+		this.messageThread.close();
+		try {
+			this.socket.close();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the chunk hashes of the file that a reply to a request is about.<br>
+	 * The host only sends them with its first reply about a file, the later ones only name its content id.
+	 * @param reply The reply, with the length of the file.
+	 * @return the hashes, or <code>null</code> if they're missing or malformed.
+	 * @throws NumberFormatException If the length of the file is malformed.
+	 */
+	synchronized ChunkHashes getHashes(final MessageEvent reply) {
+		final long length = Long.parseLong(reply.getAttribute(FileShare.ATT_FILE_LENGTH));
+		final String encoded = reply.getAttribute(FileNode.ATT_HASHES);
+		if (encoded == null) {
+			final String contentId = reply.getAttribute(FileNode.ATT_CONTENT);
+			final ChunkHashes known = contentId != null ? this.hashes.get(contentId) : null;
+			return known != null && known.getLength() == length ? known : null;
+		}
+		final ChunkHashes decoded = ChunkHashes.decode(length, encoded);
+		if (decoded != null) {
+			this.hashes.put(decoded.getContentId(), decoded);
+		}
+		return decoded;
+	}
+
+	/**
+	 * @param msg A reply to the uuid or the password.
+	 * @return whether the host accepted it.
+	 */
+	static boolean isAccepted(final MessageEvent msg) {
+		final String post = msg.getPost();
+		return Utilities.resolveToBoolean(post) || Boolean.parseBoolean(post);
+	}
+
+}
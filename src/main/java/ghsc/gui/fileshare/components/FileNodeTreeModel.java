@@ -232,6 +232,9 @@ public class FileNodeTreeModel<N extends FileNode> implements TreeModel {
 
 	@Override
 	public boolean isLeaf(final Object node) {
+		if (node instanceof FileNode) {
+			return ((FileNode) node).isLeaf(); // doesn't create children that haven't been expanded yet
+		}
 		return this.getChildCount(node) <= 0;
 	}
 	
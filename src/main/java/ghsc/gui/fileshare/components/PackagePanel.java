@@ -8,6 +8,7 @@ import ghsc.gui.fileshare.FileShareFrame;
 import ghsc.gui.fileshare.internal.FilePackage;
 import ghsc.gui.fileshare.internal.FilePackage.Visibility;
 import ghsc.gui.fileshare.internal.LocalPackage;
+import ghsc.gui.fileshare.internal.RemotePackage;
 
 import javax.swing.*;
 import javax.swing.GroupLayout.Alignment;
@@ -93,6 +94,21 @@ public class PackagePanel extends JPanel {
                 });
                 detailsMenuItem.setIcon(new ImageIcon(Images.INFORMATION));
                 menu.add(detailsMenuItem);
+                if (pack instanceof RemotePackage) {
+                    final JMenuItem browseMenuItem = menu.createItem("Browse", e -> {
+                        final RemotePackage rPackage = (RemotePackage) pack;
+                        String password = null;
+                        if (rPackage.isPasswordProtected()) {
+                            password = RemotePackageDialog.askPassword(frame, rPackage);
+                            if (password == null) {
+                                return;
+                            }
+                        }
+                        new RemotePackageDialog(frame, rPackage, password).setVisible(true);
+                    });
+                    browseMenuItem.setIcon(new ImageIcon(Images.PACKAGE));
+                    menu.add(browseMenuItem);
+                }
                 if (pack instanceof LocalPackage) {
                     final JMenuItem editMenuItem = menu.createItem("Edit", e -> {
                         // edit existing local packages...
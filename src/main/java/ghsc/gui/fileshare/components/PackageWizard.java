@@ -8,9 +8,11 @@ import ghsc.gui.components.autocomplete.ObjectToStringConverter;
 import ghsc.gui.components.input.WizardListener;
 import ghsc.gui.components.users.User;
 import ghsc.gui.components.util.PromptHandler;
+import ghsc.gui.fileshare.FileShare;
 import ghsc.gui.fileshare.FileShareFrame;
 import ghsc.gui.fileshare.internal.FilePackage.Visibility;
 import ghsc.gui.fileshare.internal.LocalFileNode;
+import ghsc.gui.fileshare.internal.LocalFileScanner;
 import ghsc.gui.fileshare.internal.LocalPackage;
 import ghsc.impl.Identifiable;
 import ghsc.impl.ObjectConverter;
@@ -30,6 +32,7 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
@@ -44,6 +47,8 @@ public class PackageWizard extends JDialog {
 	private LocalPackage lPackage;
 	private FileShareFileChooser fileChooser;
 	private SwingWorker<LocalPackage, Object> packageWorker;
+	private SwingWorker<LocalFileNode[], LocalFileScanner> scanWorker;
+	private LocalFileScanner scanner;
 	private final WizardListener<LocalPackage> wizardListener;
 	private List<String> visibilityChannelData = new ArrayList<>();
 	private List<Identifiable> visibilityUserData = new ArrayList<>();
@@ -55,6 +60,7 @@ public class PackageWizard extends JDialog {
 	private JToolBar filesToolbar;
 	private JButton addFilesButton;
 	private JButton deleteFilesButton;
+	private JLabel scanLabel;
 	private JScrollPane fileScrollPane;
 	private JTree fileTree;
 	private FileNodeTreeModel<LocalFileNode> fileTreeModel;
@@ -127,6 +133,7 @@ public class PackageWizard extends JDialog {
 	 * Notifies the wizard listener with a 'null' value and disposes of this dialog window.
 	 */
 	private void close() {
+        this.stopScan();
         this.wizardListener.wizardFinished(null);
         this.dispose();
 	}
@@ -221,6 +228,8 @@ public class PackageWizard extends JDialog {
             this.filesToolbar.setFloatable(false);
             this.filesToolbar.add(this.getAddFilesButton());
             this.filesToolbar.add(this.getDeleteFilesButton());
+            this.filesToolbar.addSeparator();
+            this.filesToolbar.add(this.getScanLabel());
 		}
 		return this.filesToolbar;
 	}
@@ -229,20 +238,15 @@ public class PackageWizard extends JDialog {
 		if (this.addFilesButton == null) {
             this.addFilesButton = new JButton("Add files");
             this.addFilesButton.addActionListener(unused -> {
-                if (this.fileChooser == null) {
+                if (this.scanWorker != null) {
+                    this.stopScan();
+                } else if (this.fileChooser == null) {
                     SwingUtilities.invokeLater(() -> {
                         this.fileChooser = new FileShareFileChooser(Application.LAST_DIRECTORY);
                         try {
                             final int result = this.fileChooser.showDialog(this, null);
                             if (result == FileShareFileChooser.APPROVE_OPTION) {
-                                final File[] selected = this.fileChooser.getSelectedFiles();
-                                for (final File select : selected) {
-                                    final LocalFileNode root = LocalFileNode.generateRoot(select);
-                                    if (root == null) {
-                                        continue;
-                                    }
-                                    this.fileTreeModel.addRoot(root);
-                                }
+                                this.scan(this.fileChooser.getSelectedFiles());
                             }
                         } finally {
                             Application.LAST_DIRECTORY = this.fileChooser.getCurrentDirectory();
@@ -258,6 +262,66 @@ public class PackageWizard extends JDialog {
 		return this.addFilesButton;
 	}
 
+	/**
+	 * Reads the selected files in the background and adds them once they're read.
+	 */
+	private void scan(final File[] selected) {
+		final LocalFileScanner scanner = new LocalFileScanner(selected);
+		this.scanner = scanner;
+		this.addFilesButton.setText("Stop");
+		this.okButton.setEnabled(false);
+		this.scanWorker = new SwingWorker<LocalFileNode[], LocalFileScanner>() {
+			protected LocalFileNode[] doInBackground() {
+				return scanner.scan(s -> this.publish(s));
+			}
+			protected void process(final List<LocalFileScanner> chunks) {
+				PackageWizard.this.getScanLabel().setText(scanner.getFileCount() + " files, " + scanner.getDirectoryCount() + " directories, "
+						+ FileShare.toHumanReadable(scanner.getSize(), false));
+			}
+			protected void done() {
+				if (PackageWizard.this.scanWorker == this) {
+					PackageWizard.this.scanWorker = null;
+					PackageWizard.this.scanner = null;
+					PackageWizard.this.addFilesButton.setText("Add files");
+					PackageWizard.this.okButton.setEnabled(true);
+				}
+				PackageWizard.this.getScanLabel().setText(null);
+				if (this.isCancelled()) {
+					return;
+				}
+				try {
+					final LocalFileNode[] roots = this.get();
+					if (roots != null) {
+						for (final LocalFileNode root : roots) {
+							PackageWizard.this.fileTreeModel.addRoot(root);
+						}
+					}
+				} catch (final InterruptedException | ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		this.scanWorker.execute();
+	}
+
+	/**
+	 * Cancels reading files, if any are being read.
+	 */
+	private void stopScan() {
+		if (this.scanWorker != null) {
+			this.scanner.cancel();
+			this.scanWorker.cancel(false);
+		}
+	}
+
+	public JLabel getScanLabel() {
+		if (this.scanLabel == null) {
+            this.scanLabel = new JLabel();
+            this.scanLabel.setFont(Fonts.GLOBAL);
+		}
+		return this.scanLabel;
+	}
+
 	public JButton getDeleteFilesButton() {
 		if (this.deleteFilesButton == null) {
             this.deleteFilesButton = new JButton("Delete");
@@ -0,0 +1,305 @@
+package ghsc.gui.fileshare.components;
+
+import ghsc.common.Fonts;
+import ghsc.common.Images;
+import ghsc.gui.Application;
+import ghsc.gui.fileshare.FileShare;
+import ghsc.gui.fileshare.FileShareFrame;
+import ghsc.gui.fileshare.PackageBrowser;
+import ghsc.gui.fileshare.PackageDownload;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemoteFileNodeChildren;
+import ghsc.gui.fileshare.internal.RemotePackage;
+
+import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A GUI dialog for looking at the files of a remote package and downloading them.<br>
+ * The files of a package that was announced without them are listed by the host,</br>
+ * the roots when the dialog opens and a directory when it's expanded, see {@link PackageBrowser}.<br>
+ * The selected files and directories are downloaded by a {@link PackageDownload},</br>
+ * a directory that isn't listed yet is listed first.
+ */
+public class RemotePackageDialog extends JDialog {
+
+	private static final long serialVersionUID = 1L;
+
+	private final FileShareFrame frame;
+	private final RemotePackage rPackage;
+	private final String password;
+	private final PackageBrowser browser;
+	/**
+	 * How many children of each listed directory the tree was told about.
+	 */
+	private final HashMap<RemoteFileNode, Integer> shown = new HashMap<>();
+	/**
+	 * Directories to download once they're listed, with the local directory they're saved in.
+	 */
+	private final HashMap<RemoteFileNode, File> waiting = new HashMap<>();
+	private PackageDownload download;
+
+	private JScrollPane fileScrollPane;
+	private JTree fileTree;
+	private FileNodeTreeModel<RemoteFileNode> fileTreeModel;
+	private JPanel bottomPanel;
+	private JLabel statusLabel;
+	private JButton downloadButton;
+
+	/**
+	 * Create the dialog.
+	 * @param password The password of the package, or <code>null</code> if it isn't password protected.
+	 */
+	public RemotePackageDialog(final FileShareFrame frame, final RemotePackage rPackage, final String password) {
+		super(frame);
+		this.frame = frame;
+		this.rPackage = rPackage;
+		this.password = password;
+		this.browser = rPackage.isSummary() ? new PackageBrowser(rPackage, this::listed) : null;
+
+		this.initComponents();
+		if (this.browser != null) {
+			this.browser.open(password);
+		}
+	}
+
+	/**
+	 * Asks for the password of a password protected package.
+	 * @return the password, or <code>null</code> if the user cancelled.
+	 */
+	public static String askPassword(final Component parent, final RemotePackage rPackage) {
+		final JPasswordField field = new JPasswordField();
+		if (JOptionPane.showConfirmDialog(parent, field, "Password of " + rPackage.getName(), JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE,
+				new ImageIcon(Images.KEY)) != JOptionPane.OK_OPTION) {
+			return null;
+		}
+		return new String(field.getPassword());
+	}
+
+	public RemotePackage getPackage() {
+		return this.rPackage;
+	}
+
+	/**
+	 * Shows the children the browser received, called on the event dispatch thread.
+	 * @param directory The directory the children were added to, or <code>null</code> for new roots.
+	 */
+	private void listed(final RemoteFileNode directory) {
+		if (directory == null) {
+			final RemoteFileNode[] roots = this.rPackage.getRoots();
+			for (int i = this.fileTreeModel.getRootCount(); i < roots.length; i++) {
+				this.fileTreeModel.addRoot(roots[i]);
+			}
+			return;
+		}
+		final RemoteFileNodeChildren children = directory.getChildren();
+		final int before = this.shown.getOrDefault(directory, 0);
+		final int after = children != null ? children.size() : 0;
+		if (after > before) {
+			final int[] indices = new int[after - before];
+			for (int i = 0; i < indices.length; i++) {
+				indices[i] = before + i;
+			}
+			this.shown.put(directory, after);
+			this.fileTreeModel.nodesWereInserted(directory, indices);
+		}
+		if (directory.isListed()) {
+			final File target = this.waiting.remove(directory);
+			if (target != null) {
+				final LinkedHashMap<RemoteFileNode, File> files = new LinkedHashMap<>();
+				this.collect(directory, target, files);
+				this.startDownloads(files);
+			}
+		}
+	}
+
+	/**
+	 * Asks where to save the selected files and directories, and starts downloading them.
+	 */
+	private void downloadSelected() {
+		final TreePath[] paths = this.getFileTree().getSelectionPaths();
+		if (paths == null) {
+			return;
+		}
+		final JFileChooser chooser = new JFileChooser(Application.LAST_DIRECTORY);
+		chooser.setDialogTitle("Select where to save the files");
+		chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		chooser.setFont(Fonts.GLOBAL);
+		final int result = chooser.showDialog(this, "Download");
+		Application.LAST_DIRECTORY = chooser.getCurrentDirectory();
+		if (result != JFileChooser.APPROVE_OPTION || chooser.getSelectedFile() == null) {
+			return;
+		}
+		final LinkedHashMap<RemoteFileNode, File> files = new LinkedHashMap<>();
+		for (final TreePath path : paths) {
+			this.collect((RemoteFileNode) path.getLastPathComponent(), chooser.getSelectedFile(), files);
+		}
+		this.startDownloads(files);
+	}
+
+	/**
+	 * Finds the files below a node and where they're saved, directories that aren't listed yet are requested from the host first.
+	 * @param node The file or directory to download.
+	 * @param directory The local directory the node is saved in.
+	 * @param files Receives the remote files with their targets.
+	 */
+	private void collect(final RemoteFileNode node, final File directory, final Map<RemoteFileNode, File> files) {
+		final File target = new File(directory, node.getName());
+		if (!node.isDirectory()) {
+			files.put(node, target);
+			return;
+		}
+		if (this.browser != null && !node.isListed()) {
+			this.waiting.put(node, directory);
+			this.browser.expand(node);
+			return;
+		}
+		target.mkdirs();
+		final RemoteFileNodeChildren children = node.getChildren();
+		if (children != null) {
+			for (final RemoteFileNode child : children) {
+				this.collect(child, target, files);
+			}
+		}
+	}
+
+	/**
+	 * Adds files to the download, connecting in the background.
+	 */
+	private void startDownloads(final Map<RemoteFileNode, File> files) {
+		if (files.isEmpty()) {
+			return;
+		}
+		if (this.download == null) {
+			this.download = new PackageDownload(this.rPackage, this.password, d -> SwingUtilities.invokeLater(this::updateStatus));
+		}
+		final PackageDownload pd = this.download;
+		FileShare.DOWNLOADS.execute(() -> {
+			for (final Map.Entry<RemoteFileNode, File> file : files.entrySet()) {
+				pd.add(file.getKey(), file.getValue());
+			}
+		});
+		this.updateStatus();
+	}
+
+	private void updateStatus() {
+		final PackageDownload pd = this.download;
+		if (pd == null) {
+			return;
+		}
+		final int failed = pd.getFailedCount();
+		this.getStatusLabel().setText("Downloaded " + (pd.getFinishedCount() - failed) + " of " + pd.getFileCount() + " files" + (failed > 0 ? ", " + failed + " failed" : ""));
+	}
+
+	private void close() {
+		if (this.download != null && !this.download.isDone()) {
+			if (JOptionPane.showConfirmDialog(this, "Stop downloading?\nThe files are resumed when they're downloaded again.",
+					"Downloads running", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE) != JOptionPane.YES_OPTION) {
+				return;
+			}
+			this.download.close();
+		}
+		if (this.browser != null) {
+			this.browser.close();
+		}
+		this.dispose();
+	}
+
+	private void initComponents() {
+		this.addWindowListener(new WindowAdapter() {
+			public void windowClosing(final WindowEvent arg0) {
+				RemotePackageDialog.this.close();
+			}
+		});
+		this.setIconImage(Images.PACKAGE);
+		this.setFont(Fonts.GLOBAL);
+		this.setTitle(this.rPackage.getName() + " - " + this.rPackage.getOwner());
+		this.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+		this.setSize(320, 400);
+		this.setLocationRelativeTo(this.frame);
+
+		this.getContentPane().setLayout(new BorderLayout(0, 5));
+		this.getContentPane().add(this.getFileScrollPane(), BorderLayout.CENTER);
+		this.getContentPane().add(this.getBottomPanel(), BorderLayout.SOUTH);
+	}
+
+	private JPanel getBottomPanel() {
+		if (this.bottomPanel == null) {
+			this.bottomPanel = new JPanel(new BorderLayout(5, 0));
+			this.bottomPanel.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
+			this.bottomPanel.add(this.getStatusLabel(), BorderLayout.CENTER);
+			this.bottomPanel.add(this.getDownloadButton(), BorderLayout.EAST);
+		}
+		return this.bottomPanel;
+	}
+
+	private JLabel getStatusLabel() {
+		if (this.statusLabel == null) {
+			this.statusLabel = new JLabel();
+			this.statusLabel.setFont(Fonts.GLOBAL);
+		}
+		return this.statusLabel;
+	}
+
+	private JButton getDownloadButton() {
+		if (this.downloadButton == null) {
+			this.downloadButton = new JButton("Download");
+			this.downloadButton.addActionListener(e -> this.downloadSelected());
+			this.downloadButton.setToolTipText("Downloads the selected files and folders.");
+			this.downloadButton.setFont(Fonts.GLOBAL);
+			this.downloadButton.setIcon(new ImageIcon(Images.PAGE_GO));
+			this.downloadButton.setEnabled(false);
+		}
+		return this.downloadButton;
+	}
+
+	private JScrollPane getFileScrollPane() {
+		if (this.fileScrollPane == null) {
+			this.fileScrollPane = new JScrollPane();
+			this.fileScrollPane.setViewportView(this.getFileTree());
+		}
+		return this.fileScrollPane;
+	}
+
+	private JTree getFileTree() {
+		if (this.fileTree == null) {
+			this.fileTree = new JTree();
+			this.fileTreeModel = new FileNodeTreeModel<>(this.fileTree);
+			this.fileTree.setModel(this.fileTreeModel);
+			for (final RemoteFileNode root : this.rPackage.getRoots()) {
+				this.fileTreeModel.addRoot(root);
+			}
+			this.fileTree.setShowsRootHandles(true);
+			this.fileTree.setRootVisible(false);
+			this.fileTree.setDoubleBuffered(true);
+			this.fileTree.setFont(Fonts.GLOBAL);
+			this.fileTree.addTreeSelectionListener(e -> this.getDownloadButton().setEnabled(this.fileTree.getSelectionCount() > 0));
+			this.fileTree.addTreeWillExpandListener(new TreeWillExpandListener() {
+				public void treeWillExpand(final TreeExpansionEvent event) {
+					final Object node = event.getPath().getLastPathComponent();
+					if (RemotePackageDialog.this.browser != null && node instanceof RemoteFileNode) {
+						final RemoteFileNode directory = (RemoteFileNode) node;
+						if (!RemotePackageDialog.this.shown.containsKey(directory)) {
+							final RemoteFileNodeChildren children = directory.getChildren();
+							RemotePackageDialog.this.shown.put(directory, children != null ? children.size() : 0);
+						}
+						// the children show up as their pages arrive
+						RemotePackageDialog.this.browser.expand(directory);
+					}
+				}
+				public void treeWillCollapse(final TreeExpansionEvent event) {}
+			});
+		}
+		return this.fileTree;
+	}
+
+}
@@ -0,0 +1,206 @@
+package ghsc.gui.fileshare.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The SHA-256 hashes of the fixed size chunks of a file.<br>
+ * A download can verify every chunk as soon as it arrives,</br>
+ * so an interrupted download can resume after the last chunk that was verified.<br>
+ * Files with the same hashes have the same contents, see {@link #getContentId()}.<br>
+ * <br>
+ * Immutable.
+ */
+public class ChunkHashes {
+
+	/**
+	 * The length of every chunk but the last one.
+	 */
+	public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	/**
+	 * The length of the hash of one chunk.
+	 */
+	public static final int HASH_LENGTH = 32;
+
+	private static final int READ_BUFFER = 65536;
+
+	private final long length;
+	private final byte[] hashes;
+	private String contentId;
+
+	private ChunkHashes(final long length, final byte[] hashes) {
+		this.length = length;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * @return the length of the hashed file.
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	public int getChunkCount() {
+		return this.hashes.length / HASH_LENGTH;
+	}
+
+	/**
+	 * @return the position of the first byte of a chunk.
+	 */
+	public static long getChunkOffset(final int chunk) {
+		return (long) chunk * CHUNK_SIZE;
+	}
+
+	/**
+	 * @return the length of a chunk, only the last chunk can be shorter than {@link #CHUNK_SIZE}.
+	 */
+	public int getChunkLength(final int chunk) {
+		return (int) Math.min(CHUNK_SIZE, this.length - getChunkOffset(chunk));
+	}
+
+	/**
+	 * @param chunk The number of the chunk.
+	 * @param digest The hash of the received chunk.
+	 * @return whether the hash is the expected one.
+	 */
+	public boolean matches(final int chunk, final byte[] digest) {
+		if (chunk < 0 || chunk >= this.getChunkCount() || digest == null || digest.length != HASH_LENGTH) {
+			return false;
+		}
+		final int offset = chunk * HASH_LENGTH;
+		int diff = 0;
+		for (int i = 0; i < HASH_LENGTH; i++) {
+			diff |= this.hashes[offset + i] ^ digest[i];
+		}
+		return diff == 0;
+	}
+
+	/**
+	 * Hashes the hashes of the first chunks, which is how both sides of a resumed download compare what was already received.
+	 * @param chunks The number of chunks, no more than {@link #getChunkCount()}.
+	 * @return the hash of the chunks' hashes.
+	 */
+	public byte[] digest(final int chunks) {
+		final MessageDigest digest = newDigest();
+		digest.update(this.hashes, 0, Math.min(chunks, this.getChunkCount()) * HASH_LENGTH);
+		return digest.digest();
+	}
+
+	/**
+	 * Identifies the contents of the file, so the same file can be found among the packages of different users.
+	 * @return the Base64 hash of the length and the chunk hashes.
+	 */
+	public String getContentId() {
+		if (this.contentId == null) {
+			final MessageDigest digest = newDigest();
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				digest.update((byte) (this.length >>> shift));
+			}
+			digest.update(this.hashes);
+			this.contentId = Base64.getEncoder().encodeToString(digest.digest());
+		}
+		return this.contentId;
+	}
+
+	/**
+	 * @return the hashes as Base64 text, to be stored or sent as an attribute.
+	 */
+	public String encode() {
+		return Base64.getEncoder().encodeToString(this.hashes);
+	}
+
+	/**
+	 * Reads hashes encoded by {@link #encode()}.
+	 * @param length The length of the hashed file.
+	 * @param encoded The Base64 text.
+	 * @return the hashes, or <code>null</code> if they're malformed or don't fit the length.
+	 */
+	public static ChunkHashes decode(final long length, final String encoded) {
+		if (length < 0 || encoded == null) {
+			return null;
+		}
+		final byte[] hashes;
+		try {
+			hashes = Base64.getDecoder().decode(encoded);
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+		if (hashes.length != getChunkCount(length) * HASH_LENGTH) {
+			return null;
+		}
+		return new ChunkHashes(length, hashes);
+	}
+
+	/**
+	 * Reads a whole file and hashes its chunks.
+	 * @param channel The file to read from its start.
+	 * @return the hashes of the file.
+	 * @throws IOException If the file couldn't be read, or changed its length while reading.
+	 */
+	public static ChunkHashes compute(final FileChannel channel) throws IOException {
+		final long length = channel.size();
+		final byte[] hashes = new byte[getChunkCount(length) * HASH_LENGTH];
+		final MessageDigest digest = newDigest();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER);
+		long position = 0;
+		int chunk = 0;
+		while (position < length) {
+			final long chunkEnd = Math.min(length, getChunkOffset(chunk + 1));
+			buffer.clear();
+			buffer.limit((int) Math.min(READ_BUFFER, chunkEnd - position));
+			final int read = channel.read(buffer, position);
+			if (read <= 0) {
+				throw new IOException("File ended after " + position + " of " + length + " bytes.");
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += read;
+			if (position == chunkEnd) {
+				try {
+					digest.digest(hashes, chunk++ * HASH_LENGTH, HASH_LENGTH);
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		return new ChunkHashes(length, hashes);
+	}
+
+	/**
+	 * @return the number of chunks of a file with the given length.
+	 */
+	public static int getChunkCount(final long length) {
+		return (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	}
+
+	/**
+	 * @return a new digest of the type the chunks are hashed with.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof ChunkHashes)) {
+			return false;
+		}
+		final ChunkHashes other = (ChunkHashes) o;
+		return this.length == other.length && Arrays.equals(this.hashes, other.hashes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.hashes);
+	}
+
+}
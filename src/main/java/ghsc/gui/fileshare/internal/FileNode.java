@@ -14,6 +14,11 @@ public abstract class FileNode implements MutableTreeNode, EndTaggable {
 	public static final String ATT_NAME = "n";
 	public static final String ATT_SIZE = "s";
 	public static final String ATT_PATH = "p";
+	public static final String ATT_FILECOUNT = "fc";
+	public static final String ATT_DIRECTORYCOUNT = "dr";
+	public static final String ATT_HASHES = "h";
+	public static final String ATT_CONTENT = "ci";
+	public static final String ATT_MODIFIED = "m";
 	
 	FileNode parent;
 	FileNodeChildren<?> container;
@@ -96,10 +101,11 @@ public abstract class FileNode implements MutableTreeNode, EndTaggable {
 		return new Enumeration<TreeNode>() {
 			int index;
 			public boolean hasMoreElements() {
-				return FileNode.this.children != null && this.index < FileNode.this.children.size();
+				final FileNodeChildren<?> children = FileNode.this.getChildren();
+				return children != null && this.index < children.size();
 			}
 			public TreeNode nextElement() {
-				return FileNode.this.children.get(this.index++);
+				return FileNode.this.getChildren().get(this.index++);
 			}
 		};
 	}
@@ -111,20 +117,23 @@ public abstract class FileNode implements MutableTreeNode, EndTaggable {
 
 	@Override
 	public TreeNode getChildAt(final int index) {
-		if (index < 0 || this.children == null || index >= this.children.size()) {
+		final FileNodeChildren<?> children = this.getChildren();
+		if (index < 0 || children == null || index >= children.size()) {
             return null;
         }
-		return this.children.get(index);
+		return children.get(index);
 	}
 
 	@Override
 	public int getChildCount() {
-		return this.children != null ? this.children.size() : 0;
+		final FileNodeChildren<?> children = this.getChildren();
+		return children != null ? children.size() : 0;
 	}
 
 	@Override
 	public int getIndex(final TreeNode node) {
-		return this.children != null ? this.children.indexOf(node) : -1;
+		final FileNodeChildren<?> children = this.getChildren();
+		return children != null ? children.indexOf(node) : -1;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -133,6 +142,7 @@ public abstract class FileNode implements MutableTreeNode, EndTaggable {
 		if (index >= 0 && this.children != null && index < this.children.size() + 1) {
 			((FileNodeChildren<FileNode>) this.children).add(index, (FileNode) node);
 			node.setParent(this);
+			this.childrenChanged();
 		}
 	}
 
@@ -140,8 +150,14 @@ public abstract class FileNode implements MutableTreeNode, EndTaggable {
 	public void remove(final int index) {
 		if (index >= 0 && this.children != null && index < this.children.size()) {
 			this.children.remove(index);
+			this.childrenChanged();
 		}
 	}
+	
+	/**
+	 * Called after a child was inserted or removed.
+	 */
+	protected void childrenChanged() {}
 
 	@Override
 	public void remove(final MutableTreeNode node) {
@@ -29,6 +29,10 @@ public abstract class FilePackage {
     public static final String ATT_PASSWORDPROTECTED = "p";
     public static final String ATT_VISIBILITY = "v";
     public static final String ATT_UUID = "u";
+    public static final String ATT_SIZE = "s";
+    public static final String ATT_FILECOUNT = "fc";
+    public static final String ATT_DIRECTORYCOUNT = "dr";
+    public static final String ATT_VERSION = "ve";
 
 	protected static final String DATE_FORMAT = "MM/dd/yy hh:mm aa";
 
@@ -76,6 +80,7 @@ public abstract class FilePackage {
 	 */
 	public void setName(final String name) {
 		this.name = name;
+		this.modified();
 	}
 	
 	public String getDescription() {
@@ -84,6 +89,7 @@ public abstract class FilePackage {
 	
 	public void setDescription(final String d) {
 		this.description = d;
+		this.modified();
 	}
 	
 	public Calendar getCreationDate() {
@@ -103,6 +109,7 @@ public abstract class FilePackage {
 	
 	public void setVisibility(final Visibility vis) {
 		this.visibility = vis;
+		this.modified();
 	}
 	
 	public boolean isActive() {
@@ -111,6 +118,7 @@ public abstract class FilePackage {
 	
 	public void setActive(final boolean active) {
 		this.active = active;
+		this.modified();
 	}
 	
 	/**
@@ -122,8 +130,14 @@ public abstract class FilePackage {
 	
 	public void setDownloadCount(final long downloads) {
 		this.downloadCount = downloads;
+		this.modified();
 	}
 	
+	/**
+	 * Called after any of the announced information of this package changed.
+	 */
+	protected void modified() {}
+	
 	public abstract String getOwner();
 	
 	/**
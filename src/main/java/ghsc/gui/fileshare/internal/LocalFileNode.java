@@ -3,7 +3,10 @@ package ghsc.gui.fileshare.internal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -14,14 +17,45 @@ import ghsc.util.Tag;
 public class LocalFileNode extends FileNode {
 	
 	private final File file;
+	/**
+	 * Whether the file is a directory as read by a scan, or <code>null</code> to ask the file system.
+	 */
+	private final Boolean directory;
+	/**
+	 * The length of the file as read by a scan, or <code>-1</code> to ask the file system.
+	 */
+	private final long fileSize;
+	/**
+	 * Size and counts of this node and everything below it, or <code>null</code> if they have to be summed up.
+	 */
+	private long[] totals;
+	/**
+	 * The hashes of the chunks of the file, or <code>null</code> if they haven't been computed yet.
+	 */
+	private volatile ChunkHashes chunkHashes;
+	/**
+	 * The modification time of the file when its chunks were hashed.
+	 */
+	private volatile long hashedModified;
 	
 	/**
 	 * Creates a LocalFile that represents a local file.
 	 * @param file the file on the local file system.
 	 */
 	public LocalFileNode(final LocalFileNodeChildren container, final File file) {
+		this(container, file, null, -1);
+	}
+	
+	/**
+	 * Creates a LocalFile with attributes that were already read from the file system.
+	 * @param directory whether the file is a directory.
+	 * @param fileSize the length of the file, ignored for directories.
+	 */
+	LocalFileNode(final LocalFileNodeChildren container, final File file, final Boolean directory, final long fileSize) {
 		super(container);
 		this.file = file;
+		this.directory = directory;
+		this.fileSize = directory != null && directory ? 0 : fileSize;
 		this.endTag = "</" + this.getTagName() + ">";
 	}
 	
@@ -61,16 +95,96 @@ public class LocalFileNode extends FileNode {
 	
 	@Override
 	public boolean isDirectory() {
+		if (this.directory != null) {
+			return this.directory;
+		}
 		return this.file != null && this.file.isDirectory();
 	}
 	
 	@Override
 	public long getFileSize() {
+		if (this.fileSize >= 0) {
+			return this.fileSize;
+		}
 		return this.file != null ? this.file.length() : 0;
 	}
 	
+	/**
+	 * Remembers the size and counts of this node and everything below it, which a scan summed up while it read the files.
+	 */
+	void setTotals(final long size, final long fileCount, final long directoryCount) {
+		this.totals = new long[] { size, fileCount, directoryCount };
+	}
+	
+	boolean hasTotals() {
+		return this.totals != null;
+	}
+	
+	/**
+	 * Returns the hashes of the chunks of the file, reading the whole file if they aren't known for its current contents.
+	 * @return the hashes, or <code>null</code> for a directory or a file that doesn't exist.
+	 * @throws IOException If the file couldn't be read.
+	 */
+	public synchronized ChunkHashes getChunkHashes() throws IOException {
+		if (this.file == null || this.isDirectory()) {
+			return null;
+		}
+		final long modified = this.file.lastModified();
+		final ChunkHashes known = this.chunkHashes;
+		if (known != null && this.hashedModified == modified && known.getLength() == this.file.length()) {
+			return known;
+		}
+		try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+			final ChunkHashes hashes = ChunkHashes.compute(channel);
+			this.hashedModified = modified;
+			this.chunkHashes = hashes;
+			return hashes;
+		}
+	}
+	
+	/**
+	 * @return the hashes of the chunks of the file if they were computed before, without reading the file.
+	 */
+	public ChunkHashes getKnownChunkHashes() {
+		return this.chunkHashes;
+	}
+
+	/**
+	 * Returns the known hashes of the chunks of the file if they still match its current contents, without reading the file.<br>
+	 * Unlike {@link #getChunkHashes()} this doesn't wait while the file is being hashed.
+	 * @return the hashes, or <code>null</code> if the file has to be hashed (again) first.
+	 */
+	public ChunkHashes getCurrentChunkHashes() {
+		if (this.file == null || this.isDirectory()) {
+			return null;
+		}
+		final ChunkHashes known = this.chunkHashes;
+		if (known != null && this.hashedModified == this.file.lastModified() && known.getLength() == this.file.length()) {
+			return known;
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the modification time of the file when its known hashes were computed.
+	 */
+	public long getHashedModified() {
+		return this.hashedModified;
+	}
+	
+	@Override
+	protected void childrenChanged() {
+		for (LocalFileNode node = this; node != null; node = node.getParent()) {
+			node.totals = null;
+		}
+	}
+	
 	@Override
 	public long getSize() {
+		final long[] totals = this.totals;
+		if (totals != null) {
+			return totals[0];
+		}
 		long temp = this.getFileSize();
 		if (!this.isLeaf()) {
 			for (final LocalFileNode node : this.getChildren()) {
@@ -82,6 +196,10 @@ public class LocalFileNode extends FileNode {
 	
 	@Override
 	public long getFileCount() {
+		final long[] totals = this.totals;
+		if (totals != null) {
+			return totals[1];
+		}
 		long temp = this.isDirectory() ? 0 : 1;
 		if (!this.isLeaf()) {
 			for (final LocalFileNode node : this.getChildren()) {
@@ -93,6 +211,10 @@ public class LocalFileNode extends FileNode {
 
 	@Override
 	public long getDirectoryCount() {
+		final long[] totals = this.totals;
+		if (totals != null) {
+			return totals[2];
+		}
 		long temp = this.isDirectory() ? 1 : 0;
 		if (!this.isLeaf()) {
 			for (final LocalFileNode node : this.getChildren()) {
@@ -135,6 +257,7 @@ public class LocalFileNode extends FileNode {
 			if (!isDir) {
 				objs.add(FileNode.ATT_SIZE);
 				objs.add(this.getSize());
+				this.addKnownContentId(objs);
 			}
 			final String tagName = this.getTagName();
 			build.append(Tag.construct(tagName, objs.toArray()).getEncodedString());
@@ -148,6 +271,41 @@ public class LocalFileNode extends FileNode {
 		return build.toString();
 	}
 	
+	/**
+	 * Converts this node to a single entry of a directory listing.<br>
+	 * A directory is sent without its children, but with the size and counts of everything below it.
+	 * @return the meta data for one RemoteFileNode of a listing.
+	 */
+	public String toRemoteListingMeta() {
+		final String tagName = this.getTagName();
+		final Tag tag;
+		if (this.isDirectory()) {
+			tag = Tag.construct(tagName, FileNode.ATT_NAME, this.getName(), FileNode.ATT_SIZE, this.getSize(),
+					FileNode.ATT_FILECOUNT, this.getFileCount(), FileNode.ATT_DIRECTORYCOUNT, this.getDirectoryCount());
+		} else {
+			final LinkedList<Object> objs = new LinkedList<>();
+			objs.add(FileNode.ATT_NAME);
+			objs.add(this.getName());
+			objs.add(FileNode.ATT_SIZE);
+			objs.add(this.getSize());
+			this.addKnownContentId(objs);
+			tag = Tag.construct(tagName, objs.toArray());
+		}
+		return tag.getEncodedString() + "</" + tagName + ">";
+	}
+	
+	/**
+	 * Adds the content id to the attributes of a remote file, if the chunk hashes are known and fit the announced size.<br>
+	 * The hashes themselves are only sent along with the file, so a large file doesn't make the announcement any larger.
+	 */
+	private void addKnownContentId(final List<Object> objs) {
+		final ChunkHashes hashes = this.chunkHashes;
+		if (hashes != null && hashes.getLength() == this.getSize()) {
+			objs.add(FileNode.ATT_CONTENT);
+			objs.add(hashes.getContentId());
+		}
+	}
+	
 	/*
 	 * Save related methods
 	 */
@@ -158,6 +316,16 @@ public class LocalFileNode extends FileNode {
 			final LinkedList<Object> objs = new LinkedList<>();
 			objs.add(FileNode.ATT_PATH);
 			objs.add(this.getPath());
+			final ChunkHashes hashes = this.chunkHashes;
+			if (hashes != null) {
+				// hashing reads the whole file, so the hashes are kept for as long as the file isn't modified
+				objs.add(FileNode.ATT_SIZE);
+				objs.add(hashes.getLength());
+				objs.add(FileNode.ATT_MODIFIED);
+				objs.add(this.hashedModified);
+				objs.add(FileNode.ATT_HASHES);
+				objs.add(hashes.encode());
+			}
 			final String tagName = this.getTagName();
 			build.append(Tag.construct(tagName, objs.toArray()).getEncodedString());
 			if (this.isDirectory() && !this.isLeaf()) {
@@ -180,37 +348,31 @@ public class LocalFileNode extends FileNode {
 	/**
 	 * Finds the LocalFile given a relative path and nodes.
 	 * Example: \pictures\2012\image.png
+	 * @return the node at the path, or <code>null</code> if there is none.
 	 */
-	static LocalFileNode findFile(String relativePath, final List<LocalFileNode> nodes) {
-		relativePath = relativePath.substring(1);
-		final int index = relativePath.indexOf(File.separatorChar);
-		final String nodeName = relativePath.substring(0, index >= 0 ? index : relativePath.length());
-		final String newRelativePath = relativePath.substring(index);
+	static LocalFileNode findFile(final String relativePath, final List<LocalFileNode> nodes) {
+		if (relativePath == null || nodes == null) {
+			return null;
+		}
+		final int start = relativePath.startsWith("\\") ? 1 : 0; // do not use File.separator
+		final int index = relativePath.indexOf('\\', start);
+		final String nodeName = relativePath.substring(start, index >= 0 ? index : relativePath.length());
 		for (final LocalFileNode node : nodes) {
-			if (nodeName.equals(node.getFile().getName())) {
-				return node.findFile(newRelativePath);
+			if (nodeName.equals(node.getName())) {
+				return index >= 0 ? node.findFile(relativePath.substring(index)) : node;
 			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Reads a file or directory tree on the calling thread, see {@link LocalFileScanner} to read it in the background.
+	 * @param file The file or directory to read.
+	 * @return the node of the file, or <code>null</code> if it couldn't be read.
+	 */
 	public static LocalFileNode generateRoot(final File file) {
-		return generate(null, file);
-	}
-	
-	private static LocalFileNode generate(final LocalFileNodeChildren container, final File file) {
-		final LocalFileNode node = new LocalFileNode(container, file);
-		if (node.isDirectory()) {
-			final File[] files = file.listFiles();
-			if (files != null && files.length > 0) {
-				final LocalFileNodeChildren nodes = new LocalFileNodeChildren(node);
-				for (final File checkFile : files) {
-					nodes.add(LocalFileNode.generate(nodes, checkFile));
-				}
-				node.setChildren(nodes);
-			}
-		}
-		return node;
+		final LocalFileNode[] roots = new LocalFileScanner(file).scan(null);
+		return roots != null && roots.length > 0 ? roots[0] : null;
 	}
 	
 	/*
@@ -253,12 +415,32 @@ public class LocalFileNode extends FileNode {
 					this.setChildren(new LocalFileNodeChildren(this));
 				}
 				final File file = new File(path);
-				return new LocalFileNode(this.getChildren(), file.exists() ? file : null);
+				final LocalFileNode node = new LocalFileNode(this.getChildren(), file.exists() ? file : null);
+				node.loadChunkHashes(tag);
+				return node;
 			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Reads the chunk hashes saved by {@link #toSaveMeta()}.
+	 */
+	void loadChunkHashes(final Tag tag) {
+		final String size = tag.getAttribute(FileNode.ATT_SIZE);
+		final String modified = tag.getAttribute(FileNode.ATT_MODIFIED);
+		final String hashes = tag.getAttribute(FileNode.ATT_HASHES);
+		if (size == null || modified == null || hashes == null) {
+			return;
+		}
+		try {
+			this.chunkHashes = ChunkHashes.decode(Long.parseLong(size), hashes);
+			this.hashedModified = Long.parseLong(modified);
+		} catch (final NumberFormatException e) {
+			this.chunkHashes = null;
+		}
+	}
+	
 	/**
 	 * Clones the entire node tree leaving this node as the root.
 	 */
@@ -271,7 +453,10 @@ public class LocalFileNode extends FileNode {
 	 * Clones the entire node tree.
 	 */
 	public LocalFileNode clone(final LocalFileNodeChildren container) {
-		final LocalFileNode node = new LocalFileNode(container, this.file);
+		final LocalFileNode node = new LocalFileNode(container, this.file, this.directory, this.fileSize);
+		node.totals = this.totals;
+		node.chunkHashes = this.chunkHashes;
+		node.hashedModified = this.hashedModified;
 		if (!this.isLeaf()) {
 			final LocalFileNodeChildren nodes = new LocalFileNodeChildren(node);
 			for (final LocalFileNode n : this.getChildren()) {
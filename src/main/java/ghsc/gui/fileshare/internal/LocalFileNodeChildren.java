@@ -45,7 +45,9 @@ public class LocalFileNodeChildren extends FileNodeChildren<LocalFileNode> {
 			final String path = tag.getAttribute(FileNode.ATT_PATH);
 			if (path != null) {
 				final File file = new File(path);
-				return new LocalFileNode(this, file.exists() ? file : null);
+				final LocalFileNode node = new LocalFileNode(this, file.exists() ? file : null);
+				node.loadChunkHashes(tag);
+				return node;
 			}
 		}
 		return null;
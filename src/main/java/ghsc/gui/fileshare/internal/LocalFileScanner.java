@@ -0,0 +1,240 @@
+package ghsc.gui.fileshare.internal;
+
+import ghsc.event.EventListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads file trees into {@link LocalFileNode}s, reading directories in parallel.<br>
+ * The attributes of every file are read once while listing its directory,</br>
+ * and the size and counts of every directory are summed up on the way back.<br>
+ * <br>
+ * A scanner can only be used once, and can be cancelled from any thread.
+ */
+public class LocalFileScanner {
+
+	/**
+	 * How many directories are read at the same time, reading is mostly waiting on the disk.
+	 */
+	private static final int PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+	/**
+	 * Least time between two progress notifications, in milliseconds.
+	 */
+	private static final long PROGRESS_INTERVAL = 100;
+
+	private final File[] files;
+	private final LongAdder fileCount = new LongAdder();
+	private final LongAdder directoryCount = new LongAdder();
+	private final LongAdder size = new LongAdder();
+	private final AtomicLong lastProgress = new AtomicLong();
+	/**
+	 * Directories that were already read, so links can't lead into a cycle.
+	 */
+	private final Set<Object> visited = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private EventListener<LocalFileScanner> progress;
+	private volatile boolean cancelled;
+
+	/**
+	 * Initializes a new LocalFileScanner.
+	 * @param files The files and directories to read.
+	 */
+	public LocalFileScanner(final File... files) {
+		this.files = files;
+	}
+
+	/**
+	 * Reads the files on the calling thread and a pool of worker threads, returning once everything was read.
+	 * @param progress Receives this scanner every now and then while reading, from a worker thread, may be <code>null</code>.
+	 * @return one node for every file that could be read, or <code>null</code> if the scan was cancelled.
+	 */
+	public LocalFileNode[] scan(final EventListener<LocalFileScanner> progress) {
+		this.progress = progress;
+		final ArrayList<LocalFileNode> roots = new ArrayList<>(this.files.length);
+		final ArrayList<ScanTask> tasks = new ArrayList<>();
+		for (final File file : this.files) {
+			final LocalFileNode root = this.createNode(null, file.toPath());
+			if (root == null) {
+				continue;
+			}
+			roots.add(root);
+			if (root.isDirectory() && !root.hasTotals()) {
+				tasks.add(new ScanTask(root));
+			}
+		}
+		if (!tasks.isEmpty()) {
+			final ForkJoinPool pool = new ForkJoinPool(PARALLELISM, p -> {
+				final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setName("LocalFileScanner-" + thread.getPoolIndex());
+				return thread;
+			}, null, false);
+			try {
+				for (final ScanTask task : tasks) {
+					pool.execute(task);
+				}
+				for (final ScanTask task : tasks) {
+					task.join();
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+		if (this.cancelled) {
+			return null;
+		}
+		this.notifyProgress(true);
+		return roots.toArray(new LocalFileNode[0]);
+	}
+
+	/**
+	 * Stops the scan as soon as possible, {@link #scan(EventListener)} then returns <code>null</code>.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * @return how many files were read so far.
+	 */
+	public long getFileCount() {
+		return this.fileCount.sum();
+	}
+
+	/**
+	 * @return how many directories were read so far.
+	 */
+	public long getDirectoryCount() {
+		return this.directoryCount.sum();
+	}
+
+	/**
+	 * @return the size of the files read so far.
+	 */
+	public long getSize() {
+		return this.size.sum();
+	}
+
+	/**
+	 * Reads the attributes of a file and creates its node, without reading the children of a directory.
+	 * @return the node, or <code>null</code> if the file couldn't be read.
+	 */
+	private LocalFileNode createNode(final LocalFileNodeChildren container, final Path path) {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (final IOException e) {
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); // a broken link
+			} catch (final IOException e2) {
+				return null;
+			}
+		}
+		final boolean directory = attributes.isDirectory();
+		final LocalFileNode node = new LocalFileNode(container, path.toFile(), directory, attributes.size());
+		if (directory) {
+			final Object key = attributes.fileKey();
+			if (key != null && !this.visited.add(key)) {
+				node.setTotals(0, 0, 1); // a link back to a directory that's already being read
+				this.directoryCount.increment();
+				return node;
+			}
+			this.directoryCount.increment();
+		} else {
+			node.setTotals(attributes.size(), 1, 0);
+			this.fileCount.increment();
+			this.size.add(attributes.size());
+		}
+		return node;
+	}
+
+	private void notifyProgress(final boolean force) {
+		final EventListener<LocalFileScanner> listener = this.progress;
+		if (listener == null) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final long last = this.lastProgress.get();
+		if (force || (now - last >= PROGRESS_INTERVAL && this.lastProgress.compareAndSet(last, now))) {
+			listener.eventReceived(this);
+		}
+	}
+
+	/**
+	 * Reads the children of a directory, forking a task for every child directory.
+	 */
+	private class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final LocalFileNode node;
+
+		private ScanTask(final LocalFileNode node) {
+			this.node = node;
+		}
+
+		@Override
+		protected void compute() {
+			final LocalFileScanner scanner = LocalFileScanner.this;
+			if (scanner.cancelled) {
+				return;
+			}
+			final LocalFileNodeChildren children = new LocalFileNodeChildren(this.node);
+			final ArrayList<ScanTask> subtasks = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.node.getFile().toPath())) {
+				for (final Path path : stream) {
+					if (scanner.cancelled) {
+						return;
+					}
+					final LocalFileNode child = scanner.createNode(children, path);
+					if (child == null) {
+						continue;
+					}
+					children.add(child);
+					if (child.isDirectory() && !child.hasTotals()) {
+						subtasks.add(new ScanTask(child));
+					}
+				}
+			} catch (final IOException | SecurityException ignored) {
+				// an unreadable directory is kept without children, the same as File.listFiles() returning null
+			}
+			scanner.notifyProgress(false);
+			invokeAll(subtasks);
+			if (scanner.cancelled) {
+				return;
+			}
+			long size = 0;
+			long files = 0;
+			long directories = 1;
+			for (final LocalFileNode child : children) {
+				size += child.getSize();
+				files += child.getFileCount();
+				directories += child.getDirectoryCount();
+			}
+			if (!children.isEmpty()) {
+				children.trimToSize();
+				this.node.setChildren(children);
+			}
+			this.node.setTotals(size, files, directories);
+		}
+
+	}
+
+}
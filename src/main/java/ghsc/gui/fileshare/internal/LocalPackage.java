@@ -2,12 +2,13 @@ package ghsc.gui.fileshare.internal;
 
 import ghsc.gui.Application;
 import ghsc.gui.fileshare.FileShare;
-import ghsc.impl.EndTaggable;
-import ghsc.impl.Taggable;
 import ghsc.net.encryption.SHA2;
 import ghsc.util.Tag;
+import ghsc.util.TagStream;
 import ghsc.util.Utilities;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.LinkedList;
@@ -20,6 +21,15 @@ public class LocalPackage extends FilePackage {
 	private LocalFileNode[] roots;
 	private String password;
 	private byte[] passwordHash;
+	/**
+	 * Changes whenever the files or the information of this package change, so peers know when what they received is outdated.
+	 */
+	private volatile long version = System.currentTimeMillis();
+	/**
+	 * The encoded meta data sent to peers, kept until the version changes.
+	 */
+	private byte[] remoteMeta;
+	private long remoteMetaVersion;
 	
 	/**
 	 * Creates a new package.
@@ -64,6 +74,7 @@ public class LocalPackage extends FilePackage {
 	public void setPassword(final String password) {
 		this.password = password;
 		this.passwordHash = password != null ? SHA2.hash512Bytes(password) : null;
+		this.modified();
 	}
 	
 	public boolean verifyPassword(final String password) {
@@ -76,6 +87,106 @@ public class LocalPackage extends FilePackage {
 	
 	public void setRoots(final LocalFileNode... roots) {
 		this.roots = roots;
+		this.size = this.fileCount = this.directoryCount = null;
+		this.modified();
+	}
+	
+	@Override
+	protected synchronized void modified() {
+		this.version = Math.max(this.version + 1, System.currentTimeMillis());
+		this.remoteMeta = null;
+	}
+	
+	/**
+	 * Hashes every file of this package whose hashes aren't known for its current contents, so they're announced with the file.<br>
+	 * Reads each of those files completely, so it should be called on a background thread, which can be interrupted to stop early.
+	 * @return whether any file was hashed, in which case this package has a new version to announce.
+	 */
+	public boolean hashFiles() {
+		final LocalFileNode[] roots = this.roots;
+		if (roots == null) {
+			return false;
+		}
+		final ArrayDeque<LocalFileNode> pending = new ArrayDeque<>(Arrays.asList(roots));
+		boolean hashed = false;
+		while (!pending.isEmpty() && !Thread.currentThread().isInterrupted()) {
+			final LocalFileNode node = pending.pop();
+			if (node.isDirectory()) {
+				final LocalFileNodeChildren children = node.getChildren();
+				if (children != null) {
+					pending.addAll(children);
+				}
+				continue;
+			}
+			final ChunkHashes known = node.getKnownChunkHashes();
+			try {
+				if (node.getChunkHashes() != known) {
+					hashed = true;
+				}
+			} catch (final IOException ignored) {
+				// an unreadable file is announced without hashes
+			}
+		}
+		if (hashed) {
+			this.modified();
+		}
+		return hashed;
+	}
+	
+	/**
+	 * Gets the meta data announced to peers, encoded once for each version.<br>
+	 * Packages with more than {@link FileShare#ANNOUNCE_TREE_LIMIT} files and directories are announced with {@link #toRemoteSummaryMeta()},</br>
+	 * others with {@link #toRemoteMeta()}.
+	 * @return the UTF-8 bytes of the meta data, which must not be modified.
+	 */
+	public synchronized byte[] getRemoteMeta() {
+		if (this.remoteMeta == null || this.remoteMetaVersion != this.version) {
+			final String meta = this.getFileCount() + this.getDirectoryCount() > FileShare.ANNOUNCE_TREE_LIMIT ? this.toRemoteSummaryMeta() : this.toRemoteMeta();
+			this.remoteMeta = meta.getBytes(Application.CHARSET);
+			this.remoteMetaVersion = this.version;
+		}
+		return this.remoteMeta;
+	}
+	
+	/**
+	 * @return the version of the files of this package.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * Finds the children of a directory by its remote path.
+	 * @param remotePath The path as sent by a RemotePackage, such as <tt>\pictures\2012</tt>, or <code>null</code> for the roots.
+	 * @return the children of the directory, an empty array for an empty directory, or <code>null</code> if there is no such directory.
+	 */
+	public LocalFileNode[] list(final String remotePath) {
+		LocalFileNode[] nodes = this.roots;
+		if (remotePath == null || remotePath.isEmpty()) {
+			return nodes;
+		}
+		int start = remotePath.charAt(0) == '\\' ? 1 : 0;
+		while (start <= remotePath.length()) {
+			int end = remotePath.indexOf('\\', start);
+			if (end < 0) {
+				end = remotePath.length();
+			}
+			final String name = remotePath.substring(start, end);
+			LocalFileNode found = null;
+			for (final LocalFileNode node : nodes) {
+				if (name.equals(node.getName())) {
+					found = node;
+					break;
+				}
+			}
+			if (found == null || !found.isDirectory()) {
+				return null;
+			}
+			final LocalFileNodeChildren children = found.getChildren();
+			nodes = children != null ? children.toArray(new LocalFileNode[0]) : new LocalFileNode[0];
+			start = end + 1;
+		}
+		return nodes;
 	}
 	
 	@Override
@@ -123,6 +234,25 @@ public class LocalPackage extends FilePackage {
 	 * @return the meta data for a RemotePackage.
 	 */
 	public String toRemoteMeta() {
+		final StringBuilder build = new StringBuilder().append(this.toRemoteTag(false).getEncodedString());
+		for (final LocalFileNode root : this.roots) {
+            build.append(root.toRemoteMeta());
+        }
+		build.append("</").append(FileNodeChildren.TAGNAME).append(">");
+		build.append("</").append(TAGNAME).append(">");
+		return build.toString();
+	}
+	
+	/**
+	 * Converts this LocalPackage to meta data without any files, only their total size and counts.<br>
+	 * The RemotePackage requests the directories it wants to show with {@link FileShare#TYPE_LIST}.
+	 * @return the summary meta data for a RemotePackage.
+	 */
+	public String toRemoteSummaryMeta() {
+		return this.toRemoteTag(true).getEncodedString() + "</" + TAGNAME + ">";
+	}
+	
+	private Tag toRemoteTag(final boolean summary) {
 		final LinkedList<Object> ll = new LinkedList<>();
 		ll.add(ATT_NAME);
 		ll.add(this.getName());
@@ -147,13 +277,17 @@ public class LocalPackage extends FilePackage {
 		ll.add(this.getVisibility());
 		ll.add(ATT_UUID);
 		ll.add(this.getUUID());
-		final StringBuilder build = new StringBuilder().append(Tag.construct(TAGNAME, ll.toArray()).getEncodedString());
-		for (final LocalFileNode root : this.roots) {
-            build.append(root.toRemoteMeta());
-        }
-		build.append("</").append(FileNodeChildren.TAGNAME).append(">");
-		build.append("</").append(TAGNAME).append(">");
-		return build.toString();
+		ll.add(ATT_VERSION);
+		ll.add(this.version);
+		if (summary) {
+			ll.add(ATT_SIZE);
+			ll.add(this.getSize());
+			ll.add(ATT_FILECOUNT);
+			ll.add(this.getFileCount());
+			ll.add(ATT_DIRECTORYCOUNT);
+			ll.add(this.getDirectoryCount());
+		}
+		return Tag.construct(TAGNAME, ll.toArray());
 	}
 	
 	public String toRemoteUpdateMeta() {
@@ -202,7 +336,8 @@ public class LocalPackage extends FilePackage {
 	}
 	
 	public static LocalPackage parseSaveMeta(final String meta) {
-		final Tag pTag = Tag.parse(meta);
+		final TagStream stream = new TagStream(meta);
+		final Tag pTag = stream.next();
 		if (pTag == null || !pTag.getName().equals(TAGNAME)) {
             return null;
         }
@@ -234,33 +369,8 @@ public class LocalPackage extends FilePackage {
         parsedLocalPackage.setDownloadCount(downloadCount);
         // Load files
 		final LocalFileNodeChildren lChildren = new LocalFileNodeChildren(null);
-		final LinkedList<EndTaggable> tagStack = new LinkedList<>();
-		tagStack.push(lChildren);
-		final StringBuilder content = new StringBuilder(pTag.getPost());
-		EndTaggable peek = lChildren;
-		while (content.length() > 0) {
-			if (Utilities.startsWith(content, peek.getEndTag())) {
-				content.delete(0, peek.getEndTag().length());
-				final Taggable popT = tagStack.pop();
-				peek = tagStack.peek();
-				if (peek != null) {
-					peek.receive(popT);
-				} else {
-                    break;
-                }
-			} else {
-				final Tag newTag = new Tag(content).parseBasic();
-				if (newTag != null) {
-					final EndTaggable resolve = peek.createForTag(newTag);
-					if (resolve != null) {
-						tagStack.push(resolve);
-						peek = resolve;
-						content.delete(0, newTag.getEncodedLength());
-						continue;
-					}
-				}
-				return null;
-			}
+		if (!stream.parse(lChildren)) {
+			return null;
 		}
 		final LocalFileNode[] nodes = lChildren.toArray(new LocalFileNode[0]);
         parsedLocalPackage.setRoots(nodes);
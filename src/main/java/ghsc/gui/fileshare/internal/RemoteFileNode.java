@@ -6,10 +6,27 @@ import ghsc.util.Tag;
 
 public class RemoteFileNode extends FileNode {
 	
-	private final String name;
-	private final String path;
+	private String name;
+	private String path;
 	private final long size;
 	private final boolean directory;
+	/**
+	 * The scanned manifest this node was read from, or <code>null</code> if its children are given to it.
+	 */
+	private final RemoteManifest manifest;
+	private final int index;
+	/**
+	 * Size and counts of a directory whose children haven't been sent, or <code>null</code>.
+	 */
+	private final long[] summary;
+	/**
+	 * How many children a directory listing announced, or <code>-1</code> if none was received.
+	 */
+	private int listingTotal = -1;
+	/**
+	 * The hashes of the chunks of a file, or <code>null</code> if the host didn't know them.
+	 */
+	private String contentId;
 	
 	/**
 	 * Creates a RemoteFile representing a file.
@@ -23,6 +40,25 @@ public class RemoteFileNode extends FileNode {
 		this.path = path;
 		this.size = Math.max(0, size);
 		this.directory = size < 0;
+		this.manifest = null;
+		this.index = -1;
+		this.summary = null;
+		this.endTag = "</" + this.getTagName() + ">";
+	}
+	
+	/**
+	 * Creates a RemoteFile for a node of a scanned manifest.<br>
+	 * Its name and path are decoded when first needed, and its children are created once they're asked for.
+	 * @param manifest The manifest holding the node.
+	 * @param index The number of the node in the manifest.
+	 */
+	RemoteFileNode(final RemoteFileNodeChildren container, final RemoteManifest manifest, final int index) {
+		super(container);
+		this.manifest = manifest;
+		this.index = index;
+		this.directory = manifest.isDirectory(index);
+		this.size = this.directory ? 0 : manifest.getSize(index);
+		this.summary = null;
 		this.endTag = "</" + this.getTagName() + ">";
 	}
 	
@@ -35,6 +71,26 @@ public class RemoteFileNode extends FileNode {
 		this(container, name, path, -1);
 	}
 	
+	/**
+	 * Creates a RemoteFile representing a directory whose children are requested when they're needed.
+	 * @param name The name of the directory on the remote system.
+	 * @param path The path of the directory on the remote system.
+	 * @param size The size of all files below the directory.
+	 * @param fileCount The number of files below the directory.
+	 * @param directoryCount The number of directories below the directory, including itself.
+	 */
+	public RemoteFileNode(final RemoteFileNodeChildren container, final String name, final String path, final long size, final long fileCount, final long directoryCount) {
+		super(container);
+		this.name = name;
+		this.path = path;
+		this.size = 0;
+		this.directory = true;
+		this.manifest = null;
+		this.index = -1;
+		this.summary = new long[] { Math.max(0, size), Math.max(0, fileCount), Math.max(1, directoryCount) };
+		this.endTag = "</" + this.getTagName() + ">";
+	}
+	
 	public RemoteFileNode getParent() {
 		return (RemoteFileNode) this.parent;
 	}
@@ -48,6 +104,17 @@ public class RemoteFileNode extends FileNode {
 	}
 	
 	public RemoteFileNodeChildren getChildren() {
+		if (this.children == null && this.manifest != null) {
+			final int first = this.manifest.getFirstChild(this.index);
+			if (first >= 0) {
+				final RemoteFileNodeChildren nodes = new RemoteFileNodeChildren(this);
+				nodes.ensureCapacity(this.manifest.getChildCount(this.index));
+				for (int child = first; child >= 0; child = this.manifest.getNextSibling(child, this.index)) {
+					nodes.add(new RemoteFileNode(nodes, this.manifest, child));
+				}
+				this.children = nodes;
+			}
+		}
 		return (RemoteFileNodeChildren) this.children;
 	}
 	
@@ -57,14 +124,49 @@ public class RemoteFileNode extends FileNode {
 	
 	@Override
 	public String getName() {
+		if (this.name == null && this.manifest != null) {
+			this.name = this.manifest.getName(this.index);
+		}
 		return this.name;
 	}
 	
 	@Override
 	public String getPath() {
+		if (this.path == null && this.manifest != null) {
+			this.path = this.tracePath();
+		}
 		return this.path;
 	}
 	
+	@Override
+	public boolean isLeaf() {
+		if (this.children == null && this.manifest != null) {
+			return this.manifest.getFirstChild(this.index) < 0;
+		}
+		if (this.summary != null) {
+			return this.summary[1] + this.summary[2] <= 1;
+		}
+		return super.isLeaf();
+	}
+	
+	/**
+	 * @return whether the children of this node are known, or still have to be requested from the host.
+	 */
+	public boolean isListed() {
+		return this.summary == null || this.isLeaf() || (this.listingTotal >= 0 && this.getListedCount() >= this.listingTotal);
+	}
+	
+	/**
+	 * @return how many children of this node have been received so far.
+	 */
+	public int getListedCount() {
+		return this.children != null ? this.children.size() : 0;
+	}
+	
+	void setListingTotal(final int total) {
+		this.listingTotal = total;
+	}
+	
 	@Override
 	public boolean isDirectory() {
 		return this.directory;
@@ -75,8 +177,27 @@ public class RemoteFileNode extends FileNode {
 		return this.size;
 	}
 	
+	/**
+	 * @return the content id of this file as announced by the host (see {@link ChunkHashes#getContentId()}), or <code>null</code> if it wasn't announced.
+	 */
+	public String getContentId() {
+		if (this.contentId == null && this.manifest != null && !this.directory) {
+			this.contentId = this.manifest.getAttribute(this.index, FileNode.ATT_CONTENT);
+		}
+		return this.contentId;
+	}
+	
+	void setContentId(final String contentId) {
+		this.contentId = contentId;
+	}
+	
 	@Override
 	public long getSize() {
+		if (this.manifest != null) {
+			return this.manifest.getSize(this.index);
+		} else if (this.summary != null) {
+			return this.summary[0];
+		}
 		long temp = this.getFileSize();
 		if (!this.isLeaf()) {
 			for (final RemoteFileNode node : this.getChildren()) {
@@ -88,6 +209,11 @@ public class RemoteFileNode extends FileNode {
 	
 	@Override
 	public long getFileCount() {
+		if (this.manifest != null) {
+			return this.manifest.getFileCount(this.index);
+		} else if (this.summary != null) {
+			return this.summary[1];
+		}
 		long temp = this.isDirectory() ? 0 : 1;
 		if (!this.isLeaf()) {
 			for (final RemoteFileNode node : this.getChildren()) {
@@ -99,6 +225,11 @@ public class RemoteFileNode extends FileNode {
 
 	@Override
 	public long getDirectoryCount() {
+		if (this.manifest != null) {
+			return this.manifest.getDirectoryCount(this.index);
+		} else if (this.summary != null) {
+			return this.summary[2];
+		}
 		long temp = this.isDirectory() ? 1 : 0;
 		if (!this.isLeaf()) {
 			for (final RemoteFileNode node : this.getChildren()) {
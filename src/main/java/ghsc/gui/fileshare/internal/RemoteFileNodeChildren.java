@@ -48,9 +48,20 @@ public class RemoteFileNodeChildren extends FileNodeChildren<RemoteFileNode> {
 			if (tagName.equals(FileNode.TAGNAME_FILE)) {
 				final String size = tag.getAttribute(FileNode.ATT_SIZE);
 				if (size != null) {
-					return new RemoteFileNode(this, name, path, Long.parseLong(size));
+					final RemoteFileNode file = new RemoteFileNode(this, name, path, Long.parseLong(size));
+					file.setContentId(tag.getAttribute(FileNode.ATT_CONTENT));
+					return file;
 				}
 			} else {
+				final String fileCount = tag.getAttribute(FileNode.ATT_FILECOUNT);
+				if (fileCount != null) { // a directory of a listing, its children are listed separately
+					final String size = tag.getAttribute(FileNode.ATT_SIZE);
+					final String directoryCount = tag.getAttribute(FileNode.ATT_DIRECTORYCOUNT);
+					if (size == null || directoryCount == null) {
+						return null;
+					}
+					return new RemoteFileNode(this, name, path, Long.parseLong(size), Long.parseLong(fileCount), Long.parseLong(directoryCount));
+				}
 				return new RemoteFileNode(this, name, path);
 			}
 		}
@@ -0,0 +1,365 @@
+package ghsc.gui.fileshare.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import ghsc.util.Tag;
+
+/**
+ * The file tree of a remote package, kept as the received bytes plus a few numbers per node.<br>
+ * Nodes are numbered in the order they appear, so the descendants of a node directly follow it.</br>
+ * A {@link RemoteFileNode} is only created for a node once its parent is expanded,</br>
+ * while sizes and counts of whole subtrees are summed up during the scan.
+ */
+class RemoteManifest {
+
+	private final byte[] data;
+	/**
+	 * Position of each node's start tag in {@link #data}.
+	 */
+	private final int[] starts;
+	/**
+	 * The number of the first node after each node's subtree.
+	 */
+	private final int[] ends;
+	/**
+	 * Size of all files in each node's subtree.
+	 */
+	private final long[] sizes;
+	/**
+	 * Number of files in each node's subtree.
+	 */
+	private final int[] files;
+	private final BitSet directories;
+	private final int count;
+	private final int rootCount;
+
+	private RemoteManifest(final byte[] data, final int[] starts, final int[] ends, final long[] sizes, final int[] files, final BitSet directories, final int count, final int rootCount) {
+		this.data = data;
+		this.starts = starts;
+		this.ends = ends;
+		this.sizes = sizes;
+		this.files = files;
+		this.directories = directories;
+		this.count = count;
+		this.rootCount = rootCount;
+	}
+
+	/**
+	 * @return the number of top level nodes.
+	 */
+	int getRootCount() {
+		return this.rootCount;
+	}
+
+	/**
+	 * @return the number of the first top level node, or <code>-1</code> if there's none.
+	 */
+	int getFirstRoot() {
+		return this.count > 0 ? 0 : -1;
+	}
+
+	/**
+	 * @return the number of the first child of a node, or <code>-1</code> if it has none.
+	 */
+	int getFirstChild(final int node) {
+		return node + 1 < this.ends[node] ? node + 1 : -1;
+	}
+
+	/**
+	 * @param node The number of a node.
+	 * @param parent The number of the node's parent, or <code>-1</code> for a top level node.
+	 * @return the number of the next node with the same parent, or <code>-1</code> if it's the last one.
+	 */
+	int getNextSibling(final int node, final int parent) {
+		final int next = this.ends[node];
+		return next < (parent < 0 ? this.count : this.ends[parent]) ? next : -1;
+	}
+
+	/**
+	 * @return the number of direct children of a node.
+	 */
+	int getChildCount(final int node) {
+		int children = 0;
+		for (int child = node + 1; child < this.ends[node]; child = this.ends[child]) {
+			children++;
+		}
+		return children;
+	}
+
+	boolean isDirectory(final int node) {
+		return this.directories.get(node);
+	}
+
+	/**
+	 * @return the size of a file, or of all the files below a directory.
+	 */
+	long getSize(final int node) {
+		return this.sizes[node];
+	}
+
+	long getFileCount(final int node) {
+		return this.files[node];
+	}
+
+	long getDirectoryCount(final int node) {
+		return this.ends[node] - node - this.files[node];
+	}
+
+	long getTotalSize() {
+		long total = 0;
+		for (int root = this.getFirstRoot(); root >= 0; root = this.getNextSibling(root, -1)) {
+			total += this.sizes[root];
+		}
+		return total;
+	}
+
+	long getTotalFileCount() {
+		long total = 0;
+		for (int root = this.getFirstRoot(); root >= 0; root = this.getNextSibling(root, -1)) {
+			total += this.files[root];
+		}
+		return total;
+	}
+
+	long getTotalDirectoryCount() {
+		return this.count - this.getTotalFileCount();
+	}
+
+	/**
+	 * Decodes the name of a node from its start tag.
+	 */
+	String getName(final int node) {
+		return this.getAttribute(node, FileNode.ATT_NAME);
+	}
+
+	/**
+	 * Decodes an attribute of a node from its start tag.
+	 * @return the value, or <code>null</code> if the node doesn't have the attribute.
+	 */
+	String getAttribute(final int node, final String key) {
+		final int start = this.starts[node];
+		final Tag tag = new Tag(this.data, start, headerEnd(this.data, start, this.data.length) - start).parse();
+		return tag != null ? tag.getAttribute(key) : null;
+	}
+
+	/**
+	 * Adds every file that was announced with chunk hashes to an index of their contents.<br>
+	 * Only the tags of those files and their directories are parsed.
+	 * @param index Receives the remote path of each file by its content id.
+	 */
+	void indexContents(final Map<String, String> index) {
+		int[] stack = new int[16];
+		String[] paths = new String[16];
+		int depth = 0;
+		for (int node = 0; node < this.count; node++) {
+			while (depth > 0 && this.ends[stack[depth - 1]] <= node) {
+				depth--;
+			}
+			if (this.directories.get(node)) {
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth * 2);
+					paths = Arrays.copyOf(paths, depth * 2);
+				}
+				stack[depth] = node;
+				paths[depth++] = null; // traced when a file below it has hashes
+				continue;
+			}
+			final int start = this.starts[node];
+			if (valueStart(this.data, start, headerEnd(this.data, start, this.data.length), FileNode.ATT_CONTENT) < 0) {
+				continue;
+			}
+			final String contentId = this.getAttribute(node, FileNode.ATT_CONTENT);
+			if (contentId == null) {
+				continue;
+			}
+			for (int i = 0; i < depth; i++) {
+				if (paths[i] == null) {
+					paths[i] = (i > 0 ? paths[i - 1] : "") + "\\" + this.getName(stack[i]);
+				}
+			}
+			index.put(contentId, (depth > 0 ? paths[depth - 1] : "") + "\\" + this.getName(node));
+		}
+	}
+
+	/**
+	 * Scans the nodes of a manifest, which continue until the end tag of the root children.
+	 * @param data The manifest, which is kept and must not be modified afterwards.
+	 * @param offset The position of the first node.
+	 * @param length The number of bytes after the offset that belong to the manifest.
+	 * @return the scanned manifest, or <code>null</code> if it's malformed.
+	 */
+	static RemoteManifest scan(final byte[] data, final int offset, final int length) {
+		final int end = offset + length;
+		if (length == 0) {
+			return new RemoteManifest(data, new int[0], new int[0], new long[0], new int[0], new BitSet(), 0, 0);
+		}
+		int capacity = 64;
+		int[] starts = new int[capacity];
+		int[] ends = new int[capacity];
+		long[] sizes = new long[capacity];
+		int[] files = new int[capacity];
+		final BitSet directories = new BitSet();
+		int[] stack = new int[16];
+		int depth = 0;
+		int count = 0;
+		int rootCount = 0;
+		int position = offset;
+		while (true) {
+			if (position + 1 >= end || data[position] != '<') {
+				return null;
+			}
+			final int headerEnd = headerEnd(data, position, end);
+			if (headerEnd < 0) {
+				return null;
+			}
+			if (data[position + 1] == '/') {
+				// an end tag closes the innermost node, or the root children
+				final byte closed = headerEnd - position == 4 ? data[position + 2] : 0;
+				if (depth == 0) {
+					if (closed != FileNodeChildren.TAGNAME.charAt(0)) {
+						return null;
+					}
+					break;
+				}
+				final int node = stack[--depth];
+				if (closed != (directories.get(node) ? FileNode.TAGNAME_DIR : FileNode.TAGNAME_FILE).charAt(0)) {
+					return null;
+				}
+				ends[node] = count;
+				if (depth > 0) {
+					final int parent = stack[depth - 1];
+					sizes[parent] += sizes[node];
+					files[parent] += files[node];
+				}
+			} else {
+				final boolean directory;
+				if (headerEnd - position > 2 && data[position + 1] == FileNode.TAGNAME_DIR.charAt(0) && data[position + 2] == ' ') {
+					directory = true;
+				} else if (headerEnd - position > 2 && data[position + 1] == FileNode.TAGNAME_FILE.charAt(0) && data[position + 2] == ' ') {
+					directory = false;
+				} else {
+					return null;
+				}
+				if (valueStart(data, position, headerEnd, FileNode.ATT_NAME) < 0) {
+					return null;
+				}
+				final long size;
+				if (directory) {
+					size = 0;
+				} else {
+					size = decodeLong(data, position, headerEnd, FileNode.ATT_SIZE);
+					if (size < 0) {
+						return null;
+					}
+				}
+				if (count == capacity) {
+					capacity *= 2;
+					starts = Arrays.copyOf(starts, capacity);
+					ends = Arrays.copyOf(ends, capacity);
+					sizes = Arrays.copyOf(sizes, capacity);
+					files = Arrays.copyOf(files, capacity);
+				}
+				starts[count] = position;
+				sizes[count] = size;
+				files[count] = directory ? 0 : 1;
+				directories.set(count, directory);
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth * 2);
+				}
+				if (depth == 0) {
+					rootCount++;
+				}
+				stack[depth++] = count++;
+			}
+			position = headerEnd;
+		}
+		return new RemoteManifest(data, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), Arrays.copyOf(sizes, count), Arrays.copyOf(files, count), directories, count, rootCount);
+	}
+
+	/**
+	 * @return the position after the <code>&gt;</code> closing the tag at the given position, or <code>-1</code> if there's none.
+	 */
+	private static int headerEnd(final byte[] data, final int start, final int end) {
+		boolean noQuote = true;
+		for (int i = start + 1; i < end; i++) {
+			final byte b = data[i];
+			if (b == '"') {
+				noQuote = !noQuote;
+			} else if (b == '>' && noQuote) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds an attribute in a start tag.
+	 * @return the position of the attribute's value, or <code>-1</code> if the attribute is missing.
+	 */
+	private static int valueStart(final byte[] data, final int start, final int end, final String key) {
+		final int keyLength = key.length();
+		for (int i = start; i + keyLength + 3 < end; i++) {
+			if (data[i] != ' ' || data[i + keyLength + 1] != '=' || data[i + keyLength + 2] != '"') {
+				continue;
+			}
+			int k = 0;
+			while (k < keyLength && data[i + 1 + k] == key.charAt(k)) {
+				k++;
+			}
+			if (k == keyLength) {
+				return i + keyLength + 3;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds an attribute in a start tag and decodes its Base64 value as a decimal number, without creating any objects.
+	 * @return the number, or <code>-1</code> if the attribute is missing or not a number.
+	 */
+	private static long decodeLong(final byte[] data, final int start, final int end, final String key) {
+		final int valueStart = valueStart(data, start, end, key);
+		if (valueStart < 0) {
+			return -1;
+		}
+		long value = 0;
+		int bits = 0;
+		int bitCount = 0;
+		int digits = 0;
+		for (int v = valueStart; v < end && data[v] != '"' && data[v] != '='; v++) {
+			final int sextet = sextet(data[v]);
+			if (sextet < 0) {
+				return -1;
+			}
+			bits = (bits << 6) | sextet;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				final int digit = ((bits >>> bitCount) & 0xFF) - '0';
+				if (digit < 0 || digit > 9 || ++digits > 18) {
+					return -1;
+				}
+				value = value * 10 + digit;
+			}
+		}
+		return digits > 0 ? value : -1;
+	}
+
+	private static int sextet(final byte b) {
+		if (b >= 'A' && b <= 'Z') {
+			return b - 'A';
+		} else if (b >= 'a' && b <= 'z') {
+			return b - 'a' + 26;
+		} else if (b >= '0' && b <= '9') {
+			return b - '0' + 52;
+		} else if (b == '+') {
+			return 62;
+		} else if (b == '/') {
+			return 63;
+		}
+		return -1;
+	}
+
+}
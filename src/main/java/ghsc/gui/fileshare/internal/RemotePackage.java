@@ -1,21 +1,38 @@
 package ghsc.gui.fileshare.internal;
 
+import ghsc.gui.Application;
 import ghsc.gui.components.users.User;
-import ghsc.impl.EndTaggable;
-import ghsc.impl.Taggable;
 import ghsc.util.Tag;
+import ghsc.util.TagStream;
 import ghsc.util.Utilities;
 
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 
 public class RemotePackage extends FilePackage {
 	
-	private final User host;
+	private User host;
     private final boolean passwordProtected;
 
     private RemoteFileNode[] roots;
+    /**
+     * The scanned file tree, which the roots are created from when they're first needed.
+     */
+    private RemoteManifest manifest;
+    /**
+     * The roots received so far, if the package was announced without its files.
+     */
+    private RemoteFileNodeChildren rootListing;
+    private int rootTotal = -1;
+    private long version;
+    /**
+     * The remote paths of the files announced with chunk hashes by their content id, or <code>null</code> if not indexed yet.
+     */
+    private HashMap<String, String> contents;
 
     /**
      * Creates a new package from existing remote data.
@@ -32,6 +49,13 @@ public class RemotePackage extends FilePackage {
 		return this.host;
 	}
 	
+	/**
+	 * Moves this package to the host's new connection, after the host reconnected.
+	 */
+	public void setHost(final User host) {
+		this.host = host;
+	}
+	
 	@Override
 	public String getOwner() {
 		return this.host.getPreferredName();
@@ -43,16 +67,196 @@ public class RemotePackage extends FilePackage {
 	}
 	
 	public RemoteFileNode[] getRoots() {
+		if (this.roots == null && this.manifest != null) {
+			final RemoteFileNode[] nodes = new RemoteFileNode[this.manifest.getRootCount()];
+			int i = 0;
+			for (int root = this.manifest.getFirstRoot(); root >= 0; root = this.manifest.getNextSibling(root, -1)) {
+				nodes[i++] = new RemoteFileNode(null, this.manifest, root);
+			}
+			this.roots = nodes;
+		}
 		return this.roots;
 	}
 	
+	/**
+	 * @return the version of the package's files, <tt>0</tt> if the host didn't send one.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * @return whether the other package is this package announced again without changes, so what was received of it can be kept.
+	 */
+	public boolean isSameVersion(final FilePackage other) {
+		if (!(other instanceof RemotePackage)) {
+			return false;
+		}
+		final RemotePackage rp = (RemotePackage) other;
+		return this.version != 0 && this.version == rp.version && this.isHostedBy(rp.host) && this.getUUID().equals(rp.getUUID());
+	}
+	
+	/**
+	 * @return whether this package was received from the given user, or from an earlier connection of the same user.
+	 */
+	public boolean isHostedBy(final User user) {
+		if (this.host == user) {
+			return true;
+		}
+		if (this.host == null || user == null) {
+			return false;
+		}
+		final UUID id = this.host.getID();
+		return id != null && id.equals(user.getID());
+	}
+	
+	/**
+	 * @return whether the package was announced without its files, which are then listed by the host on request.
+	 */
+	public boolean isSummary() {
+		return this.rootListing != null;
+	}
+
+	/**
+	 * @return whether all the roots are known, or still have to be requested from the host.
+	 */
+	public boolean isListed() {
+		return this.rootListing == null || (this.rootTotal >= 0 && this.rootListing.size() >= this.rootTotal);
+	}
+	
+	/**
+	 * @return how many roots have been received so far.
+	 */
+	public int getListedCount() {
+		return this.rootListing != null ? this.rootListing.size() : this.getRoots().length;
+	}
+	
+	/**
+	 * Finds a directory among the nodes that have been received.
+	 * @param path The remote path of the directory.
+	 * @return the directory, or <code>null</code> if it isn't known.
+	 */
+	public RemoteFileNode findDirectory(final String path) {
+		List<RemoteFileNode> nodes = Arrays.asList(this.getRoots());
+		RemoteFileNode found = null;
+		int start = path.startsWith("\\") ? 1 : 0;
+		while (start < path.length()) {
+			int end = path.indexOf('\\', start);
+			if (end < 0) {
+				end = path.length();
+			}
+			final String name = path.substring(start, end);
+			found = null;
+			for (final RemoteFileNode node : nodes) {
+				if (node.isDirectory() && name.equals(node.getName())) {
+					found = node;
+					break;
+				}
+			}
+			if (found == null) {
+				return null;
+			}
+			final RemoteFileNodeChildren children = found.getChildren();
+			nodes = children != null ? children : Collections.emptyList();
+			start = end + 1;
+		}
+		return found;
+	}
+	
+	/**
+	 * Adds a page of a directory listing sent by the host.<br>
+	 * Pages have to arrive in order, a page of an outdated version or one that was already received is ignored.
+	 * @param path The remote path of the listed directory, or <code>null</code> for the roots.
+	 * @param offset The index of the first child in the page.
+	 * @param total How many children the directory has.
+	 * @param version The version of the package the listing was made from.
+	 * @param listing The listed children followed by the end tag of the children.
+	 * @return <tt>true</tt> if the children were added, <tt>false</tt> otherwise.
+	 */
+	public boolean receiveListing(final String path, final int offset, final int total, final long version, final byte[] listing) {
+		if (this.rootListing == null || version != this.version || listing == null) {
+			return false;
+		}
+		final RemoteFileNode directory;
+		RemoteFileNodeChildren children;
+		if (path == null || path.isEmpty()) {
+			directory = null;
+			children = this.rootListing;
+		} else {
+			directory = this.findDirectory(path);
+			if (directory == null || directory.isListed()) {
+				return false;
+			}
+			children = directory.getChildren();
+			if (children == null) {
+				children = new RemoteFileNodeChildren(directory);
+				directory.setChildren(children);
+			}
+		}
+		if (offset != children.size()) {
+			return false;
+		}
+		if (!new TagStream(listing).parse(children)) {
+			children.subList(offset, children.size()).clear();
+			return false;
+		}
+		this.contents = null;
+		if (directory != null) {
+			directory.setListingTotal(total);
+		} else {
+			this.rootTotal = total;
+			this.roots = children.toArray(new RemoteFileNode[0]);
+		}
+		return true;
+	}
+	
 	public void setRoots(final RemoteFileNode[] roots) {
 		this.roots = roots;
+		this.manifest = null;
+		this.contents = null;
+	}
+	
+	/**
+	 * Finds a file of this package with the given contents, among the files that were announced with their content id.
+	 * @param contentId The content id, see {@link ChunkHashes#getContentId()}.
+	 * @return the remote path of such a file, or <code>null</code> if there is none.
+	 */
+	public synchronized String findContent(final String contentId) {
+		if (this.contents == null) {
+			final HashMap<String, String> index = new HashMap<>();
+			if (this.manifest != null) {
+				this.manifest.indexContents(index);
+			} else if (this.roots != null) {
+				indexContents(index, Arrays.asList(this.roots));
+			}
+			this.contents = index;
+		}
+		return this.contents.get(contentId);
+	}
+	
+	/**
+	 * Indexes the received nodes, without materializing or requesting the children of any directory.
+	 */
+	private static void indexContents(final HashMap<String, String> index, final List<RemoteFileNode> nodes) {
+		for (final RemoteFileNode node : nodes) {
+			if (node.isDirectory()) {
+				if (node.isListed() && node.getChildren() != null) {
+					indexContents(index, node.getChildren());
+				}
+			} else {
+				final String contentId = node.getContentId();
+				if (contentId != null) {
+					index.put(contentId, node.getPath());
+				}
+			}
+		}
 	}
 	
 	@Override
 	public long getFileCount() {
-		if (this.fileCount == null) {
+		if (this.fileCount == null && this.manifest != null) {
+			this.fileCount = this.manifest.getTotalFileCount();
+		} else if (this.fileCount == null) {
 			long temp = 0;
 			for (final RemoteFileNode node : this.getRoots()) {
                 temp += node.getFileCount();
@@ -64,7 +268,9 @@ public class RemotePackage extends FilePackage {
 
 	@Override
 	public long getDirectoryCount() {
-		if (this.directoryCount == null) {
+		if (this.directoryCount == null && this.manifest != null) {
+			this.directoryCount = this.manifest.getTotalDirectoryCount();
+		} else if (this.directoryCount == null) {
 			long temp = 0;
 			for (final RemoteFileNode node : this.getRoots()) {
                 temp += node.getDirectoryCount();
@@ -76,7 +282,9 @@ public class RemotePackage extends FilePackage {
 	
 	@Override
 	public long getSize() {
-		if (this.size == null) {
+		if (this.size == null && this.manifest != null) {
+			this.size = this.manifest.getTotalSize();
+		} else if (this.size == null) {
 			long temp = 0;
 			for (final RemoteFileNode node : this.getRoots()) {
                 temp += node.getSize();
@@ -87,10 +295,33 @@ public class RemotePackage extends FilePackage {
 	}
 	
 	public static RemotePackage parse(final User u, final String meta) {
-		return parse(u, Tag.parse(meta));
+		return parse(u, meta.getBytes(Application.CHARSET));
+	}
+	
+	/**
+	 * Parses a package from the encoded bytes of its package tag and files.
+	 * @param data The bytes, which are kept by the package and must not be modified afterwards.
+	 */
+	public static RemotePackage parse(final User u, final byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		final TagStream stream = new TagStream(data);
+		final Tag pTag = stream.next();
+		return parse(u, pTag, data, stream.getPosition(), data.length - stream.getPosition());
 	}
 	
 	public static RemotePackage parse(final User u, final Tag pTag) {
+		final byte[] post = pTag != null ? pTag.getPostBytes() : null;
+		final byte[] files = post != null ? post : new byte[0];
+		return parse(u, pTag, files, 0, files.length);
+	}
+	
+	/**
+	 * Parses the package info and scans the files, which follow the package tag in the given bytes.<br>
+	 * The bytes are kept by the package, so that file nodes are only created when they're looked at.
+	 */
+	private static RemotePackage parse(final User u, final Tag pTag, final byte[] files, final int offset, final int length) {
 		// parse package info...
 		if (pTag == null || !pTag.getName().equals(TAGNAME)) {
             return null;
@@ -120,38 +351,31 @@ public class RemotePackage extends FilePackage {
             downloadCount = 0;
         }
 		parsedRemotePackage.setDownloadCount(downloadCount);
-        // Load files
-		final RemoteFileNodeChildren rChildren = new RemoteFileNodeChildren(null);
-		final LinkedList<EndTaggable> tagStack = new LinkedList<>();
-		tagStack.push(rChildren); // initialize with RemoteNodeChildren.
-		final StringBuilder build = new StringBuilder(pTag.getPost());
-		EndTaggable peek = rChildren;
-		while (build.length() > 0) {
-			if (Utilities.startsWith(build, peek.getEndTag())) { // build starts with endTag
-				build.delete(0, peek.getEndTag().length());
-				final Taggable popT = tagStack.pop();
-				peek = tagStack.peek();
-				if (peek != null) {
-					peek.receive(popT);
-				} else {
-                    break;
-                }
-			} else {
-				final Tag newTag = new Tag(build).parseBasic();
-				if (newTag != null) {
-					final EndTaggable resolve = peek.createForTag(newTag);
-					if (resolve != null) {
-						tagStack.push(resolve);
-						peek = resolve;
-						build.delete(0, newTag.getEncodedLength());
-						continue;
-					}
-				}
+		final String versionString = pTag.getAttribute(ATT_VERSION);
+		if (versionString != null) {
+			parsedRemotePackage.version = Long.parseLong(versionString);
+		}
+		final String fileCountString = pTag.getAttribute(ATT_FILECOUNT);
+		if (fileCountString != null) {
+			// only a summary was sent, the files are listed when they're requested
+			final String sizeString = pTag.getAttribute(ATT_SIZE);
+			final String directoryCountString = pTag.getAttribute(ATT_DIRECTORYCOUNT);
+			if (sizeString == null || directoryCountString == null) {
 				return null;
 			}
+			parsedRemotePackage.size = Long.parseLong(sizeString);
+			parsedRemotePackage.fileCount = Long.parseLong(fileCountString);
+			parsedRemotePackage.directoryCount = Long.parseLong(directoryCountString);
+			parsedRemotePackage.rootListing = new RemoteFileNodeChildren(null);
+			parsedRemotePackage.roots = new RemoteFileNode[0];
+			return parsedRemotePackage;
+		}
+        // Load files
+		final RemoteManifest manifest = RemoteManifest.scan(files, offset, length);
+		if (manifest == null) {
+			return null;
 		}
-		final RemoteFileNode[] nodes = rChildren.toArray(new RemoteFileNode[0]);
-		parsedRemotePackage.setRoots(nodes);
+		parsedRemotePackage.manifest = manifest;
 		return parsedRemotePackage;
 	}
 	
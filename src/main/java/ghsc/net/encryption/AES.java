@@ -1,44 +1,103 @@
 package ghsc.net.encryption;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import ghsc.gui.Application;
 
 /**
- * AES encryption cipher used to protect data passed across local networks.
+ * AES encryption cipher used to protect data passed across local networks.<br>
+ * Ciphers are pooled, so any number of threads can encrypt and decrypt at the same time.<br>
+ * <br>
+ * Besides the original CBC mode, messages can be sealed with GCM, which uses a fresh nonce for every message and authenticates it,</br>
+ * and large data can be streamed with CTR. Each mode uses its own key derived from the shared key.
  */
 public class AES {
 	
 	private static final String CIPHER_TYPE = "AES/CBC/PKCS5Padding";
 	private static final String KEY_TYPE = "AES";
 	private static final byte[] IV = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int BLOCK_SIZE = 16;
+	private static final String SEALED_TYPE = "AES/GCM/NoPadding";
+	private static final String STREAM_TYPE = "AES/CTR/NoPadding";
+	private static final int TAG_BITS = 128;
+	
+	/**
+	 * The length of the nonce at the start of every sealed message.
+	 */
+	public static final int NONCE_LENGTH = 12;
+	/**
+	 * The length of the authentication tag at the end of every sealed message.
+	 */
+	public static final int TAG_LENGTH = TAG_BITS / 8;
 	
 	public static final AES DEFAULT = new AES(new byte[] { -101, -105, 53, -123, -17, -27, -32, 49, -48, -84, 60, -10, 47, 65, -62, -111 });
 	
 	private final byte[] key;
-	private final Cipher e;
-	private final Cipher d;
+	private final SecretKeySpec spec;
+	private final ConcurrentLinkedQueue<Cipher> encryptors = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Cipher> decryptors = new ConcurrentLinkedQueue<>();
+	private final SecretKeySpec sealedSpec;
+	private final SecretKeySpec streamSpec;
+	private final ConcurrentLinkedQueue<Cipher> sealers = new ConcurrentLinkedQueue<>();
+	/**
+	 * Nonces are a random salt followed by a counter which starts at a random value,</br>
+	 * so the chance that two users sharing a key ever pick the same nonce is negligible.
+	 */
+	private final byte[] nonceSalt = getRandomBytes(NONCE_LENGTH - 8);
+	private final AtomicLong nonceCounter = new AtomicLong(new SecureRandom().nextLong());
 	
 	public AES(final byte[] key) {
 		this.key = key;
-		this.e = this.create(key, Cipher.ENCRYPT_MODE);
-		this.d = this.create(key, Cipher.DECRYPT_MODE);
+		this.spec = new SecretKeySpec(key, KEY_TYPE);
+		this.sealedSpec = derive(key, 1);
+		this.streamSpec = derive(key, 2);
+		// fail early on an invalid key
+		this.encryptors.add(this.create(Cipher.ENCRYPT_MODE));
+		this.decryptors.add(this.create(Cipher.DECRYPT_MODE));
 	}
 	
-	private Cipher create(final byte[] key, final int mode) {
+	private Cipher create(final int mode) {
 		try {
 			final Cipher c = Cipher.getInstance(CIPHER_TYPE);
-			c.init(mode, new SecretKeySpec(key, KEY_TYPE), new IvParameterSpec(IV));
+			c.init(mode, this.spec, new IvParameterSpec(IV));
 			return c;
 		} catch (final Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Derives a key for one of the other cipher modes, so the same key is never used in two modes.
+	 */
+	private static SecretKeySpec derive(final byte[] key, final int purpose) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(key);
+			digest.update((byte) purpose);
+			return new SecretKeySpec(digest.digest(), 0, key.length, KEY_TYPE);
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Takes an idle cipher from the pool, or creates a new one if they're all in use.
+	 */
+	private Cipher borrow(final ConcurrentLinkedQueue<Cipher> pool, final int mode) {
+		final Cipher c = pool.poll();
+		return c != null ? c : this.create(mode);
+	}
+	
 	public byte[] encrypt(final Object data) {
 		return this.encrypt(data.toString().getBytes(Application.CHARSET));
 	}
@@ -47,9 +106,182 @@ public class AES {
 		return this.encrypt(data, 0, data.length);
 	}
 	
-	public synchronized byte[] encrypt(final byte[] data, final int offset, final int length) {
+	public byte[] encrypt(final byte[] data, final int offset, final int length) {
+		final Cipher c = this.borrow(this.encryptors, Cipher.ENCRYPT_MODE);
+		try {
+			final byte[] encrypted = c.doFinal(data, offset, length);
+			this.encryptors.add(c);
+			return encrypted;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Encrypts the given data directly into the output array.
+	 * @param data The plain data.
+	 * @param offset The offset of the plain data.
+	 * @param length The length of the plain data.
+	 * @param output The array to write the encrypted data to.
+	 * @param outputOffset The position in the output array to start writing.
+	 * @return The number of bytes written, always equal to {@link #getEncryptedLength(int)}.
+	 */
+	public int encrypt(final byte[] data, final int offset, final int length, final byte[] output, final int outputOffset) {
+		final Cipher c = this.borrow(this.encryptors, Cipher.ENCRYPT_MODE);
+		try {
+			final int written = c.doFinal(data, offset, length, output, outputOffset);
+			this.encryptors.add(c);
+			return written;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Calculates the length of the encrypted data, including padding.
+	 * @param length The length of the plain data.
+	 * @return The length after encryption.
+	 */
+	public int getEncryptedLength(final int length) {
+		return (length / BLOCK_SIZE + 1) * BLOCK_SIZE;
+	}
+	
+	/**
+	 * Calculates the length of a sealed message, including the nonce and authentication tag.
+	 * @param length The length of the plain data.
+	 * @return The length after sealing.
+	 */
+	public int getSealedLength(final int length) {
+		return NONCE_LENGTH + length + TAG_LENGTH;
+	}
+	
+	private Cipher initSealer(final int mode, final byte[] nonce, final int nonceOffset) throws Exception {
+		Cipher c = this.sealers.poll();
+		if (c == null) {
+			c = Cipher.getInstance(SEALED_TYPE);
+		}
+		c.init(mode, this.sealedSpec, new GCMParameterSpec(TAG_BITS, nonce, nonceOffset, NONCE_LENGTH));
+		return c;
+	}
+	
+	private void nextNonce(final byte[] dst, final int offset) {
+		System.arraycopy(this.nonceSalt, 0, dst, offset, this.nonceSalt.length);
+		long counter = this.nonceCounter.getAndIncrement();
+		for (int i = offset + NONCE_LENGTH - 1; i >= offset + this.nonceSalt.length; i--) {
+			dst[i] = (byte) counter;
+			counter >>>= 8;
+		}
+	}
+	
+	/**
+	 * Encrypts and authenticates the given data with a new nonce, directly into the output array.<br>
+	 * The output is the nonce, followed by the encrypted data and the authentication tag.
+	 * @param data The plain data.
+	 * @param offset The offset of the plain data.
+	 * @param length The length of the plain data.
+	 * @param output The array to write the sealed message to.
+	 * @param outputOffset The position in the output array to start writing.
+	 * @return The number of bytes written, always equal to {@link #getSealedLength(int)}.
+	 */
+	public int seal(final byte[] data, final int offset, final int length, final byte[] output, final int outputOffset) {
+		this.nextNonce(output, outputOffset);
+		try {
+			final Cipher c = this.initSealer(Cipher.ENCRYPT_MODE, output, outputOffset);
+			final int written = c.doFinal(data, offset, length, output, outputOffset + NONCE_LENGTH);
+			this.sealers.add(c);
+			return NONCE_LENGTH + written;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Encrypts and authenticates the remaining bytes of the input with a new nonce.<br>
+	 * Both buffers may be direct.
+	 * @param input The plain data.
+	 * @param output The buffer to write the sealed message to, needs room for {@link #getSealedLength(int)} bytes.
+	 * @return The number of bytes written.
+	 */
+	public int seal(final ByteBuffer input, final ByteBuffer output) {
+		final byte[] nonce = new byte[NONCE_LENGTH];
+		this.nextNonce(nonce, 0);
+		try {
+			final Cipher c = this.initSealer(Cipher.ENCRYPT_MODE, nonce, 0);
+			output.put(nonce);
+			final int written = c.doFinal(input, output);
+			this.sealers.add(c);
+			return NONCE_LENGTH + written;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Verifies and decrypts a sealed message directly into the output array.
+	 * @param sealed The sealed message, starting with its nonce.
+	 * @param offset The offset of the sealed message.
+	 * @param length The length of the sealed message.
+	 * @param output The array to write the plain data to, needs room for the length minus the nonce and tag.
+	 * @param outputOffset The position in the output array to start writing.
+	 * @return The number of plain bytes written.
+	 * @throws RuntimeException If the message was not sealed with this key, or was modified.
+	 */
+	public int open(final byte[] sealed, final int offset, final int length, final byte[] output, final int outputOffset) {
+		if (length < NONCE_LENGTH + TAG_LENGTH) {
+			throw new IllegalArgumentException("Length: too short to be a sealed message.");
+		}
+		try {
+			final Cipher c = this.initSealer(Cipher.DECRYPT_MODE, sealed, offset);
+			final int written = c.doFinal(sealed, offset + NONCE_LENGTH, length - NONCE_LENGTH, output, outputOffset);
+			this.sealers.add(c);
+			return written;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Verifies and decrypts the remaining bytes of a sealed message.<br>
+	 * Both buffers may be direct.
+	 * @param input The sealed message, starting with its nonce.
+	 * @param output The buffer to write the plain data to.
+	 * @return The number of plain bytes written.
+	 * @throws RuntimeException If the message was not sealed with this key, or was modified.
+	 */
+	public int open(final ByteBuffer input, final ByteBuffer output) {
+		if (input.remaining() < NONCE_LENGTH + TAG_LENGTH) {
+			throw new IllegalArgumentException("Input: too short to be a sealed message.");
+		}
+		final byte[] nonce = new byte[NONCE_LENGTH];
+		input.get(nonce);
+		try {
+			final Cipher c = this.initSealer(Cipher.DECRYPT_MODE, nonce, 0);
+			final int written = c.doFinal(input, output);
+			this.sealers.add(c);
+			return written;
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Creates a counter mode cipher starting at a new random counter block, for streaming large data.
+	 * @return a new StreamCipher.
+	 */
+	public StreamCipher createStream() {
+		return this.createStream(getRandomBytes(StreamCipher.IV_LENGTH));
+	}
+	
+	/**
+	 * Creates a counter mode cipher starting at the given counter block, used to decrypt a stream created by the other side.
+	 * @param iv The initial counter block of the stream.
+	 * @return a new StreamCipher.
+	 */
+	public StreamCipher createStream(final byte[] iv) {
 		try {
-			return this.e.doFinal(data, offset, length);
+			final Cipher c = Cipher.getInstance(STREAM_TYPE);
+			c.init(Cipher.ENCRYPT_MODE, this.streamSpec, new IvParameterSpec(iv));
+			return new StreamCipher(c, iv.clone());
 		} catch (final Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -59,9 +291,33 @@ public class AES {
 		return this.decrypt(encrypted, 0, encrypted.length);
 	}
 	
-	public synchronized byte[] decrypt(final byte[] encrypted, final int offset, final int length) {
+	public byte[] decrypt(final byte[] encrypted, final int offset, final int length) {
+		final Cipher c = this.borrow(this.decryptors, Cipher.DECRYPT_MODE);
 		try {
-			return this.d.doFinal(encrypted, offset, length);
+			final byte[] decrypted = c.doFinal(encrypted, offset, length);
+			this.decryptors.add(c);
+			return decrypted;
+		} catch (final Exception e) {
+			// a cipher that failed isn't returned to the pool
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Decrypts the given data directly into the output array.
+	 * @param encrypted The encrypted data.
+	 * @param offset The offset of the encrypted data.
+	 * @param length The length of the encrypted data.
+	 * @param output The array to write the plain data to, needs room for the length of the encrypted data.
+	 * @param outputOffset The position in the output array to start writing.
+	 * @return The number of plain bytes written.
+	 */
+	public int decrypt(final byte[] encrypted, final int offset, final int length, final byte[] output, final int outputOffset) {
+		final Cipher c = this.borrow(this.decryptors, Cipher.DECRYPT_MODE);
+		try {
+			final int written = c.doFinal(encrypted, offset, length, output, outputOffset);
+			this.decryptors.add(c);
+			return written;
 		} catch (final Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -77,6 +333,11 @@ public class AES {
 		return o instanceof AES && SHA2.verify(((AES) o).key, this.key);
 	}
 	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.key);
+	}
+	
 	public static byte[] getRandomBytes(final int length) {
 		final byte[] bytes = new byte[length];
 		final SecureRandom sr = new SecureRandom();
@@ -0,0 +1,67 @@
+package ghsc.net.encryption;
+
+import java.nio.ByteBuffer;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * An AES counter mode cipher for data too large to encrypt as a single message.<br>
+ * The output is always the same length as the input, so data can be encrypted and decrypted in place, a piece at a time.<br>
+ * Counter mode doesn't authenticate, the integrity of streamed data has to be verified separately.
+ */
+public class StreamCipher {
+
+	/**
+	 * The length of the initial counter block.
+	 */
+	public static final int IV_LENGTH = 16;
+
+	private final Cipher cipher;
+	private final byte[] iv;
+
+	StreamCipher(final Cipher cipher, final byte[] iv) {
+		this.cipher = cipher;
+		this.iv = iv;
+	}
+
+	/**
+	 * @return the initial counter block, which the other side needs to decrypt the stream.
+	 */
+	public byte[] getIV() {
+		return this.iv.clone();
+	}
+
+	/**
+	 * Encrypts or decrypts the remaining bytes of the input into the output.<br>
+	 * Both buffers may be direct, and may even be the same buffer.
+	 * @param input The bytes to process.
+	 * @param output The buffer to write to, needs at least as much room as the input has remaining.
+	 * @return the number of bytes written.
+	 */
+	public int update(final ByteBuffer input, final ByteBuffer output) {
+		try {
+			return this.cipher.update(input, output);
+		} catch (final ShortBufferException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Encrypts or decrypts a range of bytes into the output array, which may be the input array.
+	 * @param input The bytes to process.
+	 * @param offset The position of the first byte to process.
+	 * @param length The number of bytes to process.
+	 * @param output The array to write to.
+	 * @param outputOffset The position in the output array to start writing.
+	 * @return the number of bytes written.
+	 */
+	public int update(final byte[] input, final int offset, final int length, final byte[] output, final int outputOffset) {
+		try {
+			return this.cipher.update(input, offset, length, output, outputOffset);
+		} catch (final ShortBufferException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package ghsc.net.sockets;
+
+import java.net.NetworkInterface;
+import java.util.Objects;
+
+/**
+ * An immutable description of an active network interface, as seen by the last {@link NicManager} refresh.
+ */
+public class Nic {
+
+	private final String name;
+	private final NetworkInterface networkInterface;
+	private final String ip;
+	private final boolean multicast;
+
+	Nic(final NetworkInterface networkInterface, final String ip, final boolean multicast) {
+		this.name = networkInterface.getName();
+		this.networkInterface = networkInterface;
+		this.ip = ip;
+		this.multicast = multicast;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public NetworkInterface getNetworkInterface() {
+		return this.networkInterface;
+	}
+
+	/**
+	 * @return the IPv4 address of the interface.
+	 */
+	public String getIp() {
+		return this.ip;
+	}
+
+	/**
+	 * @return whether the interface supports multicast.
+	 */
+	public boolean supportsMulticast() {
+		return this.multicast;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (!(o instanceof Nic)) {
+			return false;
+		}
+		final Nic other = (Nic) o;
+		return this.name.equals(other.name) && this.ip.equals(other.ip) && this.multicast == other.multicast;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.name, this.ip, this.multicast);
+	}
+
+	@Override
+	public String toString() {
+		return this.name + " (" + this.ip + ")";
+	}
+
+}
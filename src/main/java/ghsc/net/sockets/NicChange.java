@@ -0,0 +1,34 @@
+package ghsc.net.sockets;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The difference between two consecutive interface snapshots of a {@link NicManager}.<br>
+ * An interface whose address or multicast support changed is reported as removed and then added again.
+ */
+public class NicChange {
+
+	private final List<Nic> added;
+	private final List<Nic> removed;
+
+	NicChange(final List<Nic> added, final List<Nic> removed) {
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+	}
+
+	/**
+	 * @return the interfaces that became active.
+	 */
+	public List<Nic> getAdded() {
+		return this.added;
+	}
+
+	/**
+	 * @return the interfaces that are no longer active, as they were before the change.
+	 */
+	public List<Nic> getRemoved() {
+		return this.removed;
+	}
+
+}
@@ -6,21 +6,83 @@ import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class NicManager {
+import ghsc.event.EventProvider;
+import ghsc.event.IEventProvider;
+
+/**
+ * Keeps an immutable snapshot of the active network interfaces, which is refreshed in the background.<br>
+ * Whenever a refresh finds a difference, only the difference is sent to the change listeners.
+ */
+public class NicManager implements ISocketController {
+	
+	private static final long REFRESH_DELAY = 10000;
 	
-	private Map<String, String> currentInterfaces;
+	private final EventProvider<NicChange> changeEventProvider = new EventProvider<>();
+	private volatile Map<String, Nic> currentInterfaces;
+	private ScheduledExecutorService refresher;
 	
 	public NicManager() {
         this.currentInterfaces = this.enumInterfaces();
 	}
 	
+	/**
+	 * Starts refreshing the snapshot in the background.
+	 */
+	@Override
+	public synchronized void start() {
+		if (this.refresher == null) {
+			this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread thread = new Thread(r);
+				thread.setName("NicManager|Refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.refresher.scheduleWithFixedDelay(this::refresh, REFRESH_DELAY, REFRESH_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Stops refreshing the snapshot.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.refresher != null) {
+			this.refresher.shutdownNow();
+			this.refresher = null;
+		}
+	}
+	
+	/**
+	 * Gets the provider of interface change events. Events are fired from the refresh thread.
+	 */
+	public IEventProvider<NicChange> getChangeEventProvider() {
+		return this.changeEventProvider;
+	}
+	
 	public Set<String> getInterfaces() {
 		return this.currentInterfaces.keySet();
 	}
 	
-	private Map<String, String> enumInterfaces() {
-		final LinkedHashMap<String, String> newInterfaces = new LinkedHashMap<>();
+	/**
+	 * @return all active interfaces as of the last refresh.
+	 */
+	public Collection<Nic> getSnapshot() {
+		return this.currentInterfaces.values();
+	}
+	
+	public Nic getInterface(final String interfaceName) {
+		if (interfaceName != null) {
+			return this.currentInterfaces.get(interfaceName);
+		}
+		return null;
+	}
+	
+	private Map<String, Nic> enumInterfaces() {
+		final LinkedHashMap<String, Nic> newInterfaces = new LinkedHashMap<>();
 		final Enumeration<NetworkInterface> interfaces;
 		try {
 			interfaces = NetworkInterface.getNetworkInterfaces();
@@ -31,8 +93,10 @@ public class NicManager {
 		for (final NetworkInterface xface : Collections.list(interfaces)) {
 			//printNetworkInterface(xface);
 			boolean isUp = false;
+			boolean supportsMulticast = false;
 			try {
 				isUp = xface.isUp();
+				supportsMulticast = isUp && xface.supportsMulticast();
 			} catch (final SocketException e) {
 				System.err.println(e + ":  " + e.getMessage());
 			}
@@ -42,39 +106,47 @@ public class NicManager {
 					final InetAddress inetAddress = interfaceAddress.getAddress();
 					if ((inetAddress instanceof Inet4Address) &&
 						(!inetAddress.isLoopbackAddress())) {
-						final boolean isReachable = true;
-//						boolean isReachable = false;
-//						try {
-//							isReachable = inetAddress.isReachable(3000);
-//						} catch (IOException e) {
-//							System.err.println(e + ":  " + e.getMessage());
-//						}
 						// TODO should we restrict to only IPv4?
-						if (isReachable) {
-							newInterfaces.put(xface.getName(), inetAddress.getHostAddress());
-							break;
-						}
+						newInterfaces.put(xface.getName(), new Nic(xface, inetAddress.getHostAddress(), supportsMulticast));
+						break;
 					}
 				}
 			}
 		}
-		return newInterfaces;
+		return Collections.unmodifiableMap(newInterfaces);
 	}
 	
-	public Set<String> updateInterfaces() {
-		final Map<String, String> newInterfaces = this.enumInterfaces();
-		if (this.currentInterfaces.keySet().equals(newInterfaces.keySet())) {
+	/**
+	 * Enumerates the interfaces right away and notifies the change listeners if anything changed.
+	 * @return the change, or <code>null</code> if nothing changed.
+	 */
+	public synchronized NicChange refresh() {
+		final Map<String, Nic> newInterfaces = this.enumInterfaces();
+		final Map<String, Nic> oldInterfaces = this.currentInterfaces;
+		if (oldInterfaces.equals(newInterfaces)) {
 			return null;
 		}
-        this.currentInterfaces = newInterfaces;
-		return newInterfaces.keySet();
+		final ArrayList<Nic> added = new ArrayList<>();
+		final ArrayList<Nic> removed = new ArrayList<>();
+		for (final Nic nic : oldInterfaces.values()) {
+			if (!nic.equals(newInterfaces.get(nic.getName()))) {
+				removed.add(nic);
+			}
+		}
+		for (final Nic nic : newInterfaces.values()) {
+			if (!nic.equals(oldInterfaces.get(nic.getName()))) {
+				added.add(nic);
+			}
+		}
+		this.currentInterfaces = newInterfaces;
+		final NicChange change = new NicChange(added, removed);
+		this.changeEventProvider.fireEvent(change);
+		return change;
 	}
 	
 	public String getIp(final String interfaceName) {
-		if (interfaceName != null) {
-			return this.currentInterfaces.get(interfaceName);
-		}
-		return null;
+		final Nic nic = this.getInterface(interfaceName);
+		return nic != null ? nic.getIp() : null;
 	}
 	
 	private static void printNetworkInterface(final NetworkInterface networkInterface) {
@@ -1,5 +1,7 @@
 package ghsc.net.sockets;
 
+import ghsc.gui.Application;
+import ghsc.net.sockets.channel.ChannelEngine;
 import ghsc.net.sockets.filetransfer.FileTransferListener;
 import ghsc.net.sockets.multicast.MulticastSocketController;
 import ghsc.net.sockets.user.UserSocketListener;
@@ -13,6 +15,7 @@ import java.util.ArrayList;
 public class SocketManager implements ISocketController {
 	
 	private final ArrayList<ISocketController> controllers;
+	private final ChannelEngine channelEngine;
 
 	/**
 	 * Force creation through factory function.
@@ -20,14 +23,24 @@ public class SocketManager implements ISocketController {
 	public SocketManager() throws IOException {
         // Create controllers
         this.controllers = new ArrayList<>();
+        this.controllers.add(Application.NETWORK);
+        this.channelEngine = new ChannelEngine();
+        this.controllers.add(this.channelEngine);
         final FileTransferListener fileListener = new FileTransferListener();
         this.controllers.add(fileListener);
-        final UserSocketListener userListener = new UserSocketListener();
+        final UserSocketListener userListener = new UserSocketListener(this.channelEngine);
         this.controllers.add(userListener);
-        final MulticastSocketController multicastSocketController = new MulticastSocketController(userListener.getPort());
+        final MulticastSocketController multicastSocketController = new MulticastSocketController(userListener.getPort(), this.channelEngine);
         this.controllers.add(multicastSocketController);
 	}
 	
+	/**
+	 * Gets the engine which services all user connections.
+	 */
+	public ChannelEngine getChannelEngine() {
+		return this.channelEngine;
+	}
+	
 	/**
 	 * Starts all the socket controllers in order.
 	 */
@@ -0,0 +1,202 @@
+package ghsc.net.sockets.channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.net.encryption.AES;
+import ghsc.net.sockets.input.Encoding;
+import ghsc.net.sockets.input.Framing;
+import ghsc.net.sockets.input.MessageConnection;
+import ghsc.net.sockets.input.MessageDecoder;
+import ghsc.net.sockets.input.OutboundQueue;
+import ghsc.net.sockets.input.PreparedMessage;
+import ghsc.util.Tag;
+
+/**
+ * A non-blocking message connection serviced by an {@link EventLoop} of a {@link ChannelEngine}.<br>
+ * Received messages are dispatched from the event loop thread, and sent messages are written by it.<br>
+ * The end of stream callback also runs on the event loop thread, whichever thread closed the connection.
+ */
+public class ChannelConnection implements MessageConnection {
+
+	/**
+	 * The maximum number of frames handed to the channel in one gathering write.
+	 */
+	private static final int GATHER_LIMIT = 64;
+
+	private final EventLoop loop;
+	private final SocketChannel channel;
+	private final MessageDecoder decoder;
+	private final Runnable endOfStream;
+
+	private final OutboundQueue outbound;
+	private final ByteBuffer[] gather = new ByteBuffer[GATHER_LIMIT];
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	private volatile Framing framing = Framing.LEGACY;
+	private volatile Encoding encoding = Encoding.TEXT;
+	private SelectionKey key;
+
+	ChannelConnection(final EventLoop loop, final SocketChannel channel, final EventListener<MessageEvent> callback, final Runnable endOfStream, final long outboundLimit, final OutboundQueue.Policy policy) {
+		this.loop = loop;
+		this.channel = channel;
+		this.decoder = new MessageDecoder(callback);
+		this.endOfStream = endOfStream;
+		this.outbound = new OutboundQueue(outboundLimit, policy, this::close);
+	}
+
+	/**
+	 * Registers the channel with the event loop. Anything sent before starting is written once registered.
+	 */
+	@Override
+	public void start() {
+		if (this.started.compareAndSet(false, true)) {
+			this.loop.execute(() -> {
+				if (this.closed.get()) {
+					return;
+				}
+				try {
+					this.channel.configureBlocking(false);
+					this.key = this.loop.register(this.channel, this.outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+				} catch (final IOException | RuntimeException e) {
+					this.close();
+				}
+			});
+		}
+	}
+
+	@Override
+	public AES getEncryption() {
+		return this.decoder.getEncryption();
+	}
+
+	@Override
+	public void setEncryption(final AES cipher) {
+		this.decoder.setEncryption(cipher);
+	}
+
+	@Override
+	public Framing getFraming() {
+		return this.framing;
+	}
+
+	@Override
+	public void setFraming(final Framing framing) {
+		this.framing = framing;
+	}
+
+	@Override
+	public Encoding getEncoding() {
+		return this.encoding;
+	}
+
+	@Override
+	public void setEncoding(final Encoding encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * @return the queue of frames waiting to be written.
+	 */
+	public OutboundQueue getOutbound() {
+		return this.outbound;
+	}
+
+	/**
+	 * Encrypts and frames the given data on the calling thread, then queues it to be written by the event loop.
+	 * @param tag The data to send.
+	 */
+	@Override
+	public void send(final Tag tag) {
+		this.send(new PreparedMessage(tag));
+	}
+
+	@Override
+	public void send(final PreparedMessage message) {
+		if (this.closed.get()) {
+			return;
+		}
+		if (this.outbound.offer(ByteBuffer.wrap(message.getFrame(this.framing, this.encoding, this.decoder.getEncryption())))
+				&& this.writeScheduled.compareAndSet(false, true)) {
+			this.loop.execute(() -> {
+				this.writeScheduled.set(false);
+				try {
+					if (this.key != null && this.key.isValid()) {
+						this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				} catch (final CancelledKeyException e) {
+					this.close(); // closed on another thread since the key was checked
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads whatever is available from the channel and feeds it to the decoder.
+	 */
+	void read() throws IOException {
+		final ByteBuffer buffer = this.loop.getReadBuffer();
+		buffer.clear();
+		final int read = this.channel.read(buffer);
+		if (read < 0) {
+			this.close();
+			return;
+		}
+		buffer.flip();
+		this.decoder.append(buffer);
+	}
+
+	/**
+	 * Writes queued frames until the queue is empty or the socket buffer is full.<br>
+	 * Frames are gathered so that several of them go out in a single write.
+	 */
+	void write() throws IOException {
+		int count;
+		while ((count = this.outbound.peek(this.gather)) > 0) {
+			this.channel.write(this.gather, 0, count);
+			final boolean full = this.gather[count - 1].hasRemaining();
+			Arrays.fill(this.gather, 0, count, null);
+			this.outbound.removeWritten();
+			if (full) {
+				return; // socket buffer is full, wait for the next write event
+			}
+		}
+		this.key.interestOps(SelectionKey.OP_READ);
+		if (!this.outbound.isEmpty()) {
+			// a frame was queued after the queue was drained, but before write interest was removed
+			this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Closes the channel and notifies the end of stream callback on the event loop thread. Only the first call has any effect.
+	 */
+	@Override
+	public void close() {
+		if (this.closed.compareAndSet(false, true)) {
+			if (this.key != null) {
+				this.key.cancel();
+			}
+			try {
+				this.channel.close();
+			} catch (final IOException ignored) {}
+			this.outbound.close();
+			this.decoder.close();
+			if (this.loop.inEventLoop()) {
+				this.endOfStream.run();
+			} else {
+				this.loop.execute(this.endOfStream);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package ghsc.net.sockets.channel;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.net.sockets.ISocketController;
+import ghsc.net.sockets.input.OutboundQueue;
+
+/**
+ * Multiplexes any number of user connections over a small, fixed pool of selector threads,</br>
+ * instead of dedicating a blocking thread to every connection.
+ */
+public class ChannelEngine implements ISocketController {
+
+	private static final int MAX_LOOPS = 4;
+
+	private final EventLoop[] loops;
+	private final long outboundLimit;
+	private final OutboundQueue.Policy policy;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Initializes a new ChannelEngine with one event loop per processor, up to four event loops.
+	 * @throws IOException If an error occurs when opening a selector.
+	 */
+	public ChannelEngine() throws IOException {
+		this(Math.max(1, Math.min(MAX_LOOPS, Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Initializes a new ChannelEngine.
+	 * @param loopCount The number of event loop threads.
+	 * @throws IOException If an error occurs when opening a selector.
+	 */
+	public ChannelEngine(final int loopCount) throws IOException {
+		this(loopCount, OutboundQueue.DEFAULT_LIMIT, OutboundQueue.Policy.DISCONNECT);
+	}
+
+	/**
+	 * Initializes a new ChannelEngine.
+	 * @param loopCount The number of event loop threads.
+	 * @param outboundLimit The maximum amount of bytes waiting to be written on each connection.
+	 * @param policy What to do with sent messages once a connection reaches the outbound limit.</br>
+	 * {@link OutboundQueue.Policy#BLOCK} isn't allowed, since messages are also sent from the event loop threads.
+	 * @throws IOException If an error occurs when opening a selector.
+	 */
+	public ChannelEngine(final int loopCount, final long outboundLimit, final OutboundQueue.Policy policy) throws IOException {
+		if (loopCount <= 0) {
+			throw new IllegalArgumentException("Loop count: can't be less than or equal to 0.");
+		}
+		if (outboundLimit <= 0) {
+			throw new IllegalArgumentException("Outbound limit: can't be less than or equal to 0.");
+		}
+		if (policy == OutboundQueue.Policy.BLOCK) {
+			throw new IllegalArgumentException("Policy: an event loop can't wait for itself.");
+		}
+		this.outboundLimit = outboundLimit;
+		this.policy = policy;
+		this.loops = new EventLoop[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			this.loops[i] = new EventLoop("ChannelEngine|Loop-" + i);
+		}
+	}
+
+	/**
+	 * Creates a connection for the given channel, which is assigned to one of the event loops.<br>
+	 * The connection doesn't receive anything until it's started.
+	 * @param channel The connected socket channel.
+	 * @param callback Receives all decoded messages, called from the event loop thread.
+	 * @param endOfStream Called once the connection closes.
+	 * @return a new connection.
+	 */
+	public ChannelConnection open(final SocketChannel channel, final EventListener<MessageEvent> callback, final Runnable endOfStream) {
+		final int index = (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length;
+		return new ChannelConnection(this.loops[index], channel, callback, endOfStream, this.outboundLimit, this.policy);
+	}
+
+	/**
+	 * Starts all the event loops.
+	 */
+	@Override
+	public void start() {
+		for (final EventLoop loop : this.loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * Stops all the event loops and closes every connection registered to them.
+	 */
+	@Override
+	public void close() {
+		for (final EventLoop loop : this.loops) {
+			loop.close();
+		}
+	}
+
+}
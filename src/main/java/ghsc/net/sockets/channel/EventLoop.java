@@ -0,0 +1,134 @@
+package ghsc.net.sockets.channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread which services the reads and writes of all its registered connections.
+ */
+class EventLoop {
+
+	private static final int READ_BUFFER = 65536;
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	/**
+	 * Shared by all the connections of this loop, since reads are processed one at a time.
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+
+	private volatile boolean running = true;
+	/**
+	 * Set once the loop thread stopped, after which tasks run on the thread that executes them.
+	 */
+	private volatile boolean terminated;
+
+	EventLoop(final String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this::loop);
+		this.thread.setName(name);
+	}
+
+	void start() {
+		this.thread.start();
+	}
+
+	void close() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Runs the given task on the event loop thread, or on the calling thread if the loop already stopped.<br>
+	 * A task that throws is reported and doesn't stop the loop, tasks that touch a connection close it themselves.
+	 * @param task The task to run.
+	 */
+	void execute(final Runnable task) {
+		this.tasks.add(task);
+		if (this.terminated && this.tasks.remove(task)) {
+			runTask(task);
+			return;
+		}
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return whether the calling thread is the event loop thread.
+	 */
+	boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	private static void runTask(final Runnable task) {
+		try {
+			task.run();
+		} catch (final RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Registers the channel with this loop's selector. Must be called from the event loop thread.
+	 */
+	SelectionKey register(final SocketChannel channel, final int ops, final ChannelConnection connection) throws ClosedChannelException {
+		return channel.register(this.selector, ops, connection);
+	}
+
+	ByteBuffer getReadBuffer() {
+		return this.readBuffer;
+	}
+
+	private void loop() {
+		try {
+			while (this.running) {
+				this.selector.select();
+				Runnable task;
+				while ((task = this.tasks.poll()) != null) {
+					runTask(task);
+				}
+				final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final ChannelConnection connection = (ChannelConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.write();
+						}
+					} catch (final IOException e) {
+						connection.close();
+					} catch (final RuntimeException e) {
+						e.printStackTrace();
+						connection.close();
+					}
+				}
+			}
+		} catch (final IOException e) {
+			System.out.println(this.thread.getName() + " interrupted.");
+		} finally {
+			for (final SelectionKey key : new ArrayList<>(this.selector.keys())) {
+				((ChannelConnection) key.attachment()).close();
+			}
+			try {
+				this.selector.close();
+			} catch (final IOException ignored) {}
+			this.terminated = true;
+			Runnable task;
+			while ((task = this.tasks.poll()) != null) {
+				runTask(task);
+			}
+		}
+	}
+
+}
@@ -5,8 +5,12 @@ import ghsc.gui.fileshare.FileShare;
 import ghsc.net.sockets.ISocketController;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.function.Supplier;
 
 /**
  * The task of FileTransferListener is to listen for any incoming TCP file transfer connections and accept them.
@@ -15,29 +19,47 @@ public class FileTransferListener implements ISocketController {
 	
 	public static final int PORT = 5687;
 	
-	private final FileShare fileShare;
-	private final ServerSocket socket;
+	private final Supplier<FileShare> fileShare;
+	private final ServerSocketChannel socket;
 	private final int selfPort;
 	
 	private final Thread listener;
 
 	/**
-	 * Initializes a new FileTransferListener.
+	 * Initializes a new FileTransferListener on {@link #PORT}, which is the port other users connect to for file transfers.
 	 * @throws IOException If an error occurs when creating the underlying server socket.
 	 */
 	public FileTransferListener() throws IOException {
-		final Application application = Application.getInstance();
-		this.fileShare = application.getFileShare();
+		this(PORT, () -> Application.getInstance().getFileShare());
+	}
+
+	/**
+	 * Initializes a new FileTransferListener.
+	 * @param port The port to listen on, or <tt>0</tt> for any free port.
+	 * @param fileShare Provides the file share that processes accepted connections,</br>
+	 * which is asked for every connection since it's created after the listener.
+	 * @throws IOException If an error occurs when creating the underlying server socket.
+	 */
+	public FileTransferListener(final int port, final Supplier<FileShare> fileShare) throws IOException {
+		this.fileShare = fileShare;
 		//socket = new ServerSocket(0, 10, Inet4Address.getByName(Application.NETWORK.getIP()));
-		this.socket = new ServerSocket(0, 10, null);
-		this.selfPort = this.socket.getLocalPort();
+		// accepted sockets have a channel, so files can be sent straight from the disk to them, see SocketIO
+		this.socket = ServerSocketChannel.open();
+		this.socket.socket().bind(new InetSocketAddress(port), 10);
+		this.selfPort = this.socket.socket().getLocalPort();
 		this.listener = new Thread(() -> {
 			try {
 				try {
                     while (true) {
-                        this.fileShare.process(this.socket.accept());
+                        final Socket accepted = this.socket.accept().socket();
+                        final FileShare fs = this.fileShare.get();
+                        if (fs != null) {
+                            fs.process(accepted);
+                        } else {
+                            accepted.close(); // nothing to share yet
+                        }
                     }
-                } catch (final SocketException se) {
+                } catch (final SocketException | ClosedChannelException se) {
 				    throw se;
 				} catch (final IOException e) {
 					e.printStackTrace();
@@ -0,0 +1,138 @@
+package ghsc.net.sockets.input;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of byte arrays in power of two size classes, shared by all connections.<br>
+ * Arrays are borrowed for as long as a frame is being read or written, and returned afterwards so the next frame can reuse them.
+ */
+public class BufferPool {
+
+	/**
+	 * The smallest size class, 1 KB.
+	 */
+	private static final int MIN_SHIFT = 10;
+	/**
+	 * The largest size class, 16 MB. Larger arrays are allocated, but never kept.
+	 */
+	private static final int MAX_SHIFT = 24;
+
+	/**
+	 * The default amount of memory all borrowed arrays together may take up.
+	 */
+	public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+	public static final BufferPool SHARED = new BufferPool(DEFAULT_CAPACITY);
+
+	private final long capacity;
+	private final long idleCapacity;
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ConcurrentLinkedQueue<byte[]>[] classes = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+
+	private final AtomicLong inUse = new AtomicLong();
+	private final AtomicLong idle = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Initializes a new BufferPool.
+	 * @param capacity The amount of memory all borrowed arrays together may take up. A quarter of it is kept for reuse.
+	 */
+	public BufferPool(final long capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity: can't be less than or equal to 0.");
+		}
+		this.capacity = capacity;
+		this.idleCapacity = capacity / 4;
+		for (int i = 0; i < this.classes.length; i++) {
+			this.classes[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * Finds the size class an array of the given length belongs to.
+	 * @return the index of the size class, or <code>-1</code> if it's larger than all size classes.
+	 */
+	private static int classOf(final int length) {
+		if (length <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		final int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+		return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+	}
+
+	/**
+	 * Borrows an array of at least the given length. It must be given back with {@link #release(byte[])}.
+	 * @param length The minimum length of the array.
+	 * @return an array which may be longer than requested, and may contain data from its previous use.
+	 * @throws IOException If borrowing the array would exceed the capacity of the pool.
+	 */
+	public byte[] borrow(final int length) throws IOException {
+		final int index = classOf(length);
+		final int size = index < 0 ? length : 1 << (index + MIN_SHIFT);
+		if (this.inUse.addAndGet(size) > this.capacity) {
+			this.inUse.addAndGet(-size);
+			throw new IOException("Buffer pool exhausted, can't borrow " + length + " bytes.");
+		}
+		if (index >= 0) {
+			final byte[] array = this.classes[index].poll();
+			if (array != null) {
+				this.idle.addAndGet(-size);
+				this.hits.incrementAndGet();
+				return array;
+			}
+		}
+		this.misses.incrementAndGet();
+		return new byte[size];
+	}
+
+	/**
+	 * Returns a borrowed array to the pool.
+	 * @param array The array to return, may be <code>null</code>.
+	 */
+	public void release(final byte[] array) {
+		if (array == null) {
+			return;
+		}
+		this.inUse.addAndGet(-array.length);
+		final int index = classOf(array.length);
+		if (index >= 0 && array.length == 1 << (index + MIN_SHIFT)) {
+			if (this.idle.addAndGet(array.length) <= this.idleCapacity) {
+				this.classes[index].add(array);
+			} else {
+				this.idle.addAndGet(-array.length);
+			}
+		}
+	}
+
+	/**
+	 * @return how many arrays were borrowed from the pool without allocating.
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return how many arrays had to be allocated because the pool had none of the right size.
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the combined length of all arrays that are currently borrowed.
+	 */
+	public long getBytesInUse() {
+		return this.inUse.get();
+	}
+
+	/**
+	 * @return the combined length of all arrays kept for reuse.
+	 */
+	public long getBytesIdle() {
+		return this.idle.get();
+	}
+
+}
@@ -0,0 +1,19 @@
+package ghsc.net.sockets.input;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives raw bytes that were streamed outside of any frame, such as the contents of a file.
+ */
+public interface BulkReceiver {
+
+	/**
+	 * Called for every piece of the stream, in order.
+	 * @param data The received bytes, only valid until this method returns. May be modified, e.g. decrypted in place.
+	 * @param last Whether this is the last piece of the declared length.
+	 * @throws IOException If the bytes couldn't be stored, which breaks the connection.
+	 */
+	void received(ByteBuffer data, boolean last) throws IOException;
+
+}
@@ -0,0 +1,80 @@
+package ghsc.net.sockets.input;
+
+/**
+ * Describes how a MessageEvent is written before it's encrypted and framed.<br>
+ * <br>
+ * Text format:<br>{@code <name key="value[base64]">post}<br>
+ * Binary format:<br>{@code [type:1]([attribute:varint][length:varint]value)*[0]post}<br>
+ * An attribute is written as <code>1</code> followed by its length prefixed key, or as its index in the dictionary of the message type plus <code>2</code>.<br>
+ * <br>
+ * The binary format is only sent in binary frames, whose frame type tells the MessageDecoder which format to read.
+ */
+public enum Encoding {
+
+	/**
+	 * The original markup, where every value is Base64 encoded between quotes.
+	 */
+	TEXT ("t", Framing.TYPE_MESSAGE),
+	/**
+	 * Compact encoding with raw, length prefixed values and numbered attributes.
+	 */
+	BINARY ("b", Framing.TYPE_BINARY_MESSAGE);
+
+	/**
+	 * The encodings this application is able to send besides text, in order of preference.
+	 */
+	public static final String SUPPORTED = BINARY.toString();
+
+	private final String identifier;
+	private final byte frameType;
+
+	Encoding(final String identifier, final byte frameType) {
+		this.identifier = identifier;
+		this.frameType = frameType;
+	}
+
+	/**
+	 * @return the type of the binary frames carrying messages in this encoding.
+	 */
+	public byte getFrameType() {
+		return this.frameType;
+	}
+
+	@Override
+	public String toString() {
+		return this.identifier;
+	}
+
+	/**
+	 * Finds an encoding by its identifier.
+	 * @param identifier The identifier of the encoding.
+	 * @return The matching encoding, or <code>null</code> if unknown.
+	 */
+	public static Encoding from(final String identifier) {
+		for (final Encoding e : values()) {
+			if (e.identifier.equals(identifier)) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Picks the best encoding out of the encodings a remote user advertised.
+	 * @param advertised The comma separated encoding identifiers sent by the remote user, may be <code>null</code>.
+	 * @return The best encoding both sides understand.
+	 */
+	public static Encoding negotiate(final String advertised) {
+		Encoding best = TEXT;
+		if (advertised != null) {
+			for (final String identifier : advertised.split(",")) {
+				final Encoding e = from(identifier.trim());
+				if (e != null && e.ordinal() > best.ordinal()) {
+					best = e; // encodings are declared from least to most preferred
+				}
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,199 @@
+package ghsc.net.sockets.input;
+
+import ghsc.net.encryption.AES;
+import ghsc.util.Utilities;
+
+/**
+ * Describes how encrypted messages are marked on the stream so they can be reassembled as packets on the other side.<br>
+ * <br>
+ * Legacy format:<br>{@code <length>payload}<br>
+ * Binary format:<br>{@code [magic:1][type:1][flags:1][length:4]payload}<br>
+ * Sealed format:<br>a binary frame with the {@link #FLAG_SEALED} flag, the payload is sealed with AES-GCM instead of encrypted with CBC.<br>
+ * <br>
+ * A MessageDecoder understands both formats at all times, so the framing only has to be negotiated for sending.
+ */
+public enum Framing {
+
+	/**
+	 * The original ASCII framing, where the length is written as decimal text between angle brackets.
+	 */
+	LEGACY ("l"),
+	/**
+	 * Fixed width binary framing with a frame type and flags.
+	 */
+	BINARY ("b"),
+	/**
+	 * Binary framing where every payload is sealed with its own nonce and authenticated.
+	 */
+	SEALED ("s");
+
+	/**
+	 * The first byte of every binary frame. Can't collide with the '<' of a legacy frame.
+	 */
+	public static final byte MAGIC = (byte) 0xB7;
+	/**
+	 * The length of a binary frame header, including the magic byte.
+	 */
+	public static final int HEADER_LENGTH = 7;
+
+	/**
+	 * Frame type of an encrypted MessageEvent.
+	 */
+	public static final byte TYPE_MESSAGE = 1;
+	/**
+	 * Frame type of an encrypted MessageEvent in the binary {@link Encoding}.
+	 */
+	public static final byte TYPE_BINARY_MESSAGE = 2;
+
+	/**
+	 * Flag of a binary frame whose payload is sealed.
+	 * @see AES#seal(byte[], int, int, byte[], int)
+	 */
+	public static final byte FLAG_SEALED = 0x01;
+
+	/**
+	 * The framings this application is able to send, in order of preference.
+	 */
+	public static final String SUPPORTED = SEALED + "," + BINARY;
+
+	private final String identifier;
+
+	Framing(final String identifier) {
+		this.identifier = identifier;
+	}
+
+	@Override
+	public String toString() {
+		return this.identifier;
+	}
+
+	/**
+	 * Calculates how many bytes the header of a frame will take up.
+	 * @param bodyLength The length of the frame body.
+	 * @return The header length in bytes.
+	 */
+	public int getHeaderLength(final int bodyLength) {
+		if (this != LEGACY) {
+			return HEADER_LENGTH;
+		}
+		return Utilities.countLength(bodyLength) + 2;
+	}
+
+	/**
+	 * Writes a message frame header into the given array.
+	 * @param dst The array to write to.
+	 * @param offset The position in the array to start writing.
+	 * @param bodyLength The length of the frame body.
+	 * @return The number of bytes written.
+	 */
+	public int writeHeader(final byte[] dst, final int offset, final int bodyLength) {
+		return this.writeHeader(dst, offset, TYPE_MESSAGE, this == SEALED ? FLAG_SEALED : 0, bodyLength);
+	}
+
+	/**
+	 * Writes a frame header into the given array.<br>
+	 * The legacy framing can only describe message frames, so the type and flags are ignored.
+	 * @param dst The array to write to.
+	 * @param offset The position in the array to start writing.
+	 * @param type The frame type.
+	 * @param flags The frame flags.
+	 * @param bodyLength The length of the frame body.
+	 * @return The number of bytes written.
+	 */
+	public int writeHeader(final byte[] dst, final int offset, final byte type, final byte flags, final int bodyLength) {
+		if (this != LEGACY) {
+			dst[offset] = MAGIC;
+			dst[offset + 1] = type;
+			dst[offset + 2] = flags;
+			writeInt(dst, offset + 3, bodyLength);
+			return HEADER_LENGTH;
+		}
+		final int digits = Utilities.countLength(bodyLength);
+		dst[offset] = '<';
+		int value = bodyLength;
+		for (int i = offset + digits; i > offset; i--) {
+			dst[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		dst[offset + digits + 1] = '>';
+		return digits + 2;
+	}
+
+	/**
+	 * Encrypts the given data and marks it as a complete frame, ready to be written to the stream.
+	 * @param cipher The cipher to encrypt the data with.
+	 * @param data The plain data.
+	 * @param offset The offset of the plain data.
+	 * @param length The length of the plain data.
+	 * @return The framed and encrypted bytes.
+	 */
+	public byte[] encode(final AES cipher, final byte[] data, final int offset, final int length) {
+		return this.encode(cipher, TYPE_MESSAGE, data, offset, length);
+	}
+
+	/**
+	 * Encrypts the given data and marks it as a complete frame of the given type, ready to be written to the stream.
+	 * @param cipher The cipher to encrypt the data with.
+	 * @param type The frame type, which the legacy framing can't describe.
+	 * @param data The plain data.
+	 * @param offset The offset of the plain data.
+	 * @param length The length of the plain data.
+	 * @return The framed and encrypted bytes.
+	 */
+	public byte[] encode(final AES cipher, final byte type, final byte[] data, final int offset, final int length) {
+		final int bodyLength = this == SEALED ? cipher.getSealedLength(length) : cipher.getEncryptedLength(length);
+		final int headerLength = this.getHeaderLength(bodyLength);
+		final byte[] frame = new byte[headerLength + bodyLength];
+		this.writeHeader(frame, 0, type, this == SEALED ? FLAG_SEALED : 0, bodyLength);
+		if (this == SEALED) {
+			cipher.seal(data, offset, length, frame, headerLength);
+		} else {
+			cipher.encrypt(data, offset, length, frame, headerLength);
+		}
+		return frame;
+	}
+
+	/**
+	 * Finds a framing by its identifier.
+	 * @param identifier The identifier of the framing.
+	 * @return The matching framing, or <code>null</code> if unknown.
+	 */
+	public static Framing from(final String identifier) {
+		for (final Framing f : values()) {
+			if (f.identifier.equals(identifier)) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Picks the best framing out of the framings a remote user advertised.
+	 * @param advertised The comma separated framing identifiers sent by the remote user, may be <code>null</code>.
+	 * @return The best framing both sides understand.
+	 */
+	public static Framing negotiate(final String advertised) {
+		Framing best = LEGACY;
+		if (advertised != null) {
+			for (final String identifier : advertised.split(",")) {
+				final Framing f = from(identifier.trim());
+				if (f != null && f.ordinal() > best.ordinal()) {
+					best = f; // framings are declared from least to most preferred
+				}
+			}
+		}
+		return best;
+	}
+
+	static int readInt(final byte[] src, final int offset) {
+		return ((src[offset] & 0xFF) << 24) | ((src[offset + 1] & 0xFF) << 16) | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+	}
+
+	static void writeInt(final byte[] dst, final int offset, final int value) {
+		dst[offset] = (byte) (value >>> 24);
+		dst[offset + 1] = (byte) (value >>> 16);
+		dst[offset + 2] = (byte) (value >>> 8);
+		dst[offset + 3] = (byte) value;
+	}
+
+}
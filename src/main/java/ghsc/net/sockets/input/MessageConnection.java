@@ -0,0 +1,68 @@
+package ghsc.net.sockets.input;
+
+import ghsc.net.encryption.AES;
+import ghsc.util.Tag;
+
+/**
+ * A connection which sends and receives framed, encrypted messages.
+ */
+public interface MessageConnection {
+
+	/**
+	 * Starts receiving messages. Calling this more than once has no effect.
+	 */
+	void start();
+
+	/**
+	 * Encrypts and frames the given data and sends it to the remote side.
+	 * @param tag The data to send.
+	 */
+	void send(Tag tag);
+
+	/**
+	 * Sends a message that may also be sent to other connections. It's only encrypted if no other connection with the same framing and cipher has done so.
+	 * @param message The message to send.
+	 */
+	void send(PreparedMessage message);
+
+	/**
+	 * @return the cipher used to encrypt and decrypt messages.
+	 */
+	AES getEncryption();
+
+	/**
+	 * Changes the cipher used to encrypt and decrypt messages.
+	 * @param cipher The new cipher.
+	 */
+	void setEncryption(AES cipher);
+
+	/**
+	 * @return the framing used to send messages.
+	 */
+	Framing getFraming();
+
+	/**
+	 * Changes the framing used to send messages.<br>
+	 * Only switch to a framing the remote side has advertised.
+	 * @param framing The new framing.
+	 */
+	void setFraming(Framing framing);
+
+	/**
+	 * @return the encoding used to send messages.
+	 */
+	Encoding getEncoding();
+
+	/**
+	 * Changes the encoding used to send messages.<br>
+	 * Only switch to an encoding the remote side has advertised. The text encoding is still sent while the framing is legacy.
+	 * @param encoding The new encoding.
+	 */
+	void setEncoding(Encoding encoding);
+
+	/**
+	 * Closes the connection. The end of stream callback will be notified.
+	 */
+	void close();
+
+}
@@ -1,105 +1,309 @@
 package ghsc.net.sockets.input;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicReference;
 
 import ghsc.event.EventListener;
 import ghsc.event.message.MessageEvent;
-import ghsc.gui.Application;
 import ghsc.net.encryption.AES;
 
 /**
- * Used to keep track of individual "message packets" as bytes are submitted to the wrapper.
+ * Used to keep track of individual "message packets" as bytes are submitted to the wrapper.<br>
+ * Both the legacy and the binary {@link Framing} are recognized, so a remote user can switch at any frame boundary.<br>
+ * Frames that arrive in pieces are collected in an array borrowed from a {@link BufferPool}, which grows as the bytes arrive,</br>
+ * and the arrays borrowed by one decoder are limited, so only the connection that exceeds its limit is closed.<br>
+ * A callback can hand a declared number of following bytes to a {@link BulkReceiver}, see {@link #receiveBulk(long, BulkReceiver)}.
  */
 public class MessageDecoder {
-	
+
+	/**
+	 * The default maximum length of a single frame.
+	 */
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+	/**
+	 * The default amount of pooled memory a single decoder may borrow, enough to collect and decrypt the longest frame.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 2L * DEFAULT_MAX_FRAME_LENGTH;
+	/**
+	 * The first length borrowed for a frame that arrives in pieces.
+	 */
+	private static final int INITIAL_BUFFER = 65536;
+
 	private enum State {
-		NO_TAG, IN_TAG, BODY
+		NO_TAG, IN_TAG, HEADER, BODY, BULK
 	}
-	
+
 	private final EventListener<MessageEvent> callback;
 	private final AtomicReference<AES> cipher;
-	
+	private final BufferPool pool;
+	private final int maxFrameLength;
+	private final long memoryLimit;
+	private long borrowed;
+
 	private State state = State.NO_TAG;
 	private long tempLength;
+	private final byte[] header = new byte[Framing.HEADER_LENGTH];
+	private int headerOffset;
+	private byte frameType;
+	private byte frameFlags;
+	private int frameLength;
 	private byte[] buffer;
 	private int offset;
-	
+	private boolean closed;
+	private BulkReceiver bulkReceiver;
+	private long bulkRemaining;
+
 	public MessageDecoder(final EventListener<MessageEvent> callback) {
 		this(AES.DEFAULT, callback);
 	}
-	
+
 	public MessageDecoder(final AES cipher, final EventListener<MessageEvent> callback) {
+		this(cipher, callback, BufferPool.SHARED, DEFAULT_MAX_FRAME_LENGTH, DEFAULT_MEMORY_LIMIT);
+	}
+
+	/**
+	 * Initializes a new MessageDecoder.
+	 * @param cipher The cipher to decrypt frames with.
+	 * @param callback Receives all decoded messages.
+	 * @param pool The pool to borrow frame buffers from.
+	 * @param maxFrameLength The maximum length of a frame. A longer frame is treated as a broken stream.
+	 * @param memoryLimit The most memory this decoder may borrow from the pool at once. Exceeding it is treated as a broken stream.
+	 */
+	public MessageDecoder(final AES cipher, final EventListener<MessageEvent> callback, final BufferPool pool, final int maxFrameLength, final long memoryLimit) {
+		if (maxFrameLength <= 0) {
+			throw new IllegalArgumentException("Max frame length: can't be less than or equal to 0.");
+		}
+		if (memoryLimit <= 0) {
+			throw new IllegalArgumentException("Memory limit: can't be less than or equal to 0.");
+		}
 		this.callback = callback;
 		this.cipher = new AtomicReference<>(cipher);
+		this.pool = pool;
+		this.maxFrameLength = maxFrameLength;
+		this.memoryLimit = memoryLimit;
 	}
-	
+
 	public AES getEncryption() {
 		return this.cipher.get();
 	}
-	
+
 	public void setEncryption(final AES cipher) {
 		synchronized (this.cipher) {
 			this.cipher.set(cipher);
 		}
 	}
-	
-	public void append(final byte[] buf, final int bufLen) {
+
+	/**
+	 * @return the combined length of the arrays this decoder currently borrowed from the pool.
+	 */
+	public long getBytesBorrowed() {
 		synchronized (this.cipher) {
-			int bufOff = 0;
-			outer:
-			while (bufOff < bufLen) {
+			return this.borrowed;
+		}
+	}
+
+	/**
+	 * Hands the given number of bytes that follow the frame being dispatched to a receiver, instead of decoding them.<br>
+	 * Only to be called by the callback, the bytes are handed over before the callback returns to this decoder.
+	 * @param length The number of raw bytes the other side declared.
+	 * @param receiver Receives the bytes as they arrive, on the thread that appends them.
+	 */
+	public void receiveBulk(final long length, final BulkReceiver receiver) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Length: can't be less than 0.");
+		}
+		synchronized (this.cipher) {
+			if (length > 0) {
+				this.bulkReceiver = receiver;
+				this.bulkRemaining = length;
+				this.state = State.BULK;
+			}
+		}
+	}
+
+	public void append(final byte[] buf, final int bufLen) throws IOException {
+		this.append(ByteBuffer.wrap(buf, 0, bufLen));
+	}
+
+	/**
+	 * Consumes all the remaining bytes of the given buffer.<br>
+	 * Complete frames are decrypted and dispatched to the callback before this method returns.
+	 * @param buf The received bytes.
+	 * @throws IOException If a frame is longer than allowed, this decoder exceeds its memory limit, or no buffer could be borrowed.
+	 */
+	public void append(final ByteBuffer buf) throws IOException {
+		synchronized (this.cipher) {
+			if (this.closed) {
+				buf.position(buf.limit());
+				return;
+			}
+			while (buf.hasRemaining()) {
 				switch (this.state) {
 					case NO_TAG:
-						for (; bufOff < bufLen; bufOff++) {
-							if (((char) buf[bufOff]) == '<') {
-                                this.state = State.IN_TAG;
-                                this.tempLength = 0L;
-								bufOff++;
-								continue outer;
-							}
+						final byte start = buf.get();
+						if (start == '<') {
+							this.state = State.IN_TAG;
+							this.tempLength = 0L;
+						} else if (start == Framing.MAGIC) {
+							this.state = State.HEADER;
+							this.headerOffset = 1;
 						}
-						break outer;
+						break;
 					case IN_TAG:
-						for (; bufOff < bufLen; bufOff++) {
-							final char c = (char) buf[bufOff];
-							if (c == '>') {
-                                this.state = State.BODY;
-                                this.offset = 0;
-                                this.buffer = new byte[(int) this.tempLength];
-								bufOff++;
-								continue outer;
+						final char c = (char) buf.get();
+						if (c == '>') {
+							this.beginBody(Framing.TYPE_MESSAGE, (byte) 0, (int) this.tempLength);
+							break;
+						}
+						final int i = Character.digit(c, 10);
+						if (i >= 0) {
+							this.tempLength *= 10;
+							this.tempLength += i;
+							if (this.tempLength <= Integer.MAX_VALUE) {
+								continue;
 							}
-							final int i = Character.digit(c, 10);
-							if (i >= 0) {
-                                this.tempLength *= 10;
-                                this.tempLength += i;
-								if (this.tempLength <= Integer.MAX_VALUE) {
-									continue;
-								}
+						}
+						this.state = State.NO_TAG;
+						this.tempLength = 0L;
+						break;
+					case HEADER:
+						final int headerCopy = Math.min(Framing.HEADER_LENGTH - this.headerOffset, buf.remaining());
+						buf.get(this.header, this.headerOffset, headerCopy);
+						this.headerOffset += headerCopy;
+						if (this.headerOffset >= Framing.HEADER_LENGTH) {
+							final int length = Framing.readInt(this.header, 3);
+							if (length < 0) {
+								this.state = State.NO_TAG;
+							} else {
+								this.beginBody(this.header[1], this.header[2], length);
 							}
-                            this.state = State.NO_TAG;
-                            this.tempLength = 0L;
 						}
-						break outer;
+						break;
 					case BODY:
-					    if (this.buffer == null) {
-					        throw new IllegalStateException("Buffer has not been initialized yet.");
-                        }
-						final int copyLength = Math.min(this.buffer.length - this.offset, bufLen - bufOff);
-						System.arraycopy(buf, bufOff, this.buffer, this.offset, copyLength);
-                        this.offset += copyLength;
-						bufOff += copyLength;
-						if (this.offset >= this.buffer.length) {
-							final String parsed = new String(this.cipher.get().decrypt(this.buffer), Application.CHARSET);
-                            this.callback.eventReceived(MessageEvent.parse(parsed));
-                            this.state = State.NO_TAG;
-                            this.offset = 0;
-                            this.buffer = null;
+						if (this.offset == 0 && buf.hasArray() && buf.remaining() >= this.frameLength) {
+							// the entire body is already in the buffer, so decode it in place.
+							final int position = buf.position();
+							buf.position(position + this.frameLength);
+							this.dispatch(buf.array(), buf.arrayOffset() + position);
+							break;
+						}
+						final int copyLength = Math.min(this.frameLength - this.offset, buf.remaining());
+						this.ensureBuffer(this.offset + copyLength);
+						buf.get(this.buffer, this.offset, copyLength);
+						this.offset += copyLength;
+						if (this.offset >= this.frameLength) {
+							this.dispatch(this.buffer, 0);
+						}
+						break;
+					case BULK:
+						final int bulkLength = (int) Math.min(this.bulkRemaining, buf.remaining());
+						final ByteBuffer bulk = buf.duplicate();
+						bulk.limit(bulk.position() + bulkLength);
+						buf.position(buf.position() + bulkLength);
+						this.bulkRemaining -= bulkLength;
+						final BulkReceiver receiver = this.bulkReceiver;
+						if (this.bulkRemaining == 0) {
+							this.bulkReceiver = null;
+							this.state = State.NO_TAG;
 						}
+						receiver.received(bulk, this.bulkRemaining == 0);
 						break;
 				}
 			}
 		}
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Returns the buffer of a partially received frame to the pool and ignores anything appended afterwards.
+	 */
+	public void close() {
+		synchronized (this.cipher) {
+			this.closed = true;
+			this.release(this.buffer);
+			this.buffer = null;
+			this.bulkReceiver = null;
+			this.state = State.NO_TAG;
+		}
+	}
+
+	/**
+	 * Grows the buffer of the frame being collected, so memory is only borrowed for bytes that actually arrived.
+	 * @param length The number of bytes the buffer has to hold.
+	 */
+	private void ensureBuffer(final int length) throws IOException {
+		if (this.buffer != null && this.buffer.length >= length) {
+			return;
+		}
+		final int grown = this.buffer != null ? Math.max(length, this.buffer.length * 2) : Math.max(length, INITIAL_BUFFER);
+		final byte[] next = this.borrow(Math.min(this.frameLength, grown));
+		if (this.buffer != null) {
+			System.arraycopy(this.buffer, 0, next, 0, this.offset);
+			this.release(this.buffer);
+		}
+		this.buffer = next;
+	}
+
+	/**
+	 * Borrows an array from the pool, counted against the memory limit of this decoder.
+	 */
+	private byte[] borrow(final int length) throws IOException {
+		if (this.borrowed + length > this.memoryLimit) {
+			throw new IOException("Borrowing " + length + " bytes exceeds the memory limit of " + this.memoryLimit + " bytes.");
+		}
+		final byte[] array = this.pool.borrow(length);
+		this.borrowed += array.length;
+		return array;
+	}
+
+	private void release(final byte[] array) {
+		if (array != null) {
+			this.borrowed -= array.length;
+			this.pool.release(array);
+		}
+	}
+
+	private void beginBody(final byte type, final byte flags, final int length) throws IOException {
+		if (length > this.maxFrameLength) {
+			throw new IOException("Frame of " + length + " bytes exceeds the limit of " + this.maxFrameLength + " bytes.");
+		}
+		this.frameType = type;
+		this.frameFlags = flags;
+		this.frameLength = length;
+		this.offset = 0;
+		this.state = length == 0 ? State.NO_TAG : State.BODY;
+	}
+
+	private void dispatch(final byte[] data, final int dataOffset) throws IOException {
+		final byte type = this.frameType;
+		final int length = this.frameLength;
+		this.state = State.NO_TAG;
+		this.offset = 0;
+		byte[] plain = null;
+		final MessageEvent event;
+		try {
+			if (type != Framing.TYPE_MESSAGE && type != Framing.TYPE_BINARY_MESSAGE) {
+				return; // unknown frame types are skipped
+			}
+			// frames are decrypted into a borrowed buffer, the event keeps its own copy of the bytes
+			plain = this.borrow(length);
+			final int plainLength = this.decrypt(data, dataOffset, length, plain);
+			event = type == Framing.TYPE_BINARY_MESSAGE ? MessageEvent.parseBinary(plain, 0, plainLength) : MessageEvent.parse(plain, 0, plainLength);
+		} finally {
+			this.release(plain);
+			this.release(this.buffer);
+			this.buffer = null;
+		}
+		if (event != null) {
+			this.callback.eventReceived(event);
+		}
+	}
+
+	private int decrypt(final byte[] data, final int dataOffset, final int length, final byte[] plain) {
+		if ((this.frameFlags & Framing.FLAG_SEALED) == 0) {
+			return this.cipher.get().decrypt(data, dataOffset, length, plain, 0);
+		}
+		return this.cipher.get().open(data, dataOffset, length, plain, 0);
+	}
+
+}
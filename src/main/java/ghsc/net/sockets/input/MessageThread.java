@@ -4,46 +4,101 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ghsc.event.EventListener;
 import ghsc.event.message.MessageEvent;
 import ghsc.net.encryption.AES;
+import ghsc.net.encryption.StreamCipher;
 import ghsc.util.Tag;
 
 /**
- * A utility for reading and writing to an IO stream using a dedicated thread.
+ * A utility for reading and writing to an IO stream using a dedicated thread.<br>
+ * Sent messages are queued and written by a shared pool of writer threads, so senders never wait on the socket.<br>
+ * Large data, like the contents of a file, can be streamed raw between two frames, see {@link #transfer(PreparedMessage, FileChannel, long, long, StreamCipher)}.
  */
-public class MessageThread {
-	
-	private static final Charset UTF8 = Charset.forName("UTF-8");
+public class MessageThread implements MessageConnection {
+
+	private static final int READ_BUFFER = 8192;
+	private static final int COALESCE_BUFFER = 65536;
+	private static final int BULK_BUFFER = 65536;
+
+	/**
+	 * Drains the outbound queues of all connections.<br>
+	 * Not bounded on purpose: a drain is only scheduled while none is running for its connection (see {@link #writeScheduled}),</br>
+	 * so there are never more writers than open connections, each of which already has its own work thread.<br>
+	 * A fixed number of writers would let a peer that stopped reading block the writes to every other peer.</br>
+	 * The bytes waiting for a writer are bounded by the outbound limit of each connection instead.
+	 */
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+		final Thread thread = new Thread(r);
+		thread.setName("MessageThread|Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	private final IOWrapper io;
 	private final Thread workThread;
 	private final MessageDecoder decoder;
 	private final Runnable endOfStream;
+	private final OutboundQueue outbound;
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	/**
+	 * Held while writing to the output stream, so a raw transfer can't be interleaved with queued frames.
+	 */
+	private final Object writeLock = new Object();
 
 	private boolean started;
+	private volatile Framing framing = Framing.LEGACY;
+	private volatile Encoding encoding = Encoding.TEXT;
 	
 	public MessageThread(final IOWrapper io, final EventListener<MessageEvent> callback, final Runnable endOfStream) {
+		this(io, callback, endOfStream, OutboundQueue.DEFAULT_LIMIT, OutboundQueue.Policy.DISCONNECT);
+	}
+
+	/**
+	 * Initializes a new MessageThread.
+	 * @param io Provides the streams to read from and write to.
+	 * @param callback Receives all decoded messages, called from the work thread.
+	 * @param endOfStream Called once the input stream ends.
+	 * @param outboundLimit The maximum amount of bytes waiting to be written.
+	 * @param policy What to do with sent messages once the outbound limit is reached.
+	 */
+	public MessageThread(final IOWrapper io, final EventListener<MessageEvent> callback, final Runnable endOfStream, final long outboundLimit, final OutboundQueue.Policy policy) {
 		this.io = io;
 		this.endOfStream = endOfStream;
+		this.outbound = new OutboundQueue(outboundLimit, policy, this::close);
 		this.decoder = new MessageDecoder(callback);
 		this.workThread = new Thread(() -> {
+			byte[] buf = null;
 			try {
 				final InputStream stream = this.io.getInputStream();
-				final byte[] buf = new byte[8192];
+				buf = BufferPool.SHARED.borrow(READ_BUFFER);
+				final ByteBuffer buffer = ByteBuffer.wrap(buf);
 				int bufLength;
 				while ((bufLength = stream.read(buf)) >= 0) {
-					this.decoder.append(buf, bufLength);
+					buffer.clear();
+					buffer.limit(bufLength);
+					this.decoder.append(buffer);
 				}
 			} catch (final IOException ignored) {
+			} finally {
+				BufferPool.SHARED.release(buf);
 			}
+			this.decoder.close();
+			this.outbound.close();
 			this.endOfStream.run();
 		});
 		this.workThread.setName("MessageThread");
 	}
 	
+	@Override
 	public void start() {
 		if (!this.started) {
             this.started = true;
@@ -51,10 +106,47 @@ public class MessageThread {
 		}
 	}
 	
+	@Override
+	public AES getEncryption() {
+		return this.decoder.getEncryption();
+	}
+	
+	@Override
 	public void setEncryption(final AES cipher) {
         this.decoder.setEncryption(cipher);
 	}
 
+	@Override
+	public Framing getFraming() {
+		return this.framing;
+	}
+	
+	@Override
+	public void setFraming(final Framing framing) {
+		this.framing = framing;
+	}
+
+	@Override
+	public Encoding getEncoding() {
+		return this.encoding;
+	}
+
+	@Override
+	public void setEncoding(final Encoding encoding) {
+		this.encoding = encoding;
+	}
+	
+	/**
+	 * Discards any unsent messages and closes the input stream, which stops the work thread and notifies the end of stream callback.
+	 */
+	@Override
+	public void close() {
+		this.outbound.close();
+		try {
+			this.io.getInputStream().close();
+		} catch (final IOException ignored) {}
+	}
+
 	/**
 	 * @return the IOWrapper that this MessageThread encloses.
 	 */
@@ -62,29 +154,187 @@ public class MessageThread {
 		return this.io;
 	}
 	
+	/**
+	 * @return the queue of frames waiting to be written.
+	 */
+	public OutboundQueue getOutbound() {
+		return this.outbound;
+	}
+	
 	/**
 	 * Encrypts the given data string into bytes,</br>
 	 * then marks the bytes so they can be reassembled as packets on the other side</br>
-	 * and sends them through the TCP socket to be received by the connected user.
+	 * and queues them to be sent through the TCP socket to the connected user.
 	 * @param tag The data to send through the socket.
 	 */
-	public synchronized void send(final Tag tag) {
-		try {
+	@Override
+	public void send(final Tag tag) {
+		this.send(new PreparedMessage(tag));
+	}
+
+	@Override
+	public void send(final PreparedMessage message) {
+		this.queue(message.getFrame(this.framing, this.encoding, this.decoder.getEncryption()));
+	}
+
+	/**
+	 * Sends a message with the current encryption, and switches to another one before it's written,</br>
+	 * so a reply to the message is already decrypted with the new one.
+	 * @param message The message to send, usually the new key.
+	 * @param cipher The encryption for everything sent and received after the message.
+	 */
+	public void send(final PreparedMessage message, final AES cipher) {
+		final byte[] frame = message.getFrame(this.framing, this.encoding, this.decoder.getEncryption());
+		this.decoder.setEncryption(cipher);
+		this.queue(frame);
+	}
+
+	private void queue(final byte[] frame) {
+		if (this.outbound.offer(ByteBuffer.wrap(frame)) && this.writeScheduled.compareAndSet(false, true)) {
+			WRITERS.execute(this::drain);
+		}
+	}
+
+	/**
+	 * Writes a frame followed by a range of a file as raw bytes, once all the frames queued before have been written.<br>
+	 * The frame should declare the length, so the other side can pass the raw bytes to a {@link BulkReceiver}.</br>
+	 * Without a cipher the file is handed to {@link FileChannel#transferTo(long, long, WritableByteChannel)},</br>
+	 * which copies it straight to the socket where the operating system supports it.<br>
+	 * Blocks until everything was written, frames sent in the meantime are queued and written afterwards.
+	 * @param header The frame announcing the raw bytes.
+	 * @param file The file to read.
+	 * @param position The position of the first byte to send.
+	 * @param length The number of bytes to send, which must have been declared to the other side.
+	 * @param cipher Encrypts the raw bytes, or <code>null</code> to send them as they are.
+	 * @throws IOException If writing failed, or the file ended early. The stream is broken afterwards.
+	 */
+	public void transfer(final PreparedMessage header, final FileChannel file, final long position, final long length, final StreamCipher cipher) throws IOException {
+		final byte[] frame = header.getFrame(this.framing, this.encoding, this.decoder.getEncryption());
+		synchronized (this.writeLock) {
 			final OutputStream out = this.io.getOutputStream();
-			final byte[] encrypted = this.decoder.getEncryption().encrypt(tag.getEncodedString());
-			out.write(("<" + encrypted.length + ">").getBytes(UTF8));
-			out.write(encrypted);
+			byte[] buffer = null;
+			try {
+				buffer = BufferPool.SHARED.borrow(COALESCE_BUFFER);
+				this.writeQueued(out, buffer);
+			} finally {
+				BufferPool.SHARED.release(buffer);
+			}
+			out.write(frame);
 			out.flush();
+			final WritableByteChannel target = this.io.getOutputChannel();
+			long sent = 0;
+			if (cipher == null) {
+				while (sent < length) {
+					final long written = file.transferTo(position + sent, length - sent, target);
+					if (written <= 0) {
+						throw new IOException("File ended after " + sent + " of " + length + " bytes.");
+					}
+					sent += written;
+				}
+			} else {
+				final ByteBuffer plain = ByteBuffer.allocateDirect(BULK_BUFFER);
+				final ByteBuffer encrypted = ByteBuffer.allocateDirect(BULK_BUFFER);
+				while (sent < length) {
+					plain.clear();
+					plain.limit((int) Math.min(BULK_BUFFER, length - sent));
+					final int read = file.read(plain, position + sent);
+					if (read <= 0) {
+						throw new IOException("File ended after " + sent + " of " + length + " bytes.");
+					}
+					plain.flip();
+					encrypted.clear();
+					cipher.update(plain, encrypted);
+					encrypted.flip();
+					while (encrypted.hasRemaining()) {
+						target.write(encrypted);
+					}
+					sent += read;
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Hands the given number of raw bytes that follow the message being received to a receiver.<br>
+	 * Only to be called by the callback while it handles the message that declared the bytes.
+	 * @param length The number of raw bytes.
+	 * @param receiver Receives the bytes on the work thread.
+	 */
+	public void receiveBulk(final long length, final BulkReceiver receiver) {
+		this.decoder.receiveBulk(length, receiver);
+	}
+
+	/**
+	 * Writes queued frames until the queue is empty.<br>
+	 * Frames that are queued together are coalesced, so they're written and flushed at once.
+	 */
+	private void drain() {
+		byte[] buffer = null;
+		try {
+			final OutputStream out = this.io.getOutputStream();
+			// queued frames are copied into this buffer so they go out in a single write
+			buffer = BufferPool.SHARED.borrow(COALESCE_BUFFER);
+			while (true) {
+				synchronized (this.writeLock) {
+					this.writeQueued(out, buffer);
+				}
+				this.writeScheduled.set(false);
+				// a frame may have been queued after the poll, but before the flag was cleared
+				if (this.outbound.isEmpty() || !this.writeScheduled.compareAndSet(false, true)) {
+					return;
+				}
+			}
 		} catch (final SocketException se) {
 			System.out.println("Socket write error.");
+			this.writeScheduled.set(false);
+			this.close();
 		} catch (final IOException e) {
 			e.printStackTrace();
+			this.writeScheduled.set(false);
+			this.close();
+		} finally {
+			BufferPool.SHARED.release(buffer);
+		}
+	}
+
+	/**
+	 * Writes and flushes the frames in the queue until it's empty, must hold the write lock.
+	 */
+	private void writeQueued(final OutputStream out, final byte[] buffer) throws IOException {
+		ByteBuffer frame;
+		while ((frame = this.outbound.poll()) != null) {
+			int length = 0;
+			do {
+				final int remaining = frame.remaining();
+				if (length + remaining > buffer.length && length > 0) {
+					out.write(buffer, 0, length);
+					length = 0;
+				}
+				if (remaining > buffer.length) {
+					out.write(frame.array(), frame.arrayOffset() + frame.position(), remaining);
+				} else {
+					frame.get(buffer, length, remaining);
+					length += remaining;
+				}
+			} while ((frame = this.outbound.poll()) != null);
+			if (length > 0) {
+				out.write(buffer, 0, length);
+			}
+			out.flush();
 		}
 	}
 	
 	public interface IOWrapper {
 		InputStream getInputStream() throws IOException;
 		OutputStream getOutputStream() throws IOException;
+
+		/**
+		 * @return a channel writing to the same destination as the output stream, used for raw transfers.
+		 */
+		default WritableByteChannel getOutputChannel() throws IOException {
+			return Channels.newChannel(this.getOutputStream());
+		}
 	}
 	
 }
\ No newline at end of file
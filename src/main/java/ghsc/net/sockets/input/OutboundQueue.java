@@ -0,0 +1,175 @@
+package ghsc.net.sockets.input;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bounded queue of encoded frames waiting to be written to a connection.<br>
+ * Senders only ever enqueue, the actual socket I/O is done by the writer of the connection.
+ */
+public class OutboundQueue {
+
+	/**
+	 * Decides what happens to a frame that is sent while the queue is full, which happens when the remote side doesn't read fast enough.
+	 */
+	public enum Policy {
+		/**
+		 * The frame is discarded.
+		 */
+		DROP,
+		/**
+		 * The connection is closed.
+		 */
+		DISCONNECT,
+		/**
+		 * The sending thread waits until the writer has made room.
+		 */
+		BLOCK
+	}
+
+	/**
+	 * The default amount of bytes that may be waiting in a queue.
+	 */
+	public static final int DEFAULT_LIMIT = 4 * 1024 * 1024;
+
+	private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+	private final long limit;
+	private final Policy policy;
+	private final Runnable overflow;
+
+	private long queued;
+	private long dropped;
+	private boolean closed;
+
+	/**
+	 * Initializes a new OutboundQueue.
+	 * @param limit The maximum amount of bytes waiting in the queue. A single frame larger than the limit is still accepted when the queue is empty.
+	 * @param policy What to do when a frame doesn't fit in the queue.
+	 * @param overflow Called when a frame doesn't fit and the policy is {@link Policy#DISCONNECT}.
+	 */
+	public OutboundQueue(final long limit, final Policy policy, final Runnable overflow) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Limit: can't be less than or equal to 0.");
+		}
+		this.limit = limit;
+		this.policy = policy;
+		this.overflow = overflow;
+	}
+
+	public Policy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Adds a frame to the end of the queue.
+	 * @param frame The frame to add, the remaining bytes of the buffer are written.
+	 * @return whether the frame was queued.
+	 */
+	public boolean offer(final ByteBuffer frame) {
+		synchronized (this) {
+			final int length = frame.remaining();
+			while (!this.closed && this.queued + length > this.limit && !this.frames.isEmpty()) {
+				if (this.policy == Policy.DROP) {
+					this.dropped++;
+					return false;
+				} else if (this.policy == Policy.BLOCK) {
+					try {
+						this.wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				} else {
+					break;
+				}
+			}
+			if (this.closed) {
+				return false;
+			}
+			if (this.queued + length <= this.limit || this.frames.isEmpty()) {
+				this.frames.add(frame);
+				this.queued += length;
+				return true;
+			}
+		}
+		// Notify outside of the lock, the callback is going to close the connection.
+		this.overflow.run();
+		return false;
+	}
+
+	/**
+	 * Removes the frame at the head of the queue.
+	 * @return the frame at the head, or <code>null</code> if the queue is empty.
+	 */
+	public synchronized ByteBuffer poll() {
+		final ByteBuffer frame = this.frames.poll();
+		if (frame != null) {
+			this.queued -= frame.remaining();
+			this.notifyAll();
+		}
+		return frame;
+	}
+
+	/**
+	 * Copies the frames at the head of the queue into the given array without removing them.<br>
+	 * Used for gathering writes, followed by {@link #removeWritten()}.
+	 * @param dst The array to fill.
+	 * @return how many frames were copied.
+	 */
+	public synchronized int peek(final ByteBuffer[] dst) {
+		int count = 0;
+		final Iterator<ByteBuffer> iterator = this.frames.iterator();
+		while (count < dst.length && iterator.hasNext()) {
+			dst[count++] = iterator.next();
+		}
+		return count;
+	}
+
+	/**
+	 * Removes all the frames at the head of the queue that have been written completely.<br>
+	 * Frames must only be written by one writer at a time.
+	 */
+	public synchronized void removeWritten() {
+		this.queued = 0;
+		final Iterator<ByteBuffer> iterator = this.frames.iterator();
+		while (iterator.hasNext()) {
+			final ByteBuffer frame = iterator.next();
+			if (frame.hasRemaining()) {
+				this.queued += frame.remaining();
+			} else {
+				iterator.remove();
+			}
+		}
+		this.notifyAll();
+	}
+
+	public synchronized boolean isEmpty() {
+		return this.frames.isEmpty();
+	}
+
+	/**
+	 * @return how many bytes are waiting to be written.
+	 */
+	public synchronized long getQueuedBytes() {
+		return this.queued;
+	}
+
+	/**
+	 * @return how many frames were discarded because the queue was full.
+	 */
+	public synchronized long getDroppedCount() {
+		return this.dropped;
+	}
+
+	/**
+	 * Discards all queued frames and rejects any further frames.
+	 */
+	public synchronized void close() {
+		this.closed = true;
+		this.frames.clear();
+		this.queued = 0;
+		this.notifyAll();
+	}
+
+}
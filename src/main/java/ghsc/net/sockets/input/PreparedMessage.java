@@ -0,0 +1,108 @@
+package ghsc.net.sockets.input;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+
+import ghsc.event.message.MessageEvent;
+import ghsc.net.encryption.AES;
+import ghsc.util.Tag;
+import ghsc.util.TagWriter;
+
+/**
+ * A message which is serialized once per encoding and encrypted once per distinct cipher,</br>
+ * so it can be sent to many connections without repeating the work for each of them.
+ */
+public class PreparedMessage {
+
+	private final Tag tag;
+	private final byte[] data;
+	private final EnumMap<Encoding, EnumMap<Framing, HashMap<AES, byte[]>>> frames = new EnumMap<>(Encoding.class);
+	private byte[] binary;
+	private boolean binaryFailed;
+
+	private int requests;
+	private int encryptions;
+
+	/**
+	 * Initializes a new PreparedMessage.
+	 * @param tag The data to send.
+	 */
+	public PreparedMessage(final Tag tag) {
+		this.tag = tag;
+		this.data = tag.getEncodedBytes();
+	}
+
+	/**
+	 * Initializes a new PreparedMessage from what was written so far, so the writer can be reused right away.
+	 * @param writer The data to send.
+	 */
+	public PreparedMessage(final TagWriter writer) {
+		this(writer.toTag());
+	}
+
+	/**
+	 * Gets the encrypted text frame for the given framing and cipher.
+	 * @see #getFrame(Framing, Encoding, AES)
+	 */
+	public byte[] getFrame(final Framing framing, final AES cipher) {
+		return this.getFrame(framing, Encoding.TEXT, cipher);
+	}
+
+	/**
+	 * Gets the encrypted frame for the given framing, encoding and cipher, encrypting it the first time it's requested.<br>
+	 * The legacy framing can't mark binary messages, so it always gets the text encoding. So does a message that isn't a known MessageEvent.<br>
+	 * The returned array is shared, it must not be modified.
+	 * @param framing The framing of the connection.
+	 * @param encoding The encoding of the connection.
+	 * @param cipher The cipher of the connection.
+	 * @return the framed, encrypted message.
+	 */
+	public synchronized byte[] getFrame(final Framing framing, final Encoding encoding, final AES cipher) {
+		this.requests++;
+		Encoding used = framing == Framing.LEGACY ? Encoding.TEXT : encoding;
+		if (used == Encoding.BINARY && this.binary == null && !this.binaryFailed) {
+			this.binary = MessageEvent.toBinary(this.tag);
+			this.binaryFailed = this.binary == null;
+		}
+		if (this.binaryFailed) {
+			used = Encoding.TEXT;
+		}
+		EnumMap<Framing, HashMap<AES, byte[]>> framings = this.frames.get(used);
+		if (framings == null) {
+			this.frames.put(used, framings = new EnumMap<>(Framing.class));
+		}
+		HashMap<AES, byte[]> ciphers = framings.get(framing);
+		if (ciphers == null) {
+			framings.put(framing, ciphers = new HashMap<>(4));
+		}
+		byte[] frame = ciphers.get(cipher);
+		if (frame == null) {
+			this.encryptions++;
+			final byte[] body = used == Encoding.BINARY ? this.binary : this.data;
+			ciphers.put(cipher, frame = framing.encode(cipher, used.getFrameType(), body, 0, body.length));
+		}
+		return frame;
+	}
+
+	/**
+	 * @return how many times a frame was requested.
+	 */
+	public synchronized int getRequestCount() {
+		return this.requests;
+	}
+
+	/**
+	 * @return how many times the message was actually encrypted.
+	 */
+	public synchronized int getEncryptionCount() {
+		return this.encryptions;
+	}
+
+	/**
+	 * @return how many encryptions were avoided by reusing a frame.
+	 */
+	public synchronized int getSavedCount() {
+		return this.requests - this.encryptions;
+	}
+
+}
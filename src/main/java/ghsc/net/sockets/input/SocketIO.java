@@ -0,0 +1,88 @@
+package ghsc.net.sockets.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Provides the streams of a blocking socket to a {@link MessageThread}.<br>
+ * If the socket was opened by a {@link SocketChannel}, the streams read and write the channel directly,</br>
+ * and raw transfers are written to the channel itself, so {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)}</br>
+ * can hand a file straight to the socket.<br>
+ * The socket's own streams aren't used then, because on older runtimes they lock the channel for reading and writing alike,</br>
+ * so a write would wait for the work thread's read to return.
+ */
+public class SocketIO implements MessageThread.IOWrapper {
+
+	private final Socket socket;
+	private final SocketChannel channel;
+	private final InputStream input;
+	private final OutputStream output;
+
+	/**
+	 * Initializes a new SocketIO.
+	 * @param socket The connected socket, in blocking mode if it has a channel.
+	 * @throws IOException If the streams of a socket without a channel couldn't be opened.
+	 */
+	public SocketIO(final Socket socket) throws IOException {
+		this.socket = socket;
+		this.channel = socket.getChannel();
+		if (this.channel == null) {
+			this.input = socket.getInputStream();
+			this.output = socket.getOutputStream();
+			return;
+		}
+		final SocketChannel ch = this.channel;
+		this.input = new InputStream() {
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+			}
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				return len == 0 ? 0 : ch.read(ByteBuffer.wrap(b, off, len));
+			}
+			public void close() throws IOException {
+				ch.close();
+			}
+		};
+		this.output = new OutputStream() {
+			public void write(final int b) throws IOException {
+				this.write(new byte[] { (byte) b }, 0, 1);
+			}
+			public void write(final byte[] b, final int off, final int len) throws IOException {
+				final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+				while (buffer.hasRemaining()) {
+					ch.write(buffer);
+				}
+			}
+			public void close() throws IOException {
+				ch.close();
+			}
+		};
+	}
+
+	public Socket getSocket() {
+		return this.socket;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return this.input;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return this.output;
+	}
+
+	@Override
+	public WritableByteChannel getOutputChannel() {
+		return this.channel != null ? this.channel : Channels.newChannel(this.output);
+	}
+
+}
@@ -0,0 +1,28 @@
+package ghsc.net.sockets.multicast;
+
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+
+/**
+ * The encrypted ping multicast on one network interface.<br>
+ * The packet is built once and sent as is until one of its inputs changes.
+ */
+class Beacon {
+
+	private final String interfaceName;
+	private final DatagramPacket packet;
+
+	Beacon(final String interfaceName, final byte[] data, final InetSocketAddress address) {
+		this.interfaceName = interfaceName;
+		this.packet = new DatagramPacket(data, data.length, address);
+	}
+
+	String getInterfaceName() {
+		return this.interfaceName;
+	}
+
+	DatagramPacket getPacket() {
+		return this.packet;
+	}
+
+}
@@ -0,0 +1,127 @@
+package ghsc.net.sockets.multicast;
+
+import java.util.Random;
+
+/**
+ * Decides when the next beacon should be multicast.<br>
+ * A burst of beacons is sent at the shortest interval whenever something about this user changes,</br>
+ * after which the interval doubles with every beacon until it reaches the ceiling.<br>
+ * Every interval is randomly stretched or shrunk a little, so users that started together don't stay in step.
+ */
+public class BeaconScheduler {
+
+	public static final long DEFAULT_FLOOR = 500;
+	public static final long DEFAULT_CEILING = 30000;
+	public static final int DEFAULT_BURST = 3;
+	/**
+	 * How much an interval may randomly deviate, as a fraction of the interval.
+	 */
+	static final double JITTER = 0.25;
+	/**
+	 * The longest time between two beacons once the interval has backed off to the default ceiling.
+	 */
+	static final long MAX_INTERVAL = Math.round(DEFAULT_CEILING * (1 + JITTER));
+
+	private final long floor;
+	private final long ceiling;
+	private final int burstCount;
+	private final Random random;
+
+	private long interval;
+	private int burstRemaining;
+	private long nextSendTime;
+
+	/**
+	 * Initializes a new BeaconScheduler with the default intervals.
+	 */
+	public BeaconScheduler() {
+		this(DEFAULT_FLOOR, DEFAULT_CEILING, DEFAULT_BURST, new Random());
+	}
+
+	/**
+	 * Initializes a new BeaconScheduler. The first beacon is due immediately.
+	 * @param floor The shortest interval between beacons in milliseconds, used during a burst.
+	 * @param ceiling The longest interval between beacons in milliseconds.
+	 * @param burstCount How many beacons are sent at the shortest interval after a change.
+	 * @param random Source of the jitter.
+	 */
+	public BeaconScheduler(final long floor, final long ceiling, final int burstCount, final Random random) {
+		if (floor <= 0) {
+			throw new IllegalArgumentException("Floor: can't be less than or equal to 0.");
+		}
+		if (ceiling < floor) {
+			throw new IllegalArgumentException("Ceiling: can't be less than the floor.");
+		}
+		this.floor = floor;
+		this.ceiling = ceiling;
+		this.burstCount = burstCount;
+		this.random = random;
+		this.interval = floor;
+		this.burstRemaining = burstCount;
+	}
+
+	/**
+	 * @return the time at which the next beacon is due.
+	 */
+	public synchronized long getNextSendTime() {
+		return this.nextSendTime;
+	}
+
+	/**
+	 * Records that a beacon was sent and schedules the next one.
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void sent(final long now) {
+		final long delay;
+		if (this.burstRemaining > 0) {
+			this.burstRemaining--;
+			delay = this.floor;
+		} else {
+			delay = this.interval;
+			this.interval = Math.min(this.ceiling, this.interval * 2);
+		}
+		this.nextSendTime = now + this.jitter(delay);
+	}
+
+	/**
+	 * Starts a new burst right away, because something other users need to know about has changed.
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void burst(final long now) {
+		this.burstRemaining = this.burstCount;
+		this.interval = this.floor;
+		this.nextSendTime = now;
+		this.notifyAll();
+	}
+
+	/**
+	 * Brings the next beacon forward to the shortest interval and restarts the backoff, because a user appeared which we aren't connected to.
+	 * @param now The current time in milliseconds.
+	 */
+	public synchronized void nudge(final long now) {
+		this.interval = this.floor;
+		final long soon = now + this.jitter(this.floor);
+		if (soon < this.nextSendTime) {
+			this.nextSendTime = soon;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the next beacon is due or the given deadline passes, whichever comes first.<br>
+	 * Returns early if a burst or nudge moves the next beacon forward.
+	 * @param deadline The latest time to wait until, in milliseconds.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public synchronized void await(final long deadline) throws InterruptedException {
+		final long wait = Math.min(deadline, this.nextSendTime) - System.currentTimeMillis();
+		if (wait > 0) {
+			this.wait(wait);
+		}
+	}
+
+	private long jitter(final long delay) {
+		return Math.max(1, Math.round(delay * (1 - JITTER + 2 * JITTER * this.random.nextDouble())));
+	}
+
+}
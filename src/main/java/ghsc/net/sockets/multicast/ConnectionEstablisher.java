@@ -0,0 +1,123 @@
+package ghsc.net.sockets.multicast;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects to discovered users on a small pool of threads, so a slow or unreachable user doesn't hold up discovery.<br>
+ * Only one attempt per address runs at a time, and an address that failed is left alone for a while before it's tried again.<br>
+ * A failure is forgotten once its address wasn't retried for {@value #MAX_BACKOFF} ms after its backoff ended,</br>
+ * so addresses that went away for good don't pile up.
+ */
+public class ConnectionEstablisher {
+
+	public static final int DEFAULT_PARALLELISM = 4;
+	private static final int QUEUE_LIMIT = 64;
+	private static final long INITIAL_BACKOFF = 2000;
+	private static final long MAX_BACKOFF = 60000;
+
+	/**
+	 * Makes the connection to a single address.
+	 */
+	public interface Attempt {
+		/**
+		 * Connects to the given address, blocking until connected.
+		 * @param address The address to connect to.
+		 * @throws IOException If the connection failed, the address will be retried later.
+		 */
+		void connect(InetSocketAddress address) throws IOException;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentHashMap<InetSocketAddress, Boolean> pending = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<InetSocketAddress, Failure> failures = new ConcurrentHashMap<>();
+
+	/**
+	 * Initializes a new ConnectionEstablisher.
+	 * @param parallelism The maximum number of connection attempts running at the same time.
+	 */
+	public ConnectionEstablisher(final int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism: can't be less than or equal to 0.");
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_LIMIT), r -> {
+			final Thread thread = new Thread(r);
+			thread.setName("ConnectionEstablisher-" + threadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues a connection attempt to the given address.
+	 * @param address The address to connect to.
+	 * @param attempt Makes the connection.
+	 * @return <tt>true</tt> if an attempt was queued, <tt>false</tt> if one is already running, the address is backing off, or the queue is full.
+	 */
+	public boolean submit(final InetSocketAddress address, final Attempt attempt) {
+		final long now = System.currentTimeMillis();
+		final Failure failure = this.failures.get(address);
+		if (failure != null && now < failure.retryTime) {
+			return false;
+		}
+		if (failure != null && failure.isExpired(now)) {
+			this.failures.remove(address, failure); // starts over with the initial backoff
+		}
+		if (this.pending.putIfAbsent(address, Boolean.TRUE) != null) {
+			return false;
+		}
+		try {
+			this.executor.execute(() -> {
+				try {
+					attempt.connect(address);
+					this.failures.remove(address);
+				} catch (final IOException e) {
+					final long failed = System.currentTimeMillis();
+					this.failures.values().removeIf(f -> f.isExpired(failed));
+					this.failures.compute(address, (key, previous) -> new Failure(previous));
+				} finally {
+					this.pending.remove(address);
+				}
+			});
+			return true;
+		} catch (final RejectedExecutionException e) {
+			this.pending.remove(address);
+			return false;
+		}
+	}
+
+	/**
+	 * Stops accepting attempts. Attempts that are already running finish on their own.
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	private static class Failure {
+
+		private final long backoff;
+		private final long retryTime;
+
+		private Failure(final Failure previous) {
+			this.backoff = previous == null ? INITIAL_BACKOFF : Math.min(MAX_BACKOFF, previous.backoff * 2);
+			this.retryTime = System.currentTimeMillis() + this.backoff;
+		}
+
+		/**
+		 * @return whether the address wasn't retried for the longest backoff after this failure's backoff ended.
+		 */
+		private boolean isExpired(final long now) {
+			return now - this.retryTime > MAX_BACKOFF;
+		}
+
+	}
+
+}
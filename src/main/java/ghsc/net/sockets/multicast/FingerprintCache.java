@@ -0,0 +1,111 @@
+package ghsc.net.sockets.multicast;
+
+import java.net.InetAddress;
+
+/**
+ * Remembers the fingerprints of recently handled multicast packets for a limited time,</br>
+ * so identical packets can be skipped without decrypting or parsing them again.<br>
+ * A fixed size open addressing table, nothing is allocated after construction. Not thread safe.
+ */
+class FingerprintCache {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	/**
+	 * How many slots are probed before the entry that expires first is replaced.
+	 */
+	private static final int PROBE_LIMIT = 8;
+
+	private final long[] fingerprints;
+	private final long[] expiries;
+	/**
+	 * The hash codes of the senders, so the fingerprints of a sender can be forgotten.
+	 */
+	private final int[] senders;
+	private final int mask;
+
+	/**
+	 * Initializes a new FingerprintCache.
+	 * @param capacity The number of entries, rounded up to a power of two.
+	 */
+	FingerprintCache(final int capacity) {
+		final int size = Integer.highestOneBit(Math.max(PROBE_LIMIT, capacity - 1)) << 1;
+		this.fingerprints = new long[size];
+		this.expiries = new long[size];
+		this.senders = new int[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Calculates the 64 bit FNV-1a hash of a packet combined with its sender.
+	 * @param data The packet data.
+	 * @param length The length of the packet data.
+	 * @param sender The address the packet came from.
+	 * @return the fingerprint, never <code>0</code>.
+	 */
+	static long fingerprint(final byte[] data, final int length, final InetAddress sender) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < length; i++) {
+			hash ^= data[i] & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		hash ^= sender.hashCode();
+		hash *= FNV_PRIME;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * @param fingerprint The fingerprint to look for.
+	 * @param now The current time in milliseconds.
+	 * @return whether the fingerprint was added and hasn't expired yet.
+	 */
+	boolean contains(final long fingerprint, final long now) {
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & this.mask;
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			if (this.fingerprints[slot] == fingerprint) {
+				return this.expiries[slot] > now;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a fingerprint, replacing an expired or the soonest expiring entry if the neighborhood is full.
+	 * @param fingerprint The fingerprint to add.
+	 * @param sender The address the packet came from.
+	 * @param expiry The time at which the fingerprint is forgotten, in milliseconds.
+	 */
+	void put(final long fingerprint, final InetAddress sender, final long expiry) {
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & this.mask;
+		int victim = slot;
+		for (int i = 0; i < PROBE_LIMIT; i++) {
+			if (this.fingerprints[slot] == fingerprint || this.fingerprints[slot] == 0) {
+				victim = slot;
+				break;
+			}
+			if (this.expiries[slot] < this.expiries[victim]) {
+				victim = slot;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.fingerprints[victim] = fingerprint;
+		this.expiries[victim] = expiry;
+		this.senders[victim] = sender.hashCode();
+	}
+
+	/**
+	 * Expires the fingerprints of every packet from a sender, so its next packets are handled again.<br>
+	 * Senders with the same hash code are forgotten as well, which only costs handling their packets once more.
+	 * @param sender The address the packets came from.
+	 */
+	void forget(final InetAddress sender) {
+		final int hash = sender.hashCode();
+		for (int slot = 0; slot < this.senders.length; slot++) {
+			if (this.senders[slot] == hash) {
+				this.expiries[slot] = 0;
+			}
+		}
+	}
+
+}
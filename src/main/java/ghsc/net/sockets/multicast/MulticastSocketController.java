@@ -5,15 +5,17 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.net.NetworkInterface;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.Arrays;
-import java.util.Set;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import ghsc.common.Debug;
+import ghsc.event.EventListener;
 import ghsc.event.message.MessageEvent;
 import ghsc.event.message.MessageEvent.Type;
 import ghsc.gui.Application;
@@ -21,9 +23,12 @@ import ghsc.gui.components.users.User;
 import ghsc.gui.components.users.UserContainer;
 import ghsc.net.encryption.AES;
 import ghsc.net.sockets.ISocketController;
+import ghsc.net.sockets.Nic;
+import ghsc.net.sockets.NicChange;
+import ghsc.net.sockets.channel.ChannelEngine;
 import ghsc.net.update.Release;
 import ghsc.net.update.Version;
-import ghsc.util.Tag;
+import ghsc.util.TagWriter;
 
 import javax.annotation.Nullable;
 
@@ -40,9 +45,14 @@ public class MulticastSocketController implements ISocketController {
     private static final String ATT_USERNAME = "n";
 
 	private static final int RECEIVE_BUFFER = 8192;
-	private static final int SEND_DELAY = 500;
 	private static final int CONNECT_DELAY = 2000;
-	private static final int INTERFACE_UPDATE_DELAY = 10000;
+	private static final int NUDGE_HISTORY = 1024;
+	/**
+	 * How long an identical packet is skipped after it was handled, unless handling it still had something left to do.<br>
+	 * It outlasts the longest beacon interval, so the steady beacons of a settled peer are skipped as well.
+	 */
+	private static final long DEDUP_TTL = BeaconScheduler.MAX_INTERVAL + BeaconScheduler.DEFAULT_FLOOR;
+	private static final int DEDUP_CAPACITY = 4096;
 	
 	private static final int MULTICAST_PORT = 5688;
 	private static final String MULTICAST_IP_ADDRESS = "224.0.0.115";
@@ -61,12 +71,41 @@ public class MulticastSocketController implements ISocketController {
 		MULTICAST_SOCKET_ADDRESS = new InetSocketAddress(MULTICAST_ADDRESS, MULTICAST_PORT);
 	}
 	
-	private Set<String> interfaceNames;
+	/**
+	 * One beacon per active interface, rebuilt only when the nick or interfaces change.
+	 */
+	private Beacon[] beacons = new Beacon[0];
+	private volatile boolean beaconsStale = true;
+	private final BeaconScheduler scheduler = new BeaconScheduler();
+	private final ConnectionEstablisher establisher = new ConnectionEstablisher(ConnectionEstablisher.DEFAULT_PARALLELISM);
+	private final EventListener<String> nickListener = nick -> {
+		this.beaconsStale = true;
+		this.scheduler.burst(System.currentTimeMillis());
+	};
+	private final EventListener<NicChange> interfaceListener = this::interfacesChanged;
+	/**
+	 * Users that were removed since the receive thread last looked, see {@link #forgetDropped()}.
+	 */
+	private final ConcurrentLinkedQueue<User> dropped = new ConcurrentLinkedQueue<>();
+	private final EventListener<User> removedListener = user -> {
+		this.dropped.add(user);
+		// a dropped user who waits for our beacon to reconnect doesn't have to wait for the next steady one
+		this.scheduler.burst(System.currentTimeMillis());
+	};
+	/**
+	 * When each unconnected user last caused a nudge, only used by the receive thread.
+	 */
+	private final HashMap<UUID, Long> nudges = new HashMap<>();
+	/**
+	 * Fingerprints of recently handled packets, only used by the receive thread.
+	 */
+	private final FingerprintCache seen = new FingerprintCache(DEDUP_CAPACITY);
 	
 	private final MulticastSocket receiveSocket;
 	private final MulticastSocket sendSocket;
 	
 	private final int localUserPort;
+	private final ChannelEngine engine;
 
 	private final Thread receiveWorker;
 	private final Thread sendWorker;
@@ -75,10 +114,13 @@ public class MulticastSocketController implements ISocketController {
 	
 	/**
 	 * Initializes a new MulticastManager.
+	 * @param localUserPort The port that the user socket listener is listening on.
+	 * @param engine The engine which outgoing user connections are registered with.
 	 * @throws IOException If an error occurs when creating the underlying multicast socket.
 	 */
-	public MulticastSocketController(final int localUserPort) throws IOException {
+	public MulticastSocketController(final int localUserPort, final ChannelEngine engine) throws IOException {
 		this.localUserPort = localUserPort;
+		this.engine = engine;
 		
 		// Bind to wildcard (any) address.
 		// This allows multicast packets to come in from all network interfaces.
@@ -86,15 +128,13 @@ public class MulticastSocketController implements ISocketController {
 		this.receiveSocket.setTimeToLive(255);
 		
 		// join the multicast Group for all the network interfaces.
-		this.interfaceNames = Application.NETWORK.getInterfaces();
-		if (this.interfaceNames != null) {
-			for (final String name : this.interfaceNames) {
-				final NetworkInterface xface = NetworkInterface.getByName(name);
-				if (xface != null) {
-					this.receiveSocket.joinGroup(MULTICAST_SOCKET_ADDRESS, xface);
-				}
+		for (final Nic nic : Application.NETWORK.getSnapshot()) {
+			if (nic.supportsMulticast()) {
+				this.receiveSocket.joinGroup(MULTICAST_SOCKET_ADDRESS, nic.getNetworkInterface());
 			}
 		}
+		// and keep up with the interfaces from then on.
+		Application.NETWORK.getChangeEventProvider().subscribe(this.interfaceListener);
 		
 		// Bind to wildcard (any) address.
 		// This allows multicast packets to be sent on all network interfaces.
@@ -110,19 +150,34 @@ public class MulticastSocketController implements ISocketController {
 	private void multicastReceive() {
 		try {
 			final byte[] buf = new byte[RECEIVE_BUFFER];
+			final byte[] plain = new byte[RECEIVE_BUFFER];
 			final DatagramPacket pack = new DatagramPacket(buf, buf.length);
 			while (this.running) {
 				this.receiveSocket.receive(pack);
 				final int length = pack.getLength();
-				final byte[] buffer = Arrays.copyOf(buf, length);
-				final byte[] data = AES.DEFAULT.decrypt(buffer, 0, length);
-				final MessageEvent parsedMessageEvent = MessageEvent.parse(new String(data, Application.CHARSET));
-				if (parsedMessageEvent != null) {
-					//System.out.println(parsedMessageEvent);
-					this.multicastMessageReceived(parsedMessageEvent);
-				} else {
-                    System.err.println("Unable to parse multicast message!");
-                }
+				final long now = System.currentTimeMillis();
+				this.forgetDropped();
+				// Most packets are repeats of beacons that were already handled, skip those before decrypting
+				final long fingerprint = FingerprintCache.fingerprint(buf, length, pack.getAddress());
+				if (!this.seen.contains(fingerprint, now)) {
+					boolean settled = true;
+					try {
+						final int plainLength = AES.DEFAULT.decrypt(buf, 0, length, plain, 0);
+						final MessageEvent parsedMessageEvent = MessageEvent.parse(plain, 0, plainLength);
+						if (parsedMessageEvent != null) {
+							settled = this.multicastMessageReceived(parsedMessageEvent);
+						} else {
+							System.err.println("Unable to parse multicast message!");
+						}
+					} catch (final RuntimeException e) {
+						if (Debug.MAJOR.compareTo(Application.DEBUG) <= 0) {
+							System.err.println("Ignored a broken multicast message from " + pack.getAddress().getHostAddress() + ": " + e);
+						}
+					}
+					if (settled) {
+						this.seen.put(fingerprint, pack.getAddress(), now + DEDUP_TTL);
+					}
+				}
 				pack.setLength(buf.length);
 			}
 		} catch (final IOException e) {
@@ -130,7 +185,28 @@ public class MulticastSocketController implements ISocketController {
 		}
 	}
 	
-	private void multicastMessageReceived(final MessageEvent message) {
+	/**
+	 * Forgets the packets and the nudge of every user that was removed, so their next beacon is handled right away</br>
+	 * instead of being skipped as a repeat until {@link #DEDUP_TTL} runs out. Only used by the receive thread.
+	 */
+	private void forgetDropped() {
+		User user;
+		while ((user = this.dropped.poll()) != null) {
+			final InetSocketAddress address = user.getRemoteSocketAddress();
+			if (address != null) {
+				this.seen.forget(address.getAddress());
+			}
+			if (user.getID() != null) {
+				this.nudges.remove(user.getID());
+			}
+		}
+	}
+	
+	/**
+	 * Handles a decrypted multicast message.
+	 * @return whether the same message can be ignored for a while, because there's nothing left to do for its sender.
+	 */
+	private boolean multicastMessageReceived(final MessageEvent message) {
 		if (Debug.ALL.compareTo(Application.DEBUG) <= 0) {
 			System.out.println("All Multicast: " + message);
 		}
@@ -140,13 +216,14 @@ public class MulticastSocketController implements ISocketController {
 		final Application application = Application.getInstance();
 		final String remoteUUIDString = message.getAttribute(ATT_ID);
 		if (remoteUUIDString == null) {
-			return;
+			return true;
 		}
 		final UUID remoteUUID = UUID.fromString(remoteUUIDString);
 		final UUID localUUID = application.getID();
 		// If remoteUUID >= localUUID, then don't connect
 		if (remoteUUID.compareTo(localUUID) >= 0) {
-			return;
+			// they connect to us once they hear our beacon
+			return remoteUUID.equals(localUUID) || this.noticePeer(application, remoteUUID, message);
 		}
 		if (Debug.MAJOR.compareTo(Application.DEBUG) <= 0) {
 			System.out.println("Multicast: " + message);
@@ -155,113 +232,190 @@ public class MulticastSocketController implements ISocketController {
 		final String remoteIP = message.getAttribute(ATT_IP);
 		final String remotePortString = message.getAttribute(ATT_PORT);
 		if ((remoteIP == null) || (remotePortString == null)) {
-			return;
+			return true;
 		}
 		final int remotePort = Integer.parseInt(remotePortString);
 		final String versionString = message.getAttribute(ATT_VERSION);
 		if (versionString == null || !isCompatible(application, Version.parse(versionString))) {
-			return;
+			return true;
 		}
 		final UserContainer users = application.getMainFrame().getUsers();
+		final InetSocketAddress remoteAddress;
+		try {
+			remoteAddress = new InetSocketAddress(InetAddress.getByName(remoteIP), remotePort);
+		} catch (final UnknownHostException e) {
+			return true;
+		}
+		if (users.containsUser(remoteAddress) || users.containsUserPending(remoteAddress)) {
+			return true;
+		}
+		final String username = message.getAttribute(ATT_USERNAME);
+		this.establisher.submit(remoteAddress, address -> this.connect(users, address, username));
+		return false;
+	}
+	
+	/**
+	 * Opens the connection to a discovered user, called from a thread of the connection establisher.
+	 * @throws IOException If the connection failed.
+	 */
+	private void connect(final UserContainer users, final InetSocketAddress remoteAddress, final String username) throws IOException {
+		final Application application = Application.getInstance();
 		try {
-			final InetSocketAddress remoteAddress = new InetSocketAddress(InetAddress.getByName(remoteIP), remotePort);
-			if (!users.containsUserPending(remoteAddress) && users.addMulticaster(remoteAddress)) {
-			    try {
-                    if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
-                        System.out.println("Received " + remoteAddress.getAddress().getHostAddress() + " from MULTICASTER " + remotePort);
-                    }
+            if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
+                System.out.println("Received " + remoteAddress.getAddress().getHostAddress() + " from MULTICASTER " + remoteAddress.getPort());
+            }
 
-                    application.getMainFrame().setStatus("Connecting to " + message.getAttribute(ATT_USERNAME), 0);
+            application.getMainFrame().setStatus("Connecting to " + username, 0);
 
-                    final Socket socket = new Socket();
-                    socket.connect(remoteAddress, CONNECT_DELAY);
-                    application.getMainFrame().setStatus("Connected to " + message.getAttribute(ATT_USERNAME), 1000);
-                    final User user = new User(users, socket);
-                    if (users.addUserPending(remoteAddress, user)) {
-                        if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
-                            System.out.println("Completed OUTGOING socket connection.  User is pending.");
-                            System.out.println("Connected to " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + " - " + message.getAttribute(ATT_USERNAME));
-                        }
+            final SocketChannel channel = SocketChannel.open();
+            final Socket socket = channel.socket();
+            try {
+                socket.connect(remoteAddress, CONNECT_DELAY);
+            } catch (final IOException e) {
+                channel.close();
+                throw e;
+            }
+            application.getMainFrame().setStatus("Connected to " + username, 1000);
+            final User user = new User(users, socket, this.engine);
+            if (users.addUserPending(remoteAddress, user)) {
+                if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
+                    System.out.println("Completed OUTGOING socket connection.  User is pending.");
+                    System.out.println("Connected to " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + " - " + username);
+                }
 
-                        user.sendIntro(); // send identifying user info.
-                        user.start(); // starts up the receive thread.
-                        user.setFriend(users.isFriend(user)); // updates various user list status...
-                        user.setIgnored(users.isIgnored(user));
-                        users.getMainFrame().getChatContainer().refreshUser(user);
-                        users.refresh();
-                    } else {
-                        if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
-                            System.err.println("Unable to add " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + ".  User is already known.");
-                        }
-                        socket.close();
-                    }
-                } finally {
-			        users.removeMulticaster(remoteAddress);
+                user.sendIntro(); // send identifying user info.
+                user.start(); // starts up the receive thread.
+                user.setFriend(users.isFriend(user)); // updates various user list status...
+                user.setIgnored(users.isIgnored(user));
+                users.getMainFrame().getChatContainer().refreshUser(user);
+                users.refresh();
+            } else {
+                if (Debug.NORMAL.compareTo(Application.DEBUG) <= 0) {
+                    System.err.println("Unable to add " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + ".  User is already known.");
                 }
-			}
+                socket.close();
+            }
 		} catch (final IOException e) {
             if (Debug.MINOR.compareTo(Application.DEBUG) <= 0) {
                 if (e instanceof SocketTimeoutException) {
-                    System.err.println("Socket timed out trying to connect to " + remoteIP + "@" + remotePort + ". Maybe next time?");
+                    System.err.println("Socket timed out trying to connect to " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + ". Maybe next time?");
                 } else {
-                    System.err.println("Unable to connect to " + remoteIP + "@" + remotePort + ". Maybe next time?");
+                    System.err.println("Unable to connect to " + remoteAddress.getAddress().getHostAddress() + "@" + remoteAddress.getPort() + ". Maybe next time?");
                 }
             }
 			application.getMainFrame().setStatus("Failed to connect", 750);
+			throw e;
 		}
 	}
 	
+	/**
+	 * Brings our next beacon forward when a compatible user we aren't connected to is heard,</br>
+	 * since they're waiting for our beacon to connect to us. Each user causes at most one nudge per backoff ceiling.
+	 * @return whether there's nothing left to do for this user, because we're connected or can't be.
+	 */
+	private boolean noticePeer(final Application application, final UUID remoteUUID, final MessageEvent message) {
+		if (application.getMainFrame().getUsers().findUser(remoteUUID) != null) {
+			return true;
+		}
+		final String versionString = message.getAttribute(ATT_VERSION);
+		if (versionString == null || !isCompatible(application, Version.parse(versionString))) {
+			return true;
+		}
+		final long now = System.currentTimeMillis();
+		final Long last = this.nudges.get(remoteUUID);
+		if (last != null && now - last < BeaconScheduler.DEFAULT_CEILING) {
+			return false;
+		}
+		if (this.nudges.size() >= NUDGE_HISTORY) {
+			this.nudges.values().removeIf(time -> now - time >= BeaconScheduler.DEFAULT_CEILING);
+		}
+		this.nudges.put(remoteUUID, now);
+		this.scheduler.nudge(now);
+		return false;
+	}
+	
+	/**
+	 * Builds and encrypts the ping of every active interface.
+	 */
+	private void rebuildBeacons(final Application application) {
+		this.beaconsStale = false;
+		final String uuidString = application.getID().toString();
+		final String name = application.getPreferredName();
+		final Collection<Nic> snapshot = Application.NETWORK.getSnapshot();
+		final Beacon[] rebuilt = new Beacon[snapshot.size()];
+		final TagWriter pingMessage = new TagWriter();
+		int count = 0;
+		for (final Nic nic : snapshot) {
+			pingMessage.begin(Type.PING)
+					.attribute(ATT_VERSION, Application.VERSION)
+					.attribute(ATT_IP, nic.getIp())
+					.attribute(ATT_PORT, this.localUserPort)
+					.attribute(ATT_ID, uuidString)
+					.attribute(ATT_USERNAME, name);
+			rebuilt[count++] = new Beacon(nic.getName(), AES.DEFAULT.encrypt(pingMessage.getBuffer(), 0, pingMessage.getLength()), MULTICAST_SOCKET_ADDRESS);
+		}
+		this.beacons = rebuilt;
+		if (Debug.MAJOR.compareTo(Application.DEBUG) <= 0) {
+			for (final Beacon beacon : this.beacons) {
+				System.out.println("Multicast: beacon rebuilt for " + beacon.getInterfaceName());
+			}
+		}
+	}
+	
+	/**
+	 * Joins and leaves the multicast group on the interfaces that changed, and announces our new addresses.
+	 */
+	private void interfacesChanged(final NicChange change) {
+		for (final Nic nic : change.getRemoved()) {
+			if (nic.supportsMulticast()) {
+				try {
+					this.receiveSocket.leaveGroup(MULTICAST_SOCKET_ADDRESS, nic.getNetworkInterface());
+				} catch (final IOException e) {
+					// the interface is most likely gone already
+				}
+			}
+		}
+		for (final Nic nic : change.getAdded()) {
+			if (nic.supportsMulticast()) {
+				try {
+					this.receiveSocket.joinGroup(MULTICAST_SOCKET_ADDRESS, nic.getNetworkInterface());
+				} catch (final IOException e) {
+					System.err.println("Unable to join multicast group on " + nic + ": " + e.getMessage());
+				}
+			}
+		}
+		this.beaconsStale = true;
+		this.scheduler.burst(System.currentTimeMillis());
+	}
+	
 	private void multicastSend() {
 		try {
 			final Application application = Application.getInstance();
-			final UUID uuid = application.getID();
-			final String uuidString = uuid.toString();
-			long updateTime = System.currentTimeMillis() + INTERFACE_UPDATE_DELAY;
+			application.getNickEventProvider().subscribe(this.nickListener);
+			application.getMainFrame().getUsers().getRemovedEventProvider().subscribe(this.removedListener);
 			while (this.running) {
-				for (final String interfaceName : Application.NETWORK.getInterfaces()) {
-					final String localIP = Application.NETWORK.getIp(interfaceName);
-					final Tag pingMessage = Tag.construct(Type.PING, 
-							ATT_VERSION, Application.VERSION, 
-							ATT_IP, localIP, 
-							ATT_PORT, this.localUserPort, 
-							ATT_ID, uuidString, 
-							ATT_USERNAME, application.getPreferredName());
-					final byte[] data = AES.DEFAULT.encrypt(pingMessage.getEncodedString());
-					if (data != null) {
-						this.sendSocket.send(new DatagramPacket(data, data.length, MULTICAST_SOCKET_ADDRESS));
+				if (System.currentTimeMillis() >= this.scheduler.getNextSendTime()) {
+					if (this.beaconsStale) {
+						this.rebuildBeacons(application);
 					}
-				}
-				Thread.sleep(SEND_DELAY);
-				if (System.currentTimeMillis() > updateTime) {
-					updateTime = System.currentTimeMillis() + INTERFACE_UPDATE_DELAY;
-					final Set<String> newInterfaceNames = Application.NETWORK.updateInterfaces();
-					if (newInterfaceNames != null) {
-						// Changes have occurred to the active interfaces.
-						// First, unjoin interfaces no longer in the list...
-						for (final String name : this.interfaceNames) {
-							if (!newInterfaceNames.contains(name)) {
-								final NetworkInterface xface = NetworkInterface.getByName(name);
-								if (xface != null) {
-									this.receiveSocket.leaveGroup(MULTICAST_SOCKET_ADDRESS, xface);
-								}
-							}
-						}
-						// Second, join new interfaces in the list...
-						for (final String name : newInterfaceNames) {
-							if (!this.interfaceNames.contains(name)) {
-								final NetworkInterface xface = NetworkInterface.getByName(name);
-								if (xface != null) {
-									this.receiveSocket.joinGroup(MULTICAST_SOCKET_ADDRESS, xface);
-								}
-							}
-						}
-						// Establish the new list...
-						this.interfaceNames = newInterfaceNames;
+					final Beacon[] beacons = this.beacons;
+					for (int i = 0; i < beacons.length; i++) {
+						this.sendSocket.send(beacons[i].getPacket());
 					}
+					this.scheduler.sent(System.currentTimeMillis());
 				}
+				this.scheduler.await(Long.MAX_VALUE);
 			}
-		} catch (IOException | InterruptedException e) {
+		} catch (final IOException e) {
 			e.printStackTrace();
+		} catch (final InterruptedException e) {
+			System.out.println("Multicast send interrupted.");
+		} finally {
+			final Application application = Application.getInstance();
+			application.getNickEventProvider().unsubscribe(this.nickListener);
+			if (application.getMainFrame() != null) {
+				application.getMainFrame().getUsers().getRemovedEventProvider().unsubscribe(this.removedListener);
+			}
 		}
 	}
 	
@@ -280,6 +434,9 @@ public class MulticastSocketController implements ISocketController {
 	@Override
 	public void close() {
 		this.running = false;
+		Application.NETWORK.getChangeEventProvider().unsubscribe(this.interfaceListener);
+		this.sendWorker.interrupt();
+		this.establisher.close();
 		this.receiveSocket.close();
 		this.sendSocket.close();
 	}
@@ -2,49 +2,54 @@ package ghsc.net.sockets.user;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import ghsc.gui.Application;
 import ghsc.gui.components.users.User;
 import ghsc.gui.components.users.UserContainer;
 import ghsc.net.sockets.ISocketController;
+import ghsc.net.sockets.channel.ChannelEngine;
 
 /**
  * The task of UserSocketListener is to listen for any incoming TCP connection requests and accept them.
  */
 public class UserSocketListener implements ISocketController {
 	
-	private final ServerSocket listenSocket;
+	private final ServerSocketChannel listenSocket;
+	private final ChannelEngine engine;
 	
 	private final Thread listener;
 	
 	/**
 	 * Initializes a new UserSocketListener.
+	 * @param engine The engine which accepted connections are registered with.
 	 * @throws IOException If an error occurs when creating the underlying server socket.
 	 */
-	public UserSocketListener() throws IOException {
-		this.listenSocket = new ServerSocket(0, 10, null);
+	public UserSocketListener(final ChannelEngine engine) throws IOException {
+		this.engine = engine;
+		this.listenSocket = ServerSocketChannel.open();
+		this.listenSocket.socket().bind(null, 10);
 		this.listener = new Thread(this::listenRunnable);
 		this.listener.setName("UserSocketListener");
 	}
 	
 	public int getPort() {
-		return this.listenSocket.getLocalPort();
+		return this.listenSocket.socket().getLocalPort();
 	}
 	
 	private void listenRunnable() {
 		try {
 			while (true) {
 				// somebody tries connecting to us
-				final Socket acceptSocket = this.listenSocket.accept();
-				final SocketAddress remoteSocketAddress = acceptSocket.getRemoteSocketAddress();
+				final SocketChannel acceptSocket = this.listenSocket.accept();
+				final SocketAddress remoteSocketAddress = acceptSocket.getRemoteAddress();
 				if (remoteSocketAddress instanceof InetSocketAddress) {
 					final InetSocketAddress remoteAddress = (InetSocketAddress) remoteSocketAddress;
 					System.out.println("Accepted socket connection from " + remoteAddress.getAddress() + "@" + remoteAddress.getPort());
 					final UserContainer users = Application.getInstance().getMainFrame().getUsers();
-					final User user = new User(users, acceptSocket);
+					final User user = new User(users, acceptSocket.socket(), this.engine);
 					if (users.addUserPending(remoteAddress, user)) {
 						System.out.println("Completed INCOMING socket connection.  User is pending.");
 						System.out.println("Connected to " + remoteAddress.getAddress() + "@" + remoteAddress.getPort() + " - unknown");
@@ -2,6 +2,9 @@ package ghsc.util;
 
 import ghsc.gui.Application;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
@@ -11,7 +14,12 @@ import java.util.Set;
  * A custom made XML-like markup tag.<br>
  * Features Base64 encoding for the values.<br>
  * <br>
- * Format:<br>{@code <name key="value[base64]" key="value[base64]">post }
+ * Format:<br>{@code <name key="value[base64]" key="value[base64]">post }<br>
+ * <br>
+ * A Tag parsed from bytes only records where its name, attributes and post data are.</br>
+ * Values are decoded when they're first asked for, and the raw strings are only built if needed.<br>
+ * <br>
+ * A Tag can also be written in a compact binary form, see {@link #toBinary(byte, String[])}.
  */
 public class Tag {
 	
@@ -26,19 +34,55 @@ public class Tag {
 	protected int length_encoded;
 	protected boolean parsed;
 	
+	/**
+	 * The encoded bytes of a Tag parsed from bytes, <code>null</code> otherwise.
+	 */
+	protected byte[] data;
+	protected int data_length;
+	protected int name_start;
+	protected int name_end;
+	/**
+	 * Key start, key end, value start and value end of each attribute within {@link #data}.
+	 */
+	protected int[] offsets;
+	protected String[] values;
+	protected int count;
+	/**
+	 * Whether the bytes are in the binary form, where values are raw and the post data starts at {@link #length_encoded}.
+	 */
+	protected boolean binary;
+	/**
+	 * Keys of a binary Tag that were written as their index in a dictionary, <code>null</code> for keys written out.
+	 */
+	protected String[] keys;
+	private Tag text;
+	
 	public Tag(final Object raw) {
 		this.raw_encoded = raw.toString();
 	}
 	
-	private Tag(final String raw, final String raw_encoded, final String name, final String post, final String tag, final String tag_encoded, final HashMap<String, Base64Value> att, final int length, final int length_encoded) {
-		this.raw = raw;
-		this.raw_encoded = raw_encoded;
-		this.name = name;
-		this.post = post;
-		this.tag = tag;
-		this.tag_encoded = tag_encoded;
-		this.attributes = att;
-		this.length = length;
+	/**
+	 * Initializes a new Tag from encoded bytes, which are copied.
+	 * @param data The encoded bytes.
+	 * @param offset The offset of the tag within the bytes.
+	 * @param length The length of the tag, including any post data.
+	 */
+	public Tag(final byte[] data, final int offset, final int length) {
+		this.data = Arrays.copyOfRange(data, offset, offset + length);
+		this.data_length = length;
+	}
+	
+	/**
+	 * Initializes a parsed Tag from the bytes and offsets recorded by a {@link TagWriter}.
+	 */
+	Tag(final byte[] data, final int name_end, final int[] offsets, final int count, final int length_encoded) {
+		this.data = data;
+		this.data_length = data.length;
+		this.name_start = 1;
+		this.name_end = name_end;
+		this.offsets = offsets;
+		this.count = count;
+		this.values = count > 0 ? new String[count] : null;
 		this.length_encoded = length_encoded;
 		this.parsed = true;
 	}
@@ -47,6 +91,9 @@ public class Tag {
 	 * @return the name of this tag.
 	 */
 	public final String getName() {
+		if (this.name == null && this.data != null && this.parsed) {
+			this.name = new String(this.data, this.name_start, this.name_end - this.name_start, Application.CHARSET);
+		}
 		return this.name;
 	}
 	
@@ -54,6 +101,9 @@ public class Tag {
 	 * @return the count of attributes of this tag.
 	 */
 	public final int getCount() {
+		if (this.data != null) {
+			return this.count;
+		}
 		return this.attributes != null ? this.attributes.size() : 0;
 	}
 	
@@ -64,6 +114,10 @@ public class Tag {
 	 * @return the attribute retrieved from the key.
 	 */
 	public final String getAttribute(final String key) {
+		if (this.data != null) {
+			final int index = this.indexOf(key);
+			return index >= 0 ? this.valueAt(index) : null;
+		}
 		if (this.attributes == null) {
             return null;
         }
@@ -75,19 +129,43 @@ public class Tag {
 	 * @return the length of this tag not including the post data.
 	 */
 	public final int getLength() {
+		this.buildRaw();
 		return this.length;
 	}
 	
 	public final int getEncodedLength() {
+		if (this.binary) {
+			return this.text().getEncodedLength();
+		}
 		return this.length_encoded;
 	}
 	
+	/**
+	 * @return the encoded bytes of this tag, including post data. The returned array may be shared, it must not be modified.
+	 */
+	public byte[] getEncodedBytes() {
+		if (this.binary) {
+			return this.text().getEncodedBytes();
+		}
+		if (this.data == null) {
+			return this.getEncodedString().getBytes(Application.CHARSET);
+		}
+		return this.data_length == this.data.length ? this.data : Arrays.copyOf(this.data, this.data_length);
+	}
+	
 	public String getEncodedString() {
+		if (this.binary) {
+			return this.text().getEncodedString();
+		}
+		if (this.raw_encoded == null && this.data != null) {
+			this.raw_encoded = new String(this.data, 0, this.data_length, Application.CHARSET);
+		}
 		return this.raw_encoded;
 	}
 	
 	@Override
 	public String toString() {
+		this.buildRaw();
 		return this.raw;
 	}
 	
@@ -95,10 +173,17 @@ public class Tag {
 	 * @return raw tag string excluding post data.
 	 */
 	public final String getTag() {
+		this.buildRaw();
 		return this.tag;
 	}
 	
 	public final String getEncodedTag() {
+		if (this.binary) {
+			return this.text().getEncodedTag();
+		}
+		if (this.tag_encoded == null && this.data != null && this.parsed) {
+			this.tag_encoded = new String(this.data, 0, this.length_encoded, Application.CHARSET);
+		}
 		return this.tag_encoded;
 	}
 	
@@ -108,15 +193,36 @@ public class Tag {
 	 * @return any post data that exists in this Tag, may return null.
 	 */
 	public final String getPost() {
+		if (this.post == null && this.data != null && this.parsed && this.length_encoded < this.data_length) {
+			this.post = new String(this.data, this.length_encoded, this.data_length - this.length_encoded, Application.CHARSET);
+		}
 		return this.post;
 	}
 	
+	/**
+	 * Copies the post data as encoded bytes, without decoding it into a String first.
+	 * @return the UTF-8 bytes of the post data, may return null.
+	 */
+	public final byte[] getPostBytes() {
+		if (this.data != null && this.parsed) {
+			return this.length_encoded < this.data_length ? Arrays.copyOfRange(this.data, this.length_encoded, this.data_length) : null;
+		}
+		final String post = this.getPost();
+		return post != null ? post.getBytes(Application.CHARSET) : null;
+	}
+	
 	/**
 	 * Sets the post data of this tag to null.
 	 * Also modifies the raw strings.
 	 */
 	public void clearPost() {
 		this.post = null;
+		if (this.data != null) {
+			this.data_length = this.length_encoded;
+			this.raw = this.raw_encoded = null;
+			this.text = null;
+			return;
+		}
 		this.raw = this.raw.substring(0, this.getLength());
 		this.raw_encoded = this.raw_encoded.substring(0, this.getEncodedLength());
 	}
@@ -130,6 +236,12 @@ public class Tag {
 		this.attributes = null;
 		this.name = this.post = this.tag = this.tag_encoded = null;
 		this.length = this.length_encoded = 0;
+		if (this.data != null) {
+			this.raw = null;
+			this.offsets = null;
+			this.values = null;
+			this.count = this.name_start = this.name_end = 0;
+		}
 	}
 	
 	/**
@@ -156,6 +268,12 @@ public class Tag {
 		if (this.parsed && !force) {
             return this;
         }
+		if (this.binary) {
+			return this;
+		}
+		if (this.data != null) {
+			return this.parseBytes();
+		}
 		if (this.raw_encoded.charAt(0) != '<') {
             return null;
         }
@@ -218,6 +336,12 @@ public class Tag {
 		if (this.parsed && !force) {
             return this;
         }
+		if (this.binary) {
+			return this;
+		}
+		if (this.data != null) {
+			return this.parseBytes();
+		}
 		if (this.raw_encoded.charAt(0) != '<') {
             return null;
         }
@@ -251,6 +375,299 @@ public class Tag {
 		return this;
 	}
 	
+	/**
+	 * Parses the encoded bytes in a single pass, only recording where the name, attributes and post data are.
+	 * @return this tag after parsing, or <code>null</code> if the bytes aren't a tag.
+	 */
+	private Tag parseBytes() {
+		if (this.data_length == 0 || this.data[0] != '<') {
+			return null;
+		}
+		this.resetI();
+		boolean noQuote = true;
+		int tokenStart = 1;
+		int equalsIndex = -1;
+		int m = 1;
+		while (true) {
+			if (m >= this.data_length) {
+				return null;
+			}
+			final byte curr = this.data[m++];
+			if (curr == '"') {
+				noQuote = !noQuote;
+			} else if (noQuote) {
+				if (curr == '=' && equalsIndex < 0) {
+					equalsIndex = m - 1;
+				} else if (curr == ' ' || curr == '>') {
+					this.resolveToken(tokenStart, equalsIndex, m - 1);
+					if (curr == '>') {
+						this.length_encoded = m;
+						break;
+					}
+					tokenStart = m;
+					equalsIndex = -1;
+				}
+			}
+		}
+		if (this.count > 0) {
+			this.values = new String[this.count];
+		}
+		this.parsed = true;
+		return this;
+	}
+	
+	private void resolveToken(final int start, final int equalsIndex, final int end) {
+		if (equalsIndex < 0) {
+			this.name_start = start;
+			this.name_end = end;
+			return;
+		}
+		int valueStart = equalsIndex + 1;
+		int valueEnd = end;
+		if (valueStart < valueEnd && this.data[valueStart] == '"') {
+			valueStart++;
+		}
+		if (valueStart < valueEnd && this.data[valueEnd - 1] == '"') {
+			valueEnd--;
+		}
+		if (this.offsets == null) {
+			this.offsets = new int[16];
+		} else if (this.count * 4 >= this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+		}
+		final int i = this.count++ * 4;
+		this.offsets[i] = start;
+		this.offsets[i + 1] = equalsIndex;
+		this.offsets[i + 2] = valueStart;
+		this.offsets[i + 3] = valueEnd;
+	}
+	
+	/**
+	 * Finds an attribute of a Tag parsed from bytes, comparing the key without decoding it.
+	 * @return the index of the attribute, or <code>-1</code> if there's no such attribute.
+	 */
+	private int indexOf(final String key) {
+		for (int a = 0; a < this.count; a++) {
+			if (this.keyEquals(a, key)) {
+				return a;
+			}
+		}
+		return -1;
+	}
+	
+	private boolean keyEquals(final int index, final String key) {
+		if (this.keys != null && this.keys[index] != null) {
+			return this.keys[index].equals(key);
+		}
+		final int start = this.offsets[index * 4];
+		final int keyLength = key.length();
+		if (this.offsets[index * 4 + 1] - start != keyLength) {
+			return false;
+		}
+		for (int i = 0; i < keyLength; i++) {
+			if (this.data[start + i] != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private String keyAt(final int index) {
+		if (this.keys != null && this.keys[index] != null) {
+			return this.keys[index];
+		}
+		final int start = this.offsets[index * 4];
+		return new String(this.data, start, this.offsets[index * 4 + 1] - start, Application.CHARSET);
+	}
+	
+	/**
+	 * Decodes the value of an attribute of a Tag parsed from bytes, the first time it's asked for.
+	 */
+	private String valueAt(final int index) {
+		if (this.values[index] == null) {
+			final int start = this.offsets[index * 4 + 2];
+			if (this.binary) {
+				return this.values[index] = new String(this.data, start, this.offsets[index * 4 + 3] - start, Application.CHARSET);
+			}
+			final ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(this.data, start, this.offsets[index * 4 + 3] - start));
+			this.values[index] = new String(decoded.array(), decoded.arrayOffset(), decoded.remaining(), Application.CHARSET);
+		}
+		return this.values[index];
+	}
+	
+	/**
+	 * Builds the decoded raw strings of a Tag parsed from bytes, the first time they're needed.
+	 */
+	private void buildRaw() {
+		if (this.raw != null || this.data == null || !this.parsed) {
+			return;
+		}
+		final StringBuilder rawBuilder = new StringBuilder();
+		rawBuilder.append('<').append(this.getName());
+		for (int a = 0; a < this.count; a++) {
+			rawBuilder.append(' ').append(this.keyAt(a));
+			rawBuilder.append('=').append('"').append(this.valueAt(a)).append('"');
+		}
+		rawBuilder.append('>');
+		this.tag = rawBuilder.toString();
+		this.length = rawBuilder.length();
+		final String post = this.getPost();
+		if (post != null) {
+			rawBuilder.append(post);
+		}
+		this.raw = rawBuilder.toString();
+	}
+	
+	/**
+	 * Writes this tag in the compact binary form:</br>
+	 * a type byte, then every attribute as a varint header and a length prefixed raw value, a zero, and the raw post data.<br>
+	 * The header is the index of the key in the dictionary plus <code>2</code>, or <code>1</code> followed by the length prefixed key if it's not in the dictionary.
+	 * @param type The byte to start with, which identifies the tag and its dictionary to the reader.
+	 * @param dictionary The keys to write as their index. Keys can only be added to the end of a dictionary.
+	 * @return the binary form of this tag, or <code>null</code> if it couldn't be parsed.
+	 */
+	public byte[] toBinary(final byte type, final String[] dictionary) {
+		if (this.data == null) {
+			final byte[] encoded = this.getEncodedBytes();
+			final Tag parsed = new Tag(encoded, 0, encoded.length).parse();
+			return parsed != null ? parsed.toBinary(type, dictionary) : null;
+		}
+		if (!this.parsed && this.parse() == null) {
+			return null;
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(this.data_length);
+		out.write(type);
+		for (int a = 0; a < this.count; a++) {
+			int id = dictionary.length - 1;
+			while (id >= 0 && !this.keyEquals(a, dictionary[id])) {
+				id--;
+			}
+			if (id >= 0) {
+				writeVarint(out, id + 2);
+			} else {
+				final byte[] key = this.keyAt(a).getBytes(Application.CHARSET);
+				writeVarint(out, 1);
+				writeVarint(out, key.length);
+				out.write(key, 0, key.length);
+			}
+			final int start = this.offsets[a * 4 + 2];
+			final int end = this.offsets[a * 4 + 3];
+			if (this.binary) {
+				writeVarint(out, end - start);
+				out.write(this.data, start, end - start);
+			} else {
+				final ByteBuffer value = Base64.getDecoder().decode(ByteBuffer.wrap(this.data, start, end - start));
+				writeVarint(out, value.remaining());
+				out.write(value.array(), value.arrayOffset(), value.remaining());
+			}
+		}
+		writeVarint(out, 0);
+		final int postStart = this.length_encoded;
+		out.write(this.data, postStart, this.data_length - postStart);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Parses the bytes of this tag as the binary form, starting after the type byte.<br>
+	 * The name has to be set by the caller, since only it knows what the type byte stands for.
+	 * @param start The position of the first attribute.
+	 * @param dictionary The keys the attribute indices refer to.
+	 * @return this tag after parsing, or <code>null</code> if the bytes are malformed.
+	 */
+	protected Tag parseBinary(final int start, final String[] dictionary) {
+		this.binary = true;
+		this.count = 0;
+		final int[] position = { start };
+		while (true) {
+			final int header = readVarint(this.data, position, this.data_length);
+			if (header < 0) {
+				return null;
+			} else if (header == 0) {
+				break;
+			}
+			final int keyStart;
+			final int keyEnd;
+			if (header == 1) {
+				final int keyLength = readVarint(this.data, position, this.data_length);
+				keyStart = position[0];
+				keyEnd = keyStart + keyLength;
+				if (keyLength < 0 || keyEnd > this.data_length) {
+					return null;
+				}
+				position[0] = keyEnd;
+			} else if (header - 2 < dictionary.length) {
+				keyStart = keyEnd = -1;
+			} else {
+				return null; // written with a newer dictionary, the key is unknown
+			}
+			final int valueLength = readVarint(this.data, position, this.data_length);
+			final int valueStart = position[0];
+			if (valueLength < 0 || valueStart + valueLength > this.data_length) {
+				return null;
+			}
+			position[0] += valueLength;
+			if (this.offsets == null) {
+				this.offsets = new int[16];
+				this.keys = new String[4];
+			} else if (this.count * 4 >= this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+				this.keys = Arrays.copyOf(this.keys, this.keys.length * 2);
+			}
+			this.keys[this.count] = header == 1 ? null : dictionary[header - 2];
+			final int i = this.count++ * 4;
+			this.offsets[i] = keyStart;
+			this.offsets[i + 1] = keyEnd;
+			this.offsets[i + 2] = valueStart;
+			this.offsets[i + 3] = valueStart + valueLength;
+		}
+		this.length_encoded = position[0];
+		this.values = this.count > 0 ? new String[this.count] : null;
+		this.parsed = true;
+		return this;
+	}
+	
+	/**
+	 * The text form of a binary tag, written the first time it's needed.
+	 */
+	private Tag text() {
+		if (this.text == null) {
+			final TagWriter writer = new TagWriter(this.getName());
+			for (int a = 0; a < this.count; a++) {
+				writer.attribute(this.keyAt(a), this.valueAt(a));
+			}
+			this.text = writer.post(this.data, this.length_encoded, this.data_length - this.length_encoded).toTag();
+		}
+		return this.text;
+	}
+	
+	private static void writeVarint(final ByteArrayOutputStream out, final int value) {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			out.write((remaining & 0x7F) | 0x80);
+			remaining >>>= 7;
+		}
+		out.write(remaining);
+	}
+	
+	/**
+	 * Reads an unsigned varint and moves the position past it.
+	 * @return the value, or <code>-1</code> if it's truncated or too large.
+	 */
+	private static int readVarint(final byte[] data, final int[] position, final int end) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (position[0] >= end) {
+				return -1;
+			}
+			final byte b = data[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value >= 0 ? value : -1;
+			}
+		}
+		return -1;
+	}
+	
 	private void resolveBuilder(final StringBuilder build) {
 		final int equalsIndex = build.indexOf("=");
 		if (equalsIndex < 0) {
@@ -286,11 +703,7 @@ public class Tag {
 		if (odd) {
             aLength--;
         }
-		final StringBuilder build = new StringBuilder();
-		final StringBuilder buildE = new StringBuilder();
-		build.append('<').append(name.toString());
-		buildE.append('<').append(name.toString());
-		final HashMap<String, Base64Value> att = aLength > 0 ? new HashMap<>() : null;
+		final TagWriter writer = new TagWriter(name);
 		int i = 0;
 		while (i < aLength) {
 			final Object key = attributes[i++];
@@ -298,23 +711,12 @@ public class Tag {
 			if (key == null || value == null) {
                 continue;
             }
-			final String keyString = key.toString();
-			final String valueString = value.toString();
-			final Base64Value bv = new Base64Value(valueString, Base64.getEncoder().encodeToString(valueString.getBytes(Application.CHARSET)));
-			att.put(keyString, bv);
-			build.append(' ').append(keyString).append("=\"").append(valueString).append('"');
-			buildE.append(' ').append(keyString).append("=\"").append(bv.getBase64()).append('"');
-		}
-		build.append('>');
-		buildE.append('>');
-		final String tagString = build.toString();
-		final String tagEString = buildE.toString();
+			writer.attribute(key.toString(), value.toString());
+		}
 		if (odd) {
-			build.append(attributes[aLength]);
-			buildE.append(attributes[aLength]);
+			writer.post(String.valueOf(attributes[aLength]));
 		}
-		return new Tag(build.toString(), buildE.toString(), name.toString(), odd ? attributes[aLength].toString() : null, 
-				tagString, tagEString, att, tagString.length(), tagEString.length());
+		return writer.toTag();
 	}
 	
 	private static class Base64Value {
@@ -0,0 +1,141 @@
+package ghsc.util;
+
+import ghsc.gui.Application;
+import ghsc.impl.EndTaggable;
+import ghsc.impl.Taggable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Reads nested tags in a single pass over encoded bytes, handing every start and end tag to the {@link EndTaggable} it belongs to.<br>
+ * Only the header of each tag is copied while it's parsed, the rest of the document is never moved.<br>
+ * <br>
+ * Not thread safe.
+ */
+public class TagStream {
+
+	private final byte[] data;
+	private final int end;
+	private int position;
+
+	/**
+	 * Initializes a new TagStream over the UTF-8 encoding of the given document.
+	 * @param document The nested tags to read.
+	 */
+	public TagStream(final CharSequence document) {
+		this(document.toString().getBytes(Application.CHARSET));
+	}
+
+	/**
+	 * Initializes a new TagStream over the given bytes.
+	 * @param data The encoded nested tags to read, which must not be modified while reading.
+	 */
+	public TagStream(final byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Initializes a new TagStream over part of the given bytes.
+	 * @param data The encoded nested tags to read, which must not be modified while reading.
+	 * @param offset The position of the first tag.
+	 * @param length The number of bytes to read.
+	 */
+	public TagStream(final byte[] data, final int offset, final int length) {
+		this.data = data;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * @return the position of the next unread byte.
+	 */
+	public int getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * @return whether all the bytes have been read.
+	 */
+	public boolean isFinished() {
+		return this.position >= this.end;
+	}
+
+	/**
+	 * Reads the start tag at the current position.
+	 * @return the parsed start tag, or <code>null</code> if there isn't a complete tag at the current position.
+	 */
+	public Tag next() {
+		if (this.position >= this.end || this.data[this.position] != '<') {
+			return null;
+		}
+		boolean noQuote = true;
+		for (int i = this.position + 1; i < this.end; i++) {
+			final byte b = this.data[i];
+			if (b == '"') {
+				noQuote = !noQuote;
+			} else if (b == '>' && noQuote) {
+				final Tag tag = new Tag(this.data, this.position, i + 1 - this.position).parse();
+				if (tag != null) {
+					this.position = i + 1;
+				}
+				return tag;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads nested tags into the given root until the root's end tag has been read or the bytes run out.<br>
+	 * Each start tag is given to {@link Taggable#createForTag(Tag)} of the innermost open tag,</br>
+	 * and each completed tag is given to {@link Taggable#receive(Object)} of its parent.
+	 * @param root The tag that's already open at the current position.
+	 * @return <tt>true</tt> if everything was understood, <tt>false</tt> if a tag wasn't accepted or isn't complete.
+	 */
+	public boolean parse(final EndTaggable root) {
+		final ArrayDeque<EndTaggable> tagStack = new ArrayDeque<>();
+		tagStack.push(root);
+		EndTaggable peek = root;
+		while (this.position < this.end) {
+			final String endTag = peek.getEndTag();
+			if (this.startsWith(endTag)) {
+				this.position += endTag.length();
+				final Taggable popT = tagStack.pop();
+				peek = tagStack.peek();
+				if (peek != null) {
+					peek.receive(popT);
+				} else {
+					break;
+				}
+			} else {
+				final Tag newTag = this.next();
+				if (newTag == null) {
+					return false;
+				}
+				final EndTaggable resolve = peek.createForTag(newTag);
+				if (resolve == null) {
+					return false;
+				}
+				tagStack.push(resolve);
+				peek = resolve;
+			}
+		}
+		return tagStack.isEmpty(); // the bytes ran out before the root's end tag
+	}
+
+	/**
+	 * Compares the bytes at the current position with an ASCII string, such as an end tag.
+	 */
+	private boolean startsWith(final String search) {
+		final int searchLength = search.length();
+		if (searchLength > this.end - this.position) {
+			return false;
+		}
+		for (int i = 0; i < searchLength; i++) {
+			if (this.data[this.position + i] != search.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,312 @@
+package ghsc.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the encoded form of a {@link Tag} straight into a byte buffer.<br>
+ * Values are Base64 encoded as they're written, and the decoded form is never built unless the resulting Tag is asked for it.<br>
+ * A writer can be reused for any number of tags by calling {@link #begin(Object)}, after which its buffer doesn't need to grow again.<br>
+ * <br>
+ * Not thread safe.
+ */
+public class TagWriter {
+
+	private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private byte[] buffer;
+	private int size;
+	private int nameEnd;
+	private int headerLength;
+	private int[] offsets = new int[16];
+	private int count;
+	/**
+	 * Holds the UTF-8 bytes of a value before they're Base64 encoded into the buffer.
+	 */
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Initializes a new TagWriter without starting a tag.
+	 */
+	public TagWriter() {
+		this.buffer = new byte[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Initializes a new TagWriter and starts a tag.
+	 * @param name The name of the tag.
+	 */
+	public TagWriter(final Object name) {
+		this();
+		this.begin(name);
+	}
+
+	/**
+	 * Discards anything written so far and starts a new tag.
+	 * @param name The name of the tag.
+	 * @return this writer.
+	 */
+	public TagWriter begin(final Object name) {
+		this.size = 0;
+		this.count = 0;
+		this.headerLength = 0;
+		this.ensure(1);
+		this.buffer[this.size++] = '<';
+		this.writeUtf8(name.toString());
+		this.nameEnd = this.size;
+		return this;
+	}
+
+	/**
+	 * Writes an attribute, unless the value is <code>null</code>.
+	 * @param key The key of the attribute.
+	 * @param value The value of the attribute, written as its string.
+	 * @return this writer.
+	 */
+	public TagWriter attribute(final String key, final Object value) {
+		if (value == null) {
+			return this;
+		}
+		return this.attribute(key, value.toString());
+	}
+
+	/**
+	 * Writes an attribute, unless the value is <code>null</code>.
+	 * @param key The key of the attribute.
+	 * @param value The value of the attribute.
+	 * @return this writer.
+	 */
+	public TagWriter attribute(final String key, final CharSequence value) {
+		if (value == null) {
+			return this;
+		}
+		final int length = value.length();
+		if (this.scratch.length < length * 3) {
+			this.scratch = new byte[Math.max(this.scratch.length * 2, length * 3)];
+		}
+		return this.attribute(key, this.scratch, utf8(value, this.scratch));
+	}
+
+	/**
+	 * Writes an attribute without creating a string for the value.
+	 * @param key The key of the attribute.
+	 * @param value The value of the attribute.
+	 * @return this writer.
+	 */
+	public TagWriter attribute(final String key, final int value) {
+		return this.attribute(key, (long) value);
+	}
+
+	/**
+	 * Writes an attribute without creating a string for the value.
+	 * @param key The key of the attribute.
+	 * @param value The value of the attribute.
+	 * @return this writer.
+	 */
+	public TagWriter attribute(final String key, final long value) {
+		if (value == Long.MIN_VALUE) {
+			return this.attribute(key, Long.toString(value));
+		}
+		// write the digits backwards from the end of the scratch array
+		long remaining = Math.abs(value);
+		int start = this.scratch.length;
+		do {
+			this.scratch[--start] = (byte) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining > 0);
+		if (value < 0) {
+			this.scratch[--start] = '-';
+		}
+		final int length = this.scratch.length - start;
+		System.arraycopy(this.scratch, start, this.scratch, 0, length);
+		return this.attribute(key, this.scratch, length);
+	}
+
+	/**
+	 * Writes an attribute as <tt>true</tt> or <tt>false</tt>.
+	 * @param key The key of the attribute.
+	 * @param value The value of the attribute.
+	 * @return this writer.
+	 */
+	public TagWriter attribute(final String key, final boolean value) {
+		return this.attribute(key, value ? "true" : "false");
+	}
+
+	private TagWriter attribute(final String key, final byte[] value, final int length) {
+		if (this.headerLength > 0) {
+			throw new IllegalStateException("Attributes can't be written after the post data.");
+		}
+		this.ensure(key.length() * 3 + 3 + (length + 2) / 3 * 4 + 1);
+		this.buffer[this.size++] = ' ';
+		final int keyStart = this.size;
+		this.writeUtf8(key);
+		final int equalsIndex = this.size;
+		this.buffer[this.size++] = '=';
+		this.buffer[this.size++] = '"';
+		final int valueStart = this.size;
+		this.size = base64(value, length, this.buffer, this.size);
+		final int valueEnd = this.size;
+		this.buffer[this.size++] = '"';
+		if (this.count * 4 >= this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+		}
+		final int i = this.count++ * 4;
+		this.offsets[i] = keyStart;
+		this.offsets[i + 1] = equalsIndex;
+		this.offsets[i + 2] = valueStart;
+		this.offsets[i + 3] = valueEnd;
+		return this;
+	}
+
+	/**
+	 * Ends the attributes and writes the post data, which isn't encoded.<br>
+	 * Calling this again appends more post data.
+	 * @param post The post data.
+	 * @return this writer.
+	 */
+	public TagWriter post(final CharSequence post) {
+		this.end();
+		this.writeUtf8(post);
+		return this;
+	}
+
+	/**
+	 * Ends the attributes and writes raw bytes as the post data.<br>
+	 * Calling this again appends more post data.
+	 * @param post The array holding the post data.
+	 * @param offset The offset of the post data.
+	 * @param length The length of the post data.
+	 * @return this writer.
+	 */
+	public TagWriter post(final byte[] post, final int offset, final int length) {
+		this.end();
+		this.ensure(length);
+		System.arraycopy(post, offset, this.buffer, this.size, length);
+		this.size += length;
+		return this;
+	}
+
+	/**
+	 * Ends the attributes if they haven't been ended yet.
+	 * @return this writer.
+	 */
+	public TagWriter end() {
+		if (this.headerLength == 0) {
+			this.ensure(1);
+			this.buffer[this.size++] = '>';
+			this.headerLength = this.size;
+		}
+		return this;
+	}
+
+	/**
+	 * Ends the attributes and gives access to the encoded bytes without copying them.<br>
+	 * Only the first {@link #getLength()} bytes are valid, and they're overwritten when the writer is reused.
+	 * @return the buffer of this writer.
+	 */
+	public byte[] getBuffer() {
+		this.end();
+		return this.buffer;
+	}
+
+	/**
+	 * @return the number of encoded bytes written.
+	 */
+	public int getLength() {
+		this.end();
+		return this.size;
+	}
+
+	/**
+	 * @return a copy of the encoded bytes.
+	 */
+	public byte[] toByteArray() {
+		this.end();
+		return Arrays.copyOf(this.buffer, this.size);
+	}
+
+	/**
+	 * Creates a Tag of what was written, which keeps its own copy of the encoded bytes.<br>
+	 * The attributes are already located, so nothing needs to be parsed again.
+	 * @return the written Tag.
+	 */
+	public Tag toTag() {
+		this.end();
+		return new Tag(Arrays.copyOf(this.buffer, this.size), this.nameEnd, Arrays.copyOf(this.offsets, this.count * 4), this.count, this.headerLength);
+	}
+
+	private void ensure(final int extra) {
+		if (this.size + extra > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+		}
+	}
+
+	private void writeUtf8(final CharSequence value) {
+		this.ensure(value.length() * 3);
+		this.size += utf8(value, this.buffer, this.size);
+	}
+
+	private static int utf8(final CharSequence value, final byte[] out) {
+		return utf8(value, out, 0);
+	}
+
+	/**
+	 * Encodes characters the same way as <code>String.getBytes(UTF_8)</code>, the output needs room for three bytes per character.
+	 * @return the number of bytes written.
+	 */
+	private static int utf8(final CharSequence value, final byte[] out, final int offset) {
+		int o = offset;
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				out[o++] = (byte) c;
+			} else if (c < 0x800) {
+				out[o++] = (byte) (0xC0 | c >> 6);
+				out[o++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					final int cp = Character.toCodePoint(c, value.charAt(++i));
+					out[o++] = (byte) (0xF0 | cp >> 18);
+					out[o++] = (byte) (0x80 | cp >> 12 & 0x3F);
+					out[o++] = (byte) (0x80 | cp >> 6 & 0x3F);
+					out[o++] = (byte) (0x80 | cp & 0x3F);
+				} else {
+					out[o++] = '?';
+				}
+			} else {
+				out[o++] = (byte) (0xE0 | c >> 12);
+				out[o++] = (byte) (0x80 | c >> 6 & 0x3F);
+				out[o++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		return o - offset;
+	}
+
+	/**
+	 * Base64 encodes bytes with padding, like {@link java.util.Base64#getEncoder()}.
+	 * @return the position after the last byte written.
+	 */
+	private static int base64(final byte[] in, final int length, final byte[] out, final int offset) {
+		int o = offset;
+		int i = 0;
+		while (i + 3 <= length) {
+			final int bits = (in[i++] & 0xFF) << 16 | (in[i++] & 0xFF) << 8 | in[i++] & 0xFF;
+			out[o++] = BASE64[bits >>> 18];
+			out[o++] = BASE64[bits >>> 12 & 0x3F];
+			out[o++] = BASE64[bits >>> 6 & 0x3F];
+			out[o++] = BASE64[bits & 0x3F];
+		}
+		final int left = length - i;
+		if (left > 0) {
+			final int bits = (in[i] & 0xFF) << 16 | (left == 2 ? (in[i + 1] & 0xFF) << 8 : 0);
+			out[o++] = BASE64[bits >>> 18];
+			out[o++] = BASE64[bits >>> 12 & 0x3F];
+			out[o++] = left == 2 ? BASE64[bits >>> 6 & 0x3F] : (byte) '=';
+			out[o++] = '=';
+		}
+		return o;
+	}
+
+}
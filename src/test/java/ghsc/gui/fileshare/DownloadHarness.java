@@ -0,0 +1,516 @@
+package ghsc.gui.fileshare;
+
+import ghsc.event.EventListener;
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.components.users.User;
+import ghsc.gui.fileshare.internal.ChunkHashes;
+import ghsc.gui.fileshare.internal.FilePackage;
+import ghsc.gui.fileshare.internal.LocalFileNode;
+import ghsc.gui.fileshare.internal.LocalPackage;
+import ghsc.gui.fileshare.internal.RemoteFileNode;
+import ghsc.gui.fileshare.internal.RemoteFileNodeChildren;
+import ghsc.gui.fileshare.internal.RemotePackage;
+import ghsc.net.encryption.AES;
+import ghsc.net.sockets.filetransfer.FileTransferListener;
+import ghsc.net.sockets.input.MessageThread;
+import ghsc.util.Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class DownloadHarness {
+
+	private static final int SMALL_FILES = 20;
+	private static final int SMALL_LENGTH = 300000;
+	private static final long LARGE_LENGTH = PackageDownload.SEGMENTED_LENGTH + 16L * ChunkHashes.CHUNK_SIZE + 12345;
+	/**
+	 * The bytes per second each connection of the host sends at most, so a download lasts long enough to be interrupted.
+	 */
+	private static final long CONNECTION_RATE = 8L * 1024 * 1024;
+	private static final long TIMEOUT = 120000;
+	/**
+	 * The directories created by {@link #temporary(String)}, deleted once the harness is done.
+	 */
+	private static final ArrayList<File> TEMPORARY = new ArrayList<>();
+	private static int failures;
+
+	/**
+	 * Main entry point for the download harness.<br>
+	 * Shares a package of {@value #SMALL_FILES} small files and one large file on the loopback interface, which hashes the files when they're first requested.<br>
+	 * Downloads the whole package with a {@link PackageDownload} from a {@link FileShare} behind a {@link FileTransferListener},</br>
+	 * the small files over one connection and the large one over several ranged connections.<br>
+	 * The other downloads are served by a throttled host that answers with the same {@link PackageServer} as the file share.</br>
+	 * It downloads the large file again, closes the download halfway through and resumes it with a new one.<br>
+	 * Then downloads the large file from the host and a mirror, which is added as a source once the host confirmed the file,</br>
+	 * and finally once more with its hashes announced, which copies the swarmed file instead of connecting.<br>
+	 * Every downloaded file is compared with its original, the harness exits with status 1 if any check failed.<br>
+	 * The temporary directories are deleted at the end.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) throws Exception {
+		try {
+			final File shared = temporary("harness");
+			final Random random = new Random(23);
+			final File nested = new File(shared, "nested");
+			nested.mkdirs();
+			for (int i = 0; i < SMALL_FILES; i++) {
+				write(new File(i % 4 == 0 ? nested : shared, "small" + i + ".bin"), random, SMALL_LENGTH + i * 1000);
+			}
+			final File large = new File(shared, "large.bin");
+			write(large, random, LARGE_LENGTH);
+
+			final LocalPackage lPackage = new LocalPackage("harness", "", Calendar.getInstance(), new FilePackage.Visibility(FilePackage.Visibility.Type.PUBLIC, null));
+			lPackage.setRoots(LocalFileNode.generateRoot(shared));
+			final Host host = new Host(lPackage);
+			final RemotePackage rPackage = RemotePackage.parse(null, lPackage.getRemoteMeta());
+			final File downloads = temporary("downloads");
+
+			// the whole package, from a file share accepting the connections like the application does
+			final User downloader = new User(null, new Socket());
+			final AtomicInteger accepted = new AtomicInteger();
+			final FileShare fileShare = new FileShare((FileShareFrame) null) {
+				public void process(final Socket s) {
+					accepted.incrementAndGet();
+					super.process(s);
+				}
+				protected User findUser(final InetAddress address) {
+					return address.isLoopbackAddress() ? downloader : null;
+				}
+			};
+			fileShare.packages.put(lPackage.getUUID().toString(), lPackage);
+			final FileTransferListener transfers = new FileTransferListener(0, () -> fileShare);
+			transfers.start();
+			final LinkedHashMap<RemoteFileNode, File> files = new LinkedHashMap<>();
+			for (final RemoteFileNode root : rPackage.getRoots()) {
+				collect(root, downloads, files);
+			}
+			final AtomicInteger connections = new AtomicInteger();
+			final PackageDownload download = new PackageDownload(rPackage, null, null) {
+				protected FileDownload createFileDownload(final EventListener<FileDownload> listener) {
+					return new FileDownload(rPackage, listener) {
+						protected Socket connect(final RemotePackage rPackage) {
+							return connectTo(transfers.getPort());
+						}
+						protected ContentIndex getContentIndex() {
+							return null;
+						}
+					};
+				}
+				protected SegmentedDownload createSegmentedDownload(final RemoteFileNode file, final File target, final EventListener<SegmentedDownload> progress) {
+					return new SegmentedDownload(rPackage, file, target, d -> {
+						connections.accumulateAndGet(d.getConnectionCount(), Math::max);
+						progress.eventReceived(d);
+					}) {
+						protected Socket connect(final RemotePackage rPackage) {
+							return connectTo(transfers.getPort());
+						}
+						protected Map<RemotePackage, String> findSources(final ChunkHashes hashes) {
+							return Collections.emptyMap();
+						}
+						protected ContentIndex getContentIndex() {
+							return null;
+						}
+					};
+				}
+			};
+			long start = System.currentTimeMillis();
+			for (final Map.Entry<RemoteFileNode, File> file : files.entrySet()) {
+				download.add(file.getKey(), file.getValue());
+			}
+			while (!download.isDone() && System.currentTimeMillis() - start < TIMEOUT) {
+				Thread.sleep(50);
+			}
+			download.close();
+			int equal = 0;
+			for (final Map.Entry<RemoteFileNode, File> file : files.entrySet()) {
+				final File original = shared.getParentFile().toPath().resolve(downloads.toPath().relativize(file.getValue().toPath())).toFile();
+				if (equals(original, file.getValue())) {
+					equal++;
+				}
+			}
+			System.out.println("package: " + download.getFinishedCount() + " of " + download.getFileCount() + " files done, " + download.getFailedCount() + " failed, "
+					+ equal + " equal, " + (System.currentTimeMillis() - start) + " ms");
+			System.out.println("\tlarge file: at most " + connections.get() + " connections, listener accepted " + accepted.get() + " connections");
+			check("package", download.getFinishedCount() == files.size() && download.getFailedCount() == 0 && equal == files.size());
+			transfers.close();
+
+			// the large file, interrupted and resumed
+			final RemoteFileNode remoteLarge = find(files, large.getName());
+			final File target = new File(temporary("resumed"), large.getName());
+			host.sent.set(0);
+			final SegmentedDownload first = download(rPackage, remoteLarge, target, Collections.singletonMap(rPackage, host), Collections.emptyMap(), null);
+			first.start(null);
+			start = System.currentTimeMillis();
+			while (first.getReceived() < LARGE_LENGTH / 2 && !first.isFailed() && System.currentTimeMillis() - start < TIMEOUT) {
+				Thread.sleep(10);
+			}
+			first.close();
+			final long interrupted = first.getReceived();
+			final boolean journaled = new File(target.getPath() + DownloadJournal.EXTENSION).exists();
+			Thread.sleep(200);
+			final long sentBefore = host.sent.getAndSet(0);
+			final SegmentedDownload second = download(rPackage, remoteLarge, target, Collections.singletonMap(rPackage, host), Collections.emptyMap(), null);
+			second.start(null);
+			start = System.currentTimeMillis();
+			while (!second.isFinished() && !second.isFailed() && System.currentTimeMillis() - start < TIMEOUT) {
+				Thread.sleep(50);
+			}
+			second.close();
+			System.out.println("resume: closed at " + interrupted + " of " + LARGE_LENGTH + " bytes, journal " + (journaled ? "kept" : "missing") + ", host sent " + sentBefore + " bytes");
+			System.out.println("\tresumed: " + (second.isFinished() ? "finished" : "not finished") + ", host sent " + host.sent.get() + " more bytes, equal " + equals(large, target));
+			check("resume", journaled && second.isFinished() && equals(large, target));
+
+			// the large file from two hosts, the second found as a source once the file was confirmed by the first
+			final File mirrored = temporary("mirror");
+			Files.copy(large.toPath(), new File(mirrored, large.getName()).toPath());
+			final LocalPackage lMirror = new LocalPackage("mirror", "", Calendar.getInstance(), new FilePackage.Visibility(FilePackage.Visibility.Type.PUBLIC, null));
+			final LocalFileNode mirroredRoot = LocalFileNode.generateRoot(mirrored);
+			lMirror.setRoots(mirroredRoot);
+			// the mirror shared the file long enough to have hashed it
+			for (final LocalFileNode file : mirroredRoot.getChildren()) {
+				file.getChunkHashes();
+			}
+			final Host mirror = new Host(lMirror);
+			final RemotePackage rMirror = RemotePackage.parse(null, lMirror.getRemoteMeta());
+			final LinkedHashMap<RemoteFileNode, File> mirroredFiles = new LinkedHashMap<>();
+			for (final RemoteFileNode root : rMirror.getRoots()) {
+				collect(root, downloads, mirroredFiles);
+			}
+			final Map<RemotePackage, Host> hosts = new LinkedHashMap<>();
+			hosts.put(rPackage, host);
+			hosts.put(rMirror, mirror);
+			host.sent.set(0);
+			final File swarmed = new File(temporary("swarmed"), large.getName());
+			final SegmentedDownload swarm = download(rPackage, remoteLarge, swarmed, hosts,
+					Collections.singletonMap(rMirror, find(mirroredFiles, large.getName()).getPath()), null);
+			swarm.start(null);
+			start = System.currentTimeMillis();
+			while (!swarm.isFinished() && !swarm.isFailed() && System.currentTimeMillis() - start < TIMEOUT) {
+				Thread.sleep(50);
+			}
+			swarm.close();
+			System.out.println("swarm: " + (swarm.isFinished() ? "finished" : "not finished") + " from " + swarm.getSourceCount() + " sources in " + (System.currentTimeMillis() - start) + " ms, host sent "
+					+ host.sent.get() + " bytes, mirror sent " + mirror.sent.get() + " bytes, equal " + equals(large, swarmed));
+			System.out.println("\tencrypted: " + (host.encrypted.get() + mirror.encrypted.get()) + " of " + (host.ranges.get() + mirror.ranges.get()) + " requests");
+			check("swarm", swarm.isFinished() && equals(large, swarmed) && host.encrypted.get() + mirror.encrypted.get() == host.ranges.get() + mirror.ranges.get());
+
+			// the large file announced with its hashes, while a copy of it is already here
+			final RemotePackage rHashed = RemotePackage.parse(null, lPackage.toRemoteMeta());
+			final LinkedHashMap<RemoteFileNode, File> hashedFiles = new LinkedHashMap<>();
+			for (final RemoteFileNode root : rHashed.getRoots()) {
+				collect(root, downloads, hashedFiles);
+			}
+			final ContentIndex index = new ContentIndex();
+			try (FileChannel channel = FileChannel.open(swarmed.toPath())) {
+				index.add(ChunkHashes.compute(channel), swarmed, swarmed.lastModified(), true);
+			}
+			host.sent.set(0);
+			final File reused = new File(temporary("reused"), large.getName());
+			final SegmentedDownload local = new SegmentedDownload(rHashed, find(hashedFiles, large.getName()), reused, null) {
+				protected Socket connect(final RemotePackage rPackage) {
+					return host.connect();
+				}
+				protected ContentIndex getContentIndex() {
+					return index;
+				}
+			};
+			local.start(null);
+			System.out.println("reuse: " + (local.isFinished() ? "finished" : "not finished") + ", host sent " + host.sent.get() + " bytes, "
+					+ links(reused) + " link(s) to the copy, equal " + equals(large, reused));
+			check("reuse", local.isFinished() && host.sent.get() == 0 && equals(large, reused));
+		} catch (final Exception e) {
+			e.printStackTrace();
+			failures++;
+		} finally {
+			for (final File directory : TEMPORARY) {
+				delete(directory);
+			}
+		}
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+		}
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Counts a failed check, so the harness exits with a non zero status.
+	 */
+	private static void check(final String name, final boolean passed) {
+		if (!passed) {
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+	/**
+	 * @return a new temporary directory, deleted with its contents once the harness is done.
+	 */
+	private static File temporary(final String prefix) throws IOException {
+		final File directory = Files.createTempDirectory(prefix).toFile();
+		TEMPORARY.add(directory);
+		return directory;
+	}
+
+	private static void delete(final File directory) {
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the number of hard links to a file, or "?" if the file system doesn't tell.
+	 */
+	private static Object links(final File file) {
+		try {
+			return Files.getAttribute(file.toPath(), "unix:nlink");
+		} catch (final IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			return "?"; // not a POSIX file system
+		}
+	}
+
+	/**
+	 * @return a socket connected to a port of the loopback interface, or <code>null</code> if nothing listens on it.
+	 */
+	private static Socket connectTo(final int port) {
+		try {
+			// the same kind of socket FileShare.connect opens
+			return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)).socket();
+		} catch (final IOException e) {
+			return null;
+		}
+	}
+
+	private static void write(final File file, final Random random, final long length) throws IOException {
+		final byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			for (long written = 0; written < length; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, length - written));
+			}
+		}
+	}
+
+	private static void collect(final RemoteFileNode node, final File directory, final Map<RemoteFileNode, File> files) {
+		final File target = new File(directory, node.getName());
+		if (!node.isDirectory()) {
+			files.put(node, target);
+			return;
+		}
+		final RemoteFileNodeChildren children = node.getChildren();
+		if (children != null) {
+			for (final RemoteFileNode child : children) {
+				collect(child, target, files);
+			}
+		}
+	}
+
+	private static RemoteFileNode find(final Map<RemoteFileNode, File> files, final String name) {
+		for (final RemoteFileNode file : files.keySet()) {
+			if (file.getName().equals(name)) {
+				return file;
+			}
+		}
+		throw new IllegalStateException("The package has no " + name + ".");
+	}
+
+	private static boolean equals(final File original, final File copy) throws IOException {
+		return copy.exists() && Arrays.equals(Files.readAllBytes(original.toPath()), Files.readAllBytes(copy.toPath()));
+	}
+
+	/**
+	 * Creates a download of a large file from the given hosts.
+	 * @param hosts The host of each package the file may be downloaded from.
+	 * @param sources The paths of the file in the other packages that share it, found once the file was confirmed.
+	 */
+	private static SegmentedDownload download(final RemotePackage rPackage, final RemoteFileNode file, final File target, final Map<RemotePackage, Host> hosts,
+			final Map<RemotePackage, String> sources, final EventListener<SegmentedDownload> listener) {
+		return new SegmentedDownload(rPackage, file, target, listener) {
+			protected Socket connect(final RemotePackage rPackage) {
+				return hosts.get(rPackage).connect();
+			}
+			protected Map<RemotePackage, String> findSources(final ChunkHashes hashes) {
+				return sources;
+			}
+			protected ContentIndex getContentIndex() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Hosts a package on the loopback interface, answering downloaders like a file share connection that gave them access.
+	 */
+	private static class Host {
+
+		private final LocalPackage lPackage;
+		private final ServerSocket server;
+		private final ExecutorService hasher = Executors.newSingleThreadExecutor(r -> {
+			final Thread t = new Thread(r, "DownloadHarness|Hasher");
+			t.setDaemon(true);
+			return t;
+		});
+		private final AtomicInteger connections = new AtomicInteger();
+		private final AtomicLong sent = new AtomicLong();
+		/**
+		 * Ranges sent, and those encrypted with the key of their connection.
+		 */
+		private final AtomicInteger ranges = new AtomicInteger();
+		private final AtomicInteger encrypted = new AtomicInteger();
+
+		private Host(final LocalPackage lPackage) throws IOException {
+			this.lPackage = lPackage;
+			this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			final Thread accept = new Thread(() -> {
+				try {
+					while (true) {
+						new Connection(this.server.accept());
+					}
+				} catch (final IOException e) {}
+			}, "DownloadHarness|Accept");
+			accept.setDaemon(true);
+			accept.start();
+		}
+
+		private Socket connect() {
+			return connectTo(this.server.getLocalPort());
+		}
+
+		private void hashLater(final LocalFileNode file) {
+			this.hasher.execute(() -> {
+				try {
+					file.getChunkHashes();
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			});
+		}
+
+		/**
+		 * One connection of a downloader.
+		 */
+		private class Connection {
+
+			private final Socket socket;
+			private final MessageThread messageThread;
+			private final PackageServer packageServer;
+
+			private Connection(final Socket socket) {
+				Host.this.connections.incrementAndGet();
+				this.socket = socket;
+				this.messageThread = new MessageThread(new MessageThread.IOWrapper() {
+					public InputStream getInputStream() throws IOException {
+						return socket.getInputStream();
+					}
+					public OutputStream getOutputStream() throws IOException {
+						return socket.getOutputStream();
+					}
+					public WritableByteChannel getOutputChannel() throws IOException {
+						return new ThrottledChannel(Channels.newChannel(socket.getOutputStream()), Host.this.sent);
+					}
+				}, this::received, this::close);
+				this.packageServer = new PackageServer(Host.this.lPackage, this.messageThread, Host.this::hashLater);
+				this.messageThread.start();
+			}
+
+			private void received(final MessageEvent msg) {
+				final String type = msg.getAttribute(FileShare.ATT_TYPE);
+				if (FileShare.TYPE_ENCRYPTION.equals(type)) {
+					this.messageThread.setEncryption(new AES(Base64.getDecoder().decode(msg.getPost())));
+					this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, type, Utilities.resolveToString(true)));
+				} else if (FileShare.TYPE_UUID.equals(type)) {
+					this.messageThread.send(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, FileShare.ATT_TYPE, FileShare.TYPE_UUID, Utilities.resolveToString(true)));
+				} else if (FileShare.TYPE_LIST.equals(type)) {
+					this.packageServer.list(msg);
+				} else if (FileShare.TYPE_REQUEST.equals(type)) {
+					Host.this.ranges.incrementAndGet();
+					if (!AES.DEFAULT.equals(this.messageThread.getEncryption())) {
+						Host.this.encrypted.incrementAndGet();
+					}
+					try {
+						this.packageServer.transfer(msg);
+					} catch (final IOException e) {
+						this.close();
+					}
+				}
+			}
+
+			private void close() {
+				try {
+					this.socket.close();
+				} catch (final IOException e) {}
+			}
+
+		}
+
+	}
+
+	/**
+	 * Sends at most {@value #CONNECTION_RATE} bytes per second, and counts them.
+	 */
+	private static class ThrottledChannel implements WritableByteChannel {
+
+		private final WritableByteChannel channel;
+		private final AtomicLong sent;
+		private final long start = System.nanoTime();
+		private long written;
+
+		private ThrottledChannel(final WritableByteChannel channel, final AtomicLong sent) {
+			this.channel = channel;
+			this.sent = sent;
+		}
+
+		public int write(final ByteBuffer src) throws IOException {
+			final long wait = this.start + this.written * 1000000000L / CONNECTION_RATE - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (final InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			final int n = this.channel.write(src);
+			this.written += n;
+			this.sent.addAndGet(n);
+			return n;
+		}
+
+		public boolean isOpen() {
+			return this.channel.isOpen();
+		}
+
+		public void close() throws IOException {
+			this.channel.close();
+		}
+
+	}
+
+}
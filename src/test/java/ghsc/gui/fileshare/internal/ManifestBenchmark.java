@@ -0,0 +1,147 @@
+package ghsc.gui.fileshare.internal;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.UUID;
+
+import ghsc.impl.EndTaggable;
+import ghsc.impl.Taggable;
+import ghsc.util.Tag;
+import ghsc.util.Utilities;
+
+public class ManifestBenchmark {
+
+	private static final int[] NODES = { 10000, 100000, 1000000 };
+	/**
+	 * The original parser copies and shifts the rest of the manifest for every node, so it's only measured on small manifests.
+	 */
+	private static final int LEGACY_LIMIT = 10000;
+	private static final int FILES_PER_DIRECTORY = 100;
+	private static final int ROUNDS = 3;
+
+	/**
+	 * Main entry point for the manifest benchmark.<br>
+	 * Builds synthetic package manifests of directories with {@value #FILES_PER_DIRECTORY} files each,</br>
+	 * and measures how long {@link RemotePackage#parse(ghsc.gui.components.users.User, String)} takes to read them back,</br>
+	 * and how much memory a received package keeps before and after every node of it has been expanded.<br>
+	 * The smallest manifest is also read with the original loop, which parsed the remaining text and deleted it for every node.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) {
+		for (final int nodes : NODES) {
+			final String manifest = build(nodes);
+			System.out.println(nodes + " nodes, " + manifest.length() + " chars:");
+			long best = Long.MAX_VALUE;
+			RemotePackage parsed = null;
+			for (int round = 0; round < ROUNDS; round++) {
+				final long start = System.nanoTime();
+				parsed = RemotePackage.parse(null, manifest);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if (parsed == null) {
+				throw new IllegalStateException("The manifest didn't parse.");
+			}
+			System.out.println("\tscanned: " + best / 1000000 + " ms, " + (parsed.getFileCount() + parsed.getDirectoryCount()) + " nodes, " + parsed.getSize() + " bytes of files");
+			parsed = null;
+			final long before = used();
+			parsed = RemotePackage.parse(null, manifest);
+			final long scanned = used();
+			final int expanded = expand(parsed.getRoots());
+			final long materialized = used();
+			System.out.println("\tretained: " + (scanned - before) / 1024 + " KiB scanned, " + (materialized - before) / 1024 + " KiB with " + expanded + " nodes expanded");
+			if (nodes <= LEGACY_LIMIT) {
+				final long start = System.nanoTime();
+				final int read = parseLegacy(manifest);
+				System.out.println("\tlegacy: " + (System.nanoTime() - start) / 1000000 + " ms, " + read + " nodes read");
+			} else {
+				System.out.println("\tlegacy: skipped");
+			}
+		}
+	}
+
+	/**
+	 * Creates every node of a tree, like a user expanding all of it.
+	 */
+	private static int expand(final RemoteFileNode[] nodes) {
+		int expanded = 0;
+		for (final RemoteFileNode node : nodes) {
+			node.getPath();
+			expanded++;
+			if (!node.isLeaf()) {
+				expanded += expand(node.getChildren().toArray(new RemoteFileNode[0]));
+			}
+		}
+		return expanded;
+	}
+
+	private static long used() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String build(final int nodes) {
+		final StringBuilder build = new StringBuilder(nodes * 48);
+		build.append(Tag.construct(FilePackage.TAGNAME,
+				FilePackage.ATT_NAME, "benchmark",
+				FilePackage.ATT_CREATIONDATE, new SimpleDateFormat(FilePackage.DATE_FORMAT).format(new Date()),
+				FilePackage.ATT_VISIBILITY, FilePackage.Visibility.Type.PUBLIC.getIdentifier(),
+				FilePackage.ATT_UUID, UUID.randomUUID()).getEncodedString());
+		build.append(Tag.construct(FileNode.TAGNAME_DIR, FileNode.ATT_NAME, "root").getEncodedString());
+		int written = 1;
+		int directory = 0;
+		while (written < nodes) {
+			build.append(Tag.construct(FileNode.TAGNAME_DIR, FileNode.ATT_NAME, "directory " + directory++).getEncodedString());
+			written++;
+			for (int i = 0; i < FILES_PER_DIRECTORY && written < nodes; i++, written++) {
+				build.append(Tag.construct(FileNode.TAGNAME_FILE, FileNode.ATT_NAME, "file " + i + ".dat", FileNode.ATT_SIZE, i * 1024L).getEncodedString());
+				build.append("</").append(FileNode.TAGNAME_FILE).append('>');
+			}
+			build.append("</").append(FileNode.TAGNAME_DIR).append('>');
+		}
+		build.append("</").append(FileNode.TAGNAME_DIR).append('>');
+		build.append("</").append(FileNodeChildren.TAGNAME).append('>');
+		build.append("</").append(FilePackage.TAGNAME).append('>');
+		return build.toString();
+	}
+
+	/**
+	 * The loop RemotePackage used before, kept here for comparison.
+	 */
+	private static int parseLegacy(final String manifest) {
+		final Tag pTag = Tag.parse(manifest);
+		final RemoteFileNodeChildren rChildren = new RemoteFileNodeChildren(null);
+		final LinkedList<EndTaggable> tagStack = new LinkedList<>();
+		tagStack.push(rChildren);
+		final StringBuilder build = new StringBuilder(pTag.getPost());
+		EndTaggable peek = rChildren;
+		int read = 0;
+		while (build.length() > 0) {
+			if (Utilities.startsWith(build, peek.getEndTag())) {
+				build.delete(0, peek.getEndTag().length());
+				final Taggable popT = tagStack.pop();
+				peek = tagStack.peek();
+				if (peek != null) {
+					peek.receive(popT);
+				} else {
+					break;
+				}
+			} else {
+				final Tag newTag = new Tag(build).parse();
+				final EndTaggable resolve = newTag != null ? peek.createForTag(newTag) : null;
+				if (resolve == null) {
+					return -1;
+				}
+				read++;
+				tagStack.push(resolve);
+				peek = resolve;
+				build.delete(0, newTag.getEncodedLength());
+			}
+		}
+		return read;
+	}
+
+}
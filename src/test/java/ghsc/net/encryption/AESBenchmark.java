@@ -0,0 +1,106 @@
+package ghsc.net.encryption;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class AESBenchmark {
+
+	private static final int[] THREADS = { 1, 4, 16, 64 };
+	private static final int MESSAGE_SIZE = 256;
+	private static final long WARMUP_MILLIS = 1000;
+	private static final long MEASURE_MILLIS = 2000;
+
+	/**
+	 * Main entry point for the AES benchmark.<br>
+	 * Measures encrypt and decrypt throughput of a shared cipher with an increasing number of threads,</br>
+	 * comparing the pooled ciphers of {@link AES#DEFAULT} against a single cipher behind a lock.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		final byte[] message = new byte[MESSAGE_SIZE];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) i;
+		}
+		final Locked locked = new Locked();
+		for (final int threads : THREADS) {
+			final long pooled = run(threads, () -> AES.DEFAULT.decrypt(AES.DEFAULT.encrypt(message)));
+			final long synchronous = run(threads, () -> locked.decrypt(locked.encrypt(message)));
+			System.out.println(threads + " threads: pooled " + pooled + " ops/sec, locked " + synchronous + " ops/sec");
+		}
+	}
+
+	private static long run(final int threads, final Runnable operation) throws InterruptedException {
+		run(threads, operation, WARMUP_MILLIS);
+		return run(threads, operation, MEASURE_MILLIS) * 1000 / MEASURE_MILLIS;
+	}
+
+	private static long run(final int threads, final Runnable operation, final long millis) throws InterruptedException {
+		final AtomicLong operations = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] end = new long[1];
+		for (int i = 0; i < threads; i++) {
+			final Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				long count = 0;
+				while (System.currentTimeMillis() < end[0]) {
+					operation.run();
+					count++;
+				}
+				operations.addAndGet(count);
+				done.countDown();
+			});
+			thread.setName("AESBenchmark-" + i);
+			thread.start();
+		}
+		end[0] = System.currentTimeMillis() + millis;
+		start.countDown();
+		done.await();
+		return operations.get();
+	}
+
+	/**
+	 * A single encrypt and decrypt cipher guarded by the instance lock, the way AES used to be.
+	 */
+	private static class Locked {
+
+		private final Cipher e = create(Cipher.ENCRYPT_MODE);
+		private final Cipher d = create(Cipher.DECRYPT_MODE);
+
+		private static Cipher create(final int mode) {
+			try {
+				final Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+				c.init(mode, new SecretKeySpec(new byte[16], "AES"), new IvParameterSpec(new byte[16]));
+				return c;
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		synchronized byte[] encrypt(final byte[] data) {
+			try {
+				return this.e.doFinal(data);
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		synchronized byte[] decrypt(final byte[] data) {
+			try {
+				return this.d.doFinal(data);
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+package ghsc.net.sockets.input;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import ghsc.event.message.MessageEvent;
+import ghsc.gui.Application;
+import ghsc.util.Tag;
+
+public class FrameBenchmark {
+
+	private static final int FRAMES = 200000;
+	private static final int ROUNDS = 5;
+	private static final int READ_SIZE = 8192;
+
+	/**
+	 * Main entry point for the frame benchmark.<br>
+	 * Measures how many frames per second can be written and decoded with each framing.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final Tag message = MessageEvent.construct(MessageEvent.Type.MESSAGE, "c", "#Global", "Hello everyone, this is a typical chat message!");
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.println("Round " + round + ":");
+			for (final Framing framing : Framing.values()) {
+				run(framing, message);
+			}
+		}
+		final BufferPool pool = BufferPool.SHARED;
+		System.out.println("Buffer pool: " + pool.getHits() + " hits, " + pool.getMisses() + " misses, " + pool.getBytesInUse() + " bytes in use");
+	}
+
+	private static void run(final Framing framing, final Tag message) throws IOException {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final MessageThread thread = new MessageThread(new MessageThread.IOWrapper() {
+			public InputStream getInputStream() {
+				return null;
+			}
+			public OutputStream getOutputStream() {
+				return stream;
+			}
+		}, event -> {}, () -> {}, OutboundQueue.DEFAULT_LIMIT, OutboundQueue.Policy.BLOCK);
+		thread.setFraming(framing);
+		final byte[] data = message.getEncodedString().getBytes(Application.CHARSET);
+		final long expected = (long) FRAMES * framing.encode(thread.getEncryption(), data, 0, data.length).length;
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			thread.send(message);
+		}
+		// sends are written asynchronously, so wait for the writer to catch up
+		while (stream.size() < expected) {
+			Thread.yield();
+		}
+		final long encodeNanos = System.nanoTime() - start;
+		final byte[] written = stream.toByteArray();
+
+		final int[] received = new int[1];
+		final MessageDecoder decoder = new MessageDecoder(event -> received[0]++);
+		final ByteBuffer buffer = ByteBuffer.wrap(written);
+		start = System.nanoTime();
+		for (int position = 0; position < written.length; position += READ_SIZE) {
+			buffer.limit(Math.min(position + READ_SIZE, written.length));
+			buffer.position(position);
+			decoder.append(buffer);
+		}
+		final long decodeNanos = System.nanoTime() - start;
+		if (received[0] != FRAMES) {
+			throw new IllegalStateException("Decoded " + received[0] + " of " + FRAMES + " frames.");
+		}
+		System.out.println("\t" + framing.name() + ": encode " + perSecond(encodeNanos) + " frames/sec, decode " + perSecond(decodeNanos) + " frames/sec, " + written.length + " bytes");
+	}
+
+	private static long perSecond(final long nanos) {
+		return (long) (FRAMES / (nanos / 1e9));
+	}
+
+}
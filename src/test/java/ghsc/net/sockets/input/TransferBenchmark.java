@@ -0,0 +1,98 @@
+package ghsc.net.sockets.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+import ghsc.event.message.MessageEvent;
+import ghsc.net.encryption.AES;
+import ghsc.net.encryption.StreamCipher;
+
+public class TransferBenchmark {
+
+	private static final long LENGTH = 256L * 1024 * 1024;
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Main entry point for the transfer benchmark.<br>
+	 * Measures how fast a file is sent over loopback with {@link MessageThread#transfer(PreparedMessage, FileChannel, long, long, StreamCipher)},</br>
+	 * through the streams of a plain socket, straight to the channel of a socket opened by a {@link SocketChannel}, and encrypted.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final Path file = Files.createTempFile("transfer", ".bin");
+		try {
+			try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+				final byte[] block = new byte[1024 * 1024];
+				for (int i = 0; i < block.length; i++) {
+					block[i] = (byte) (i * 31);
+				}
+				for (long written = 0; written < LENGTH; written += block.length) {
+					raf.write(block);
+				}
+			}
+			try (final ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+					final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				for (int round = 1; round <= ROUNDS; round++) {
+					System.out.println("Round " + round + ":");
+					run("socket streams", server, channel, false, false);
+					run("socket channel", server, channel, true, false);
+					run("socket channel, encrypted", server, channel, true, true);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void run(final String name, final ServerSocket server, final FileChannel file, final boolean channel, final boolean encrypted) throws IOException {
+		final CompletableFuture<Long> received = CompletableFuture.supplyAsync(() -> {
+			try (final Socket s = server.accept()) {
+				final InputStream in = s.getInputStream();
+				final byte[] buffer = new byte[64 * 1024];
+				long total = 0;
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					total += read;
+				}
+				return total;
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		final InetSocketAddress address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+		final Socket socket = channel ? SocketChannel.open(address).socket() : new Socket(address.getAddress(), address.getPort());
+		final MessageThread.IOWrapper io = channel ? new SocketIO(socket) : new MessageThread.IOWrapper() {
+			public InputStream getInputStream() throws IOException {
+				return socket.getInputStream();
+			}
+			public OutputStream getOutputStream() throws IOException {
+				return socket.getOutputStream();
+			}
+		};
+		final MessageThread thread = new MessageThread(io, event -> {}, () -> {});
+		final StreamCipher cipher = encrypted ? AES.DEFAULT.createStream() : null;
+		final long start = System.nanoTime();
+		thread.transfer(new PreparedMessage(MessageEvent.construct(MessageEvent.Type.FILE_SHARE, "ln", Long.toString(LENGTH))), file, 0, LENGTH, cipher);
+		socket.shutdownOutput();
+		final long total = received.join();
+		final long nanos = System.nanoTime() - start;
+		socket.close();
+		if (total < LENGTH) {
+			throw new IllegalStateException("Received " + total + " of " + LENGTH + " bytes.");
+		}
+		System.out.println("\t" + name + ": " + nanos / 1000000 + " ms, " + (long) (LENGTH / 1048576.0 / (nanos / 1e9)) + " MB/sec");
+	}
+
+}
@@ -0,0 +1,127 @@
+package ghsc.net.sockets.multicast;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+public class BeaconSimulation {
+
+	private static final int[] PEERS = { 10, 100, 500 };
+	/**
+	 * Peers start at random times within this window.
+	 */
+	private static final long START_WINDOW = 10000;
+	/**
+	 * A late peer joins once the others have settled.
+	 */
+	private static final long LATE_JOIN = 120000;
+	private static final long DURATION = 300000;
+	/**
+	 * Packets are counted during the last minute, when the set of peers is stable.
+	 */
+	private static final long STEADY_WINDOW = 60000;
+
+	/**
+	 * Main entry point for the beacon simulation.<br>
+	 * Simulates N peers on one network segment, where a pair of peers connects once the peer with the larger id</br>
+	 * hears a beacon from the peer with the smaller id, like MulticastSocketController does.<br>
+	 * Reports how long discovery took and how many packets per second are sent, for the adaptive scheduler and the original fixed interval.
+	 * @param args The application's command line arguments.
+	 */
+	public static void main(final String[] args) {
+		for (final int peers : PEERS) {
+			System.out.println(peers + " peers:");
+			run("adaptive", peers, true);
+			run("fixed 500ms", peers, false);
+		}
+	}
+
+	private static void run(final String name, final int peerCount, final boolean adaptive) {
+		final Random random = new Random(peerCount);
+		final int total = peerCount + 1;
+		final Peer[] peers = new Peer[total];
+		for (int i = 0; i < total; i++) {
+			final BeaconScheduler scheduler = adaptive
+					? new BeaconScheduler(BeaconScheduler.DEFAULT_FLOOR, BeaconScheduler.DEFAULT_CEILING, BeaconScheduler.DEFAULT_BURST, new Random(random.nextLong()))
+					: new BeaconScheduler(500, 500, 0, new Random(random.nextLong()));
+			peers[i] = new Peer(i, scheduler, total);
+		}
+		// the late peer gets a random place in the id order
+		final int late = random.nextInt(total);
+		final PriorityQueue<long[]> events = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+		for (final Peer peer : peers) {
+			peer.startTime = peer.id == late ? LATE_JOIN : (long) (random.nextDouble() * START_WINDOW);
+			peer.scheduler.burst(peer.startTime);
+			events.add(new long[] { peer.startTime, peer.id });
+		}
+		long packets = 0;
+		long steadyPackets = 0;
+		long latencySum = 0;
+		long latencyMax = 0;
+		long pairs = 0;
+		long lateConnected = -1;
+		int lateRemaining = total - 1;
+		while (!events.isEmpty()) {
+			final long[] event = events.poll();
+			final long now = event[0];
+			if (now > DURATION) {
+				break;
+			}
+			final Peer sender = peers[(int) event[1]];
+			if (now < sender.scheduler.getNextSendTime()) {
+				continue; // a stale event, the beacon was moved by a nudge
+			}
+			sender.scheduler.sent(now);
+			events.add(new long[] { sender.scheduler.getNextSendTime(), sender.id });
+			packets++;
+			if (now >= DURATION - STEADY_WINDOW) {
+				steadyPackets++;
+			}
+			for (final Peer receiver : peers) {
+				if (receiver == sender || receiver.startTime > now || receiver.connected[sender.id]) {
+					continue;
+				}
+				if (sender.id < receiver.id) {
+					// the receiver connects to the sender
+					receiver.connected[sender.id] = true;
+					sender.connected[receiver.id] = true;
+					final long latency = now - Math.max(sender.startTime, receiver.startTime);
+					latencySum += latency;
+					latencyMax = Math.max(latencyMax, latency);
+					pairs++;
+					if ((sender.id == late || receiver.id == late) && --lateRemaining == 0) {
+						lateConnected = now - LATE_JOIN;
+					}
+				} else if (now - receiver.nudged[sender.id] >= BeaconScheduler.DEFAULT_CEILING || receiver.nudged[sender.id] == 0) {
+					// the sender waits for the receiver's beacon, so bring it forward
+					receiver.nudged[sender.id] = now;
+					final long before = receiver.scheduler.getNextSendTime();
+					receiver.scheduler.nudge(now);
+					if (receiver.scheduler.getNextSendTime() < before) {
+						events.add(new long[] { receiver.scheduler.getNextSendTime(), receiver.id });
+					}
+				}
+			}
+		}
+		System.out.println("\t" + name + ": " + pairs + " pairs connected, discovery avg " + (pairs == 0 ? 0 : latencySum / pairs) + " ms, max " + latencyMax
+				+ " ms, late peer connected to all after " + lateConnected + " ms, " + String.format("%.1f", packets * 1000.0 / DURATION) + " packets/sec overall, "
+				+ String.format("%.1f", steadyPackets * 1000.0 / STEADY_WINDOW) + " packets/sec steady");
+	}
+
+	private static class Peer {
+
+		private final int id;
+		private final BeaconScheduler scheduler;
+		private final boolean[] connected;
+		private final long[] nudged;
+		private long startTime;
+
+		private Peer(final int id, final BeaconScheduler scheduler, final int total) {
+			this.id = id;
+			this.scheduler = scheduler;
+			this.connected = new boolean[total];
+			this.nudged = new long[total];
+		}
+
+	}
+
+}